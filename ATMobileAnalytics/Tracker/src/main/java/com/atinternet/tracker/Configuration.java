@@ -29,9 +29,13 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Class to manage tracker configuration
@@ -44,6 +48,14 @@ public class Configuration extends LinkedHashMap<String, Object> {
     private static final String JSON_FILE = "defaultConfiguration.json";
     private static final int DEFAULT_CAMPAIGN_LIFETIME = 30;
     private static final int DEFAULT_SESSION_BACKGROUND_DURATION = 60;
+    // Clés utilisées pour construire le préfixe des hits
+    private static final Set<String> HIT_PREFIX_KEYS = new HashSet<>(Arrays.asList(
+            TrackerConfigurationKeys.SECURE, TrackerConfigurationKeys.LOG, TrackerConfigurationKeys.LOG_SSL,
+            TrackerConfigurationKeys.DOMAIN, TrackerConfigurationKeys.PIXEL_PATH, TrackerConfigurationKeys.SITE,
+            TrackerConfigurationKeys.COLLECT_DOMAIN));
+
+    private volatile int hitPrefixVersion;
+    private volatile HitPrefix hitPrefix;
 
     Configuration(Context context) {
         JSONObject jsonObject = getDefaultConfiguration(Tool.isTablet(context));
@@ -126,6 +138,67 @@ public class Configuration extends LinkedHashMap<String, Object> {
         return result;
     }
 
+    @Override
+    public Object put(String key, Object value) {
+        Object previousValue = super.put(key, value);
+        if (HIT_PREFIX_KEYS.contains(key) && (previousValue == null ? value != null : !previousValue.equals(value))) {
+            hitPrefixVersion++;
+        }
+        return previousValue;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> map) {
+        for (Entry<? extends String, ?> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (HIT_PREFIX_KEYS.contains(key)) {
+            hitPrefixVersion++;
+        }
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        hitPrefixVersion++;
+        super.clear();
+    }
+
+    // Préfixes des hits reconstruits seulement après la modification d'une des clés utilisées
+    HitPrefix getHitPrefix() {
+        HitPrefix prefix = hitPrefix;
+        int version = hitPrefixVersion;
+        if (prefix == null || prefix.getVersion() != version) {
+            prefix = new HitPrefix(this, version);
+            hitPrefix = prefix;
+        }
+        return prefix;
+    }
+
+    boolean getBoolean(String key, boolean defaultValue) {
+        Object value = get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Utility.parseBooleanFromString(String.valueOf(value));
+    }
+
+    int getInt(String key, int defaultValue) {
+        Object value = get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Stringify configuration
      *
@@ -25,13 +25,16 @@ package com.atinternet.tracker;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.app.Activity;
-import android.content.ContentValues;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
@@ -40,8 +43,10 @@ import android.graphics.drawable.Drawable;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Build;
+import android.os.Handler;
 import android.os.Looper;
 import android.provider.Settings;
+import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
@@ -57,16 +62,41 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.net.URLEncoder;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -75,18 +105,63 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
 
 interface Closure {
     String execute();
 }
 
+// Valeur JSON fournie sous forme structurée, fusionnée sans être convertie en chaîne puis relue
+abstract class JSONClosure implements Closure {
+
+    abstract Map<String, ?> executeJSON();
+
+    @Override
+    public String execute() {
+        Map<String, ?> value = executeJSON();
+        if (value == null) {
+            return "";
+        }
+        try {
+            return JSONAccumulator.toJSONObject(value).toString();
+        } catch (JSONException e) {
+            Log.e(ATInternet.TAG, e.toString());
+            return "";
+        }
+    }
+}
+
 class Param {
 
     private String key;
@@ -146,8 +221,56 @@ class Param {
 
 class Buffer {
 
-    private final LinkedHashMap<String, Param> persistentParams;
-    private final LinkedHashMap<String, Param> volatileParams;
+    // Table de paramètres dont l'instantané est partagé jusqu'à la prochaine modification effective
+    static final class Params extends LinkedHashMap<String, Param> {
+
+        private Map<String, Param> snapshot;
+
+        @Override
+        public Param put(String key, Param value) {
+            Param previous = super.put(key, value);
+            if (previous != value) {
+                snapshot = null;
+            }
+            return previous;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends Param> map) {
+            for (Map.Entry<? extends String, ? extends Param> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public Param remove(Object key) {
+            if (!containsKey(key)) {
+                return null;
+            }
+            snapshot = null;
+            return super.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            if (!isEmpty()) {
+                snapshot = null;
+                super.clear();
+            }
+        }
+
+        Map<String, Param> getSnapshot() {
+            Map<String, Param> current = snapshot;
+            if (current == null) {
+                current = Collections.unmodifiableMap(new LinkedHashMap<>(this));
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    private final Params persistentParams;
+    private Params volatileParams;
 
     private String identifierKey;
     private boolean ignoreLimitedAdTracking;
@@ -173,8 +296,8 @@ class Buffer {
     private Closure apvrClosure;
 
     Buffer(Tracker tracker) {
-        persistentParams = new LinkedHashMap<>();
-        volatileParams = new LinkedHashMap<>();
+        persistentParams = new Params();
+        volatileParams = new Params();
         identifierKey = String.valueOf(tracker.getConfiguration().get(TrackerConfigurationKeys.IDENTIFIER));
         ignoreLimitedAdTracking = (boolean) tracker.getConfiguration().get(TrackerConfigurationKeys.IGNORE_LIMITED_AD_TRACKING);
 
@@ -190,6 +313,18 @@ class Buffer {
         return volatileParams;
     }
 
+    // Paramètres persistants partagés par référence tant qu'ils ne sont pas modifiés
+    Map<String, Param> getPersistentParamsSnapshot() {
+        return persistentParams.getSnapshot();
+    }
+
+    // Paramètres volatiles remis au builder sans copie, le buffer repart d'une table vide
+    Map<String, Param> takeVolatileParams() {
+        Params params = volatileParams;
+        volatileParams = new Params();
+        return params;
+    }
+
     void setIdentifierKey(String identifierKey, boolean ignoreLimitedAdTracking) {
         volatileParams.remove(Hit.HitParam.UserId.stringValue());
         ParamOption persistent = new ParamOption().setPersistent(true);
@@ -281,36 +416,17 @@ class Buffer {
 }
 
 @SuppressWarnings("unchecked")
-class Builder implements Runnable {
+final class HitPrefix {
 
-    private static final String PERCENT_VALUE = "%";
-    private static final String MH_PARAMETER_FORMAT = "%1$s-%2$s-%3$s";
-    private static final String MHID_FORMAT = "%02d%02d%02d%d";
-    private static final String[] MH_PARAMS_ALL_PARTS = new String[]{"idclient", "col"};
-    private static final String OPT_OUT = "opt-out";
-    private static final String MHERR = "mherr";
-
-    private static final int MHID_UPPER_LIMIT = 9_000_000;
-    private static final int MHID_LOWER_LIMIT = 1_000_000;
     private static final int REFCONFIGCHUNKS = 4;
-    private static final int MH_PARAMETER_MAX_LENGTH = 30;
-    private static final int MHERR_PARAMETER_LENGTH = 8;
-    private static final int HIT_MAX_LENGTH = 1600;
-    private static final int HIT_MAX_COUNT = 999;
 
-    private final Configuration configuration;
-    private final LinkedHashMap<String, Param> persistentParams;
-    private final LinkedHashMap<String, Param> volatileParams;
-    private final Tracker tracker;
-
-    Builder(Tracker tracker) {
-        this.tracker = tracker;
-        this.configuration = tracker.getConfiguration();
-        this.volatileParams = new LinkedHashMap<>(tracker.getBuffer().getVolatileParams());
-        this.persistentParams = new LinkedHashMap<>(tracker.getBuffer().getPersistentParams());
-    }
+    private final int version;
+    private final String prefix;
+    private final String collectPrefix;
+    private final boolean isValid;
 
-    String buildConfiguration() {
+    HitPrefix(Configuration configuration, int version) {
+        this.version = version;
         StringBuilder conf = new StringBuilder();
         int hitConfigChunks = 0;
 
@@ -349,13 +465,144 @@ class Builder implements Runnable {
                 .append(siteID);
         hitConfigChunks++;
 
+        prefix = conf.toString();
+        isValid = hitConfigChunks == REFCONFIGCHUNKS;
+
+        // Préfixe des events : le sous-domaine de log est remplacé par le domaine de collecte
+        String collectDomain = String.valueOf(configuration.get(TrackerConfigurationKeys.COLLECT_DOMAIN));
+        if (!isValid || TextUtils.isEmpty(collectDomain)) {
+            collectPrefix = null;
+        } else {
+            collectPrefix = prefix.replace(isSecure ? logSecure : log, collectDomain);
+        }
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    boolean isValid() {
+        return isValid;
+    }
+
+    String getPrefix() {
+        return isValid ? prefix : "";
+    }
+
+    String getInvalidPrefix() {
+        return prefix;
+    }
+
+    String getCollectPrefix() {
+        return collectPrefix;
+    }
+}
+
+// Fusion des fragments d'un paramètre JSON, sérialisés une seule fois
+@SuppressWarnings("unchecked")
+final class JSONAccumulator {
+
+    private final Map<String, Object> values = new HashMap<>();
+
+    void merge(Map<String, ?> fragment) {
+        values.putAll(fragment);
+    }
+
+    void merge(JSONObject fragment) {
+        values.putAll(Tool.toMap(fragment));
+    }
+
+    boolean append(Closure closure) throws JSONException {
+        if (closure instanceof JSONClosure) {
+            Map<String, ?> fragment = ((JSONClosure) closure).executeJSON();
+            if (fragment == null) {
+                return false;
+            }
+            merge(fragment);
+            return true;
+        }
+        // Seules les valeurs fournies sous forme de chaîne sont relues
+        String value = closure.execute();
+        if (!Tool.isJSON(value)) {
+            return false;
+        }
+        merge(new JSONObject(value));
+        return true;
+    }
+
+    String toJSONString() throws JSONException {
+        return toJSONObject(values).toString();
+    }
+
+    // Avant l'API 19, JSONObject(Map) ne convertit pas les tables et listes imbriquées : la conversion est faite ici
+    static JSONObject toJSONObject(Map<String, ?> map) throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            jsonObject.put(entry.getKey(), wrap(entry.getValue()));
+        }
+        return jsonObject;
+    }
 
-        if (hitConfigChunks != REFCONFIGCHUNKS) {
-            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.ERROR, "There is something wrong with configuration : " + conf);
-            conf = new StringBuilder();
+    private static Object wrap(Object value) throws JSONException {
+        if (value == null) {
+            return JSONObject.NULL;
+        }
+        if (value instanceof Map) {
+            return toJSONObject((Map<String, ?>) value);
+        }
+        if (value instanceof Object[]) {
+            value = Arrays.asList((Object[]) value);
+        }
+        if (value instanceof Collection) {
+            JSONArray jsonArray = new JSONArray();
+            for (Object element : (Collection<?>) value) {
+                jsonArray.put(wrap(element));
+            }
+            return jsonArray;
         }
+        return value;
+    }
+}
+
+class Builder implements Runnable {
+
+    private static final char PERCENT_CHAR = '%';
+    private static final String MH_PARAMETER_FORMAT = "%1$s-%2$s-%3$s";
+    private static final String MHID_FORMAT = "%02d%02d%02d%d";
+    private static final String[] MH_PARAMS_ALL_PARTS = new String[]{"idclient", "col"};
+    private static final String OPT_OUT = "opt-out";
+    private static final String MHERR = "mherr";
+
+    private static final int MHID_UPPER_LIMIT = 9_000_000;
+    private static final int MHID_LOWER_LIMIT = 1_000_000;
+    private static final int MH_PARAMETER_MAX_LENGTH = 30;
+    private static final int MHERR_PARAMETER_LENGTH = 8;
+    private static final int HIT_MAX_LENGTH = 1600;
+    private static final int HIT_MAX_COUNT = 999;
+
+    private final Configuration configuration;
+    private final Map<String, Param> persistentParams;
+    private final Map<String, Param> volatileParams;
+    private final Tracker tracker;
+
+    Builder(Tracker tracker) {
+        this(tracker, tracker.getBuffer().takeVolatileParams(), tracker.getBuffer().getPersistentParamsSnapshot());
+    }
 
-        return conf.toString();
+    Builder(Tracker tracker, Map<String, Param> volatileParams, Map<String, Param> persistentParams) {
+        this.tracker = tracker;
+        this.configuration = tracker.getConfiguration();
+        this.volatileParams = volatileParams;
+        this.persistentParams = persistentParams;
+    }
+
+    String buildConfiguration() {
+        HitPrefix hitPrefix = configuration.getHitPrefix();
+        if (!hitPrefix.isValid()) {
+            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.ERROR, "There is something wrong with configuration : " + hitPrefix.getInvalidPrefix());
+            return "";
+        }
+        return hitPrefix.getPrefix();
     }
 
     Pair<ArrayList<String>, String> build() {
@@ -375,17 +622,11 @@ class Builder implements Runnable {
 
         /// Surcharge du domain pour les events
         if (keySet.contains("col")) {
-            String collectDomain = String.valueOf(configuration.get(TrackerConfigurationKeys.COLLECT_DOMAIN));
-            if (TextUtils.isEmpty(collectDomain)) {
+            configStr = configuration.getHitPrefix().getCollectPrefix();
+            if (configStr == null) {
                 Tool.executeCallback(tracker.getListener(), Tool.CallbackType.BUILD, "invalid collect domain", TrackerListener.HitStatus.Failed);
                 return new Pair<>(hitsList, oltParameter);
             }
-            boolean isSecure = (boolean) configuration.get(TrackerConfigurationKeys.SECURE);
-            if (isSecure) {
-                configStr = configStr.replace(String.valueOf(configuration.get(TrackerConfigurationKeys.LOG_SSL)), collectDomain);
-            } else {
-                configStr = configStr.replace(String.valueOf(configuration.get(TrackerConfigurationKeys.LOG)), collectDomain);
-            }
         }
 
         int maxLengthAvailable = HIT_MAX_LENGTH - (configStr.length() + oltParameter.length() + MH_PARAMETER_MAX_LENGTH);
@@ -402,6 +643,17 @@ class Builder implements Runnable {
         mhCommonQueryContent = mhCommonQueryContentSb.toString();
         queryString.append(mhCommonQueryContent);
 
+        // Envoi en POST : pas de limite de longueur, le hit n'est pas découpé
+        if (configuration.getBoolean(TrackerConfigurationKeys.ENABLE_POST_SENDING, false)) {
+            for (String parameterKey : keySet) {
+                queryString.append(dictionary.get(parameterKey).first);
+            }
+            String hit = configStr + queryString;
+            hitsList.add(hit);
+            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.BUILD, hit + '\n', TrackerListener.HitStatus.Success);
+            return new Pair<>(hitsList, oltParameter);
+        }
+
 
         ArrayList<String> prepareHitsList = new ArrayList<>();
         int countSplitHits = 1;
@@ -425,57 +677,80 @@ class Builder implements Runnable {
                     break;
                 }
 
-                // Récupération du séparateur, de la clé et la valeur du paramètre courant
-                String[] currentParameterString = value.split("=");
-                String currentKey = currentParameterString[0] + "=";
-                String currentValue = currentParameterString[1];
-
-                // On découpe la valeur du paramètre sur son séparateur
-                String[] valuesList = currentValue.split(separator);
-
-                for (int i = 0; i < valuesList.length; i++) {
-                    String currentSplitValue = valuesList[i];
-
-                    // Si la valeur courante est trop grande
-                    if (currentSplitValue.length() > maxLengthAvailable) {
-                        // Erreur : Valeur trop longue non découpable
-                        indexError = countSplitHits;
-                        queryString.append(currentKey);
-                        int currentMaxLength = maxLengthAvailable - (MHERR_PARAMETER_LENGTH + queryString.length());
-
-                        // On cherche la position du dernier % afin d'éviter les exceptions au moment de la découpe brutale
-                        String splitError = currentSplitValue.substring(0, currentMaxLength);
-                        int lastIndexOfPercent = splitError.lastIndexOf(PERCENT_VALUE);
+                // Lecture unique de la valeur : les tronçons sont repérés par leurs positions, sans copie intermédiaire
+                int keyEnd = value.indexOf('=') + 1;
+                int length = value.length();
+                int separatorLength = separator.length();
+                int partIndex = 0;
+                int emptyParts = 0;
+                int partStart = keyEnd;
+                int position = keyEnd;
+
+                while (true) {
+                    // Recherche du prochain séparateur, une séquence %XX n'est jamais coupée
+                    while (position < length && (separatorLength == 0 || !value.startsWith(separator, position))) {
+                        position = (value.charAt(position) == PERCENT_CHAR) ? Math.min(position + 3, length) : position + 1;
+                    }
+                    int partEnd = position;
+                    boolean isLastPart = partEnd == length;
 
-                        if ((lastIndexOfPercent > currentMaxLength - 5) && (lastIndexOfPercent < currentMaxLength)) {
-                            queryString.append(splitError.substring(0, lastIndexOfPercent));
-                        } else {
-                            queryString.append(splitError);
-                        }
-                        Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "Multihits: Param " + parameterKey + " value still too long after slicing");
-
-                        // On retourne à l'endroit du code où se trouve outerloop
-                        break outerloop;
-                    } else if (queryString.length() + currentSplitValue.length() > maxLengthAvailable) {
-                        // Sinon si le hit déjà construit + la valeur courante est trop grand -> On créé un nouveau tronçon
-                        countSplitHits++;
-                        prepareHitsList.add(queryString.toString());
-                        queryString = new StringBuilder()
-                                .append(mhCommonQueryContent)
-                                .append(currentKey)
-                                .append((i == 0) ? currentSplitValue : (separator + currentSplitValue));
+                    if (partEnd == partStart) {
+                        // Les tronçons vides ne sont conservés que s'ils sont suivis d'un tronçon non vide
+                        emptyParts++;
                     } else {
-                        // Sinon, on continue la construction normalement
-                        queryString.append((i == 0) ? (currentKey + currentSplitValue) : (separator + currentSplitValue));
+                        for (int pending = emptyParts; pending >= 0; pending--, partIndex++) {
+                            int sliceEnd = (pending == 0) ? partEnd : partStart;
+
+                            // Si la valeur courante est trop grande
+                            if (sliceEnd - partStart > maxLengthAvailable) {
+                                // Erreur : Valeur trop longue non découpable
+                                indexError = countSplitHits;
+                                queryString.append(value, 0, keyEnd);
+                                int currentMaxLength = Math.max(0, maxLengthAvailable - (MHERR_PARAMETER_LENGTH + queryString.length()));
+                                int cutEnd = partStart + currentMaxLength;
+
+                                // On cherche la position du dernier % afin d'éviter les exceptions au moment de la découpe brutale
+                                int lastIndexOfPercent = value.lastIndexOf(PERCENT_CHAR, cutEnd - 1);
+                                if (lastIndexOfPercent >= partStart && lastIndexOfPercent - partStart > currentMaxLength - 5) {
+                                    cutEnd = lastIndexOfPercent;
+                                }
+                                queryString.append(value, partStart, cutEnd);
+                                Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "Multihits: Param " + parameterKey + " value still too long after slicing");
+
+                                // On retourne à l'endroit du code où se trouve outerloop
+                                break outerloop;
+                            } else if (queryString.length() + sliceEnd - partStart > maxLengthAvailable) {
+                                // Sinon si le hit déjà construit + la valeur courante est trop grand -> On créé un nouveau tronçon
+                                countSplitHits++;
+                                prepareHitsList.add(queryString.toString());
+                                queryString.setLength(0);
+                                queryString.append(mhCommonQueryContent).append(value, 0, keyEnd);
+                                if (partIndex > 0) {
+                                    queryString.append(separator);
+                                }
+                            } else if (partIndex == 0) {
+                                // Sinon, on continue la construction normalement
+                                queryString.append(value, 0, keyEnd);
+                            } else {
+                                queryString.append(separator);
+                            }
+                            queryString.append(value, partStart, sliceEnd);
+                        }
+                        emptyParts = 0;
+                    }
+
+                    if (isLastPart) {
+                        break;
                     }
+                    position += separatorLength;
+                    partStart = position;
                 }
             } else if (queryString.length() + value.length() > maxLengthAvailable) {
                 // Sinon, si le hit est trop grand, on le découpe entre deux paramètres
                 countSplitHits++;
                 prepareHitsList.add(queryString.toString());
-                queryString = new StringBuilder()
-                        .append(mhCommonQueryContent)
-                        .append(value);
+                queryString.setLength(0);
+                queryString.append(mhCommonQueryContent).append(value);
             } else {
                 //Sinon, on ne découpe pas
                 queryString.append(value);
@@ -523,66 +798,119 @@ class Builder implements Runnable {
     public void run() {
         // Récupération des éléments issus du build
         Pair<ArrayList<String>, String> buildResult = build();
-        ArrayList<String> urls = buildResult.first;
-        String oltParameter = buildResult.second;
-
-        if (TechnicalContext.optOutEnabled(Tracker.getAppContext()) && !((boolean) tracker.getConfiguration().get(TrackerConfigurationKeys.SEND_HIT_WHEN_OPT_OUT))) {
-            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "'sendHitWhenOptOut' configuration disabled, hit(s) not sent");
+        if (!isSendingAllowed()) {
             return;
         }
-
-        // Envoi du(des) hit(s) construit(s)
-        for (String url : urls) {
-            new Sender(tracker, new Hit(url), false, oltParameter).send(tracker.getOfflineMode() != Tracker.OfflineMode.never);
+        Runnable onComplete = null;
+        // File durable : les hits sont journalisés sur le thread de la file, dans l'ordre, avant leur envoi
+        if (!buildResult.first.isEmpty() && configuration.getBoolean(TrackerConfigurationKeys.ENABLE_DURABLE_QUEUE, false)) {
+            QueueJournal journal = QueueJournal.getInstance(Tracker.getAppContext());
+            long entryId = journal.append(buildResult.first, buildResult.second);
+            if (entryId < 0) {
+                Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "Hit(s) could not be journaled, they will be lost if the application stops before sending");
+            } else {
+                onComplete = acknowledge(journal, entryId);
+            }
         }
+        sendHits(tracker, buildResult.first, buildResult.second, onComplete);
     }
 
-    ArrayList<Param> organizeParameters(LinkedHashMap<String, Param> completeBuffer) {
-        ArrayList<Param> params = new ArrayList<>();
-        String firstParamKey = null;
-        String lastParamKey = null;
+    // Hits journalisés lors d'un précédent lancement, ni envoyés ni stockés
+    static void replayJournal(final Tracker tracker) {
+        final QueueJournal journal = QueueJournal.getInstance(Tracker.getAppContext());
+        for (final QueueJournal.Entry entry : journal.takeRecoveredEntries()) {
+            TrackerQueue.getInstance().put(new Runnable() {
+                @Override
+                public void run() {
+                    sendHits(tracker, entry.getUrls(), entry.getOltParameter(), acknowledge(journal, entry.getId()));
+                }
+            });
+        }
+    }
 
-        Param refstore = completeBuffer.remove(Hit.HitParam.Refstore.stringValue());
-        Param ref = completeBuffer.remove(Hit.HitParam.Referrer.stringValue());
+    private static Runnable acknowledge(final QueueJournal journal, final long entryId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                journal.acknowledge(entryId);
+            }
+        };
+    }
 
-        for (Map.Entry<String, Param> entry : completeBuffer.entrySet()) {
-            Param param = entry.getValue();
-            ParamOption options = param.getOptions();
+    private boolean isSendingAllowed() {
+        if (TechnicalContext.optOutEnabled(Tracker.getAppContext()) && !((boolean) tracker.getConfiguration().get(TrackerConfigurationKeys.SEND_HIT_WHEN_OPT_OUT))) {
+            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "'sendHitWhenOptOut' configuration disabled, hit(s) not sent");
+            return false;
+        }
+        return true;
+    }
 
-            if (options == null) {
-                params.add(param);
-                continue;
+    static void sendHits(final Tracker tracker, List<String> urls, String oltParameter, final Runnable onComplete) {
+        // Envoi du(des) hit(s) construit(s), les parties d'un multihit restent groupées
+        final ArrayList<Sender> senders = new ArrayList<>();
+        for (String url : urls) {
+            senders.add(new Sender(tracker, new Hit(url), false, oltParameter));
+        }
+        final boolean includeOfflineHits = tracker.getOfflineMode() != Tracker.OfflineMode.never;
+        tracker.getSenderPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (includeOfflineHits) {
+                        Sender.sendOfflineHits(tracker, Storage.getInstance(Tracker.getAppContext()), false, false);
+                    }
+                    // Les parties d'un multihit qui ne seront pas envoyées sont stockées en une seule transaction
+                    if (senders.size() > 1 && Sender.isStoredWithoutSending(senders)) {
+                        Sender.saveHitsDatabase(senders);
+                        return;
+                    }
+                    for (Sender sender : senders) {
+                        sender.send(false);
+                    }
+                } finally {
+                    if (onComplete != null) {
+                        // Les hits en attente d'un envoi groupé sont envoyés avant d'être retirés du journal
+                        tracker.getHitBatcher().flush();
+                        onComplete.run();
+                    }
+                }
             }
+        });
+    }
 
-            switch (options.getRelativePosition()) {
-                case first:
-                    firstParamKey = entry.getKey();
-                    break;
-                case last:
-                    lastParamKey = entry.getKey();
-                    break;
-                default:
-                    params.add(param);
-                    break;
+    // Les paramètres volatiles remplacent les persistants de même clé à leur position, sans fusion des deux buffers
+    ArrayList<Param> organizeParameters(Map<String, Param> persistentParams, Map<String, Param> volatileParams) {
+        ArrayList<Param> params = new ArrayList<>(persistentParams.size() + volatileParams.size());
+        Param[] relativeParams = new Param[2];
+
+        for (Map.Entry<String, Param> entry : persistentParams.entrySet()) {
+            Param volatileParam = volatileParams.get(entry.getKey());
+            addParameter(params, relativeParams, entry.getKey(), volatileParam != null ? volatileParam : entry.getValue());
+        }
+        for (Map.Entry<String, Param> entry : volatileParams.entrySet()) {
+            if (!persistentParams.containsKey(entry.getKey())) {
+                addParameter(params, relativeParams, entry.getKey(), entry.getValue());
             }
         }
 
         // Insertion du premier paramètre
-        if (firstParamKey != null) {
-            params.add(0, completeBuffer.get(firstParamKey));
+        if (relativeParams[0] != null) {
+            params.add(0, relativeParams[0]);
         }
 
         // Insertion du dernier paramètre
-        if (lastParamKey != null) {
-            params.add(completeBuffer.get(lastParamKey));
+        if (relativeParams[1] != null) {
+            params.add(relativeParams[1]);
         }
 
         // Insertion du refstore si existant
+        Param refstore = getParameter(persistentParams, volatileParams, Hit.HitParam.Refstore.stringValue());
         if (refstore != null) {
             params.add(refstore);
         }
 
         // Insertion du ref si existant
+        Param ref = getParameter(persistentParams, volatileParams, Hit.HitParam.Referrer.stringValue());
         if (ref != null) {
             params.add(ref);
         }
@@ -590,40 +918,61 @@ class Builder implements Runnable {
         return params;
     }
 
+    private static void addParameter(ArrayList<Param> params, Param[] relativeParams, String key, Param param) {
+        if (Hit.HitParam.Refstore.stringValue().equals(key) || Hit.HitParam.Referrer.stringValue().equals(key)) {
+            return;
+        }
+        ParamOption options = param.getOptions();
+        if (options == null) {
+            params.add(param);
+            return;
+        }
+
+        switch (options.getRelativePosition()) {
+            case first:
+                relativeParams[0] = param;
+                break;
+            case last:
+                relativeParams[1] = param;
+                break;
+            default:
+                params.add(param);
+                break;
+        }
+    }
+
+    private static Param getParameter(Map<String, Param> persistentParams, Map<String, Param> volatileParams, String key) {
+        Param param = volatileParams.get(key);
+        return param != null ? param : persistentParams.get(key);
+    }
+
     LinkedHashMap<String, Pair<String, String>> prepareQuery() {
         LinkedHashMap<String, Pair<String, String>> formattedParameters = new LinkedHashMap<>();
 
-        LinkedHashMap<String, Param> completeBuffer = new LinkedHashMap<>();
-        completeBuffer.putAll(persistentParams);
-        completeBuffer.putAll(volatileParams);
-
         // ORGANISE PARAMS
-        ArrayList<Param> params = organizeParameters(completeBuffer);
+        ArrayList<Param> params = organizeParameters(persistentParams, volatileParams);
 
         // PREPARE
         for (final Param p : params) {
             List<Closure> paramValues = new ArrayList<>(p.getValues());
+            Closure firstValue = paramValues.remove(0);
+            ParamOption options = p.getOptions();
 
-            String strValue = paramValues.remove(0).execute();
+            String strValue;
+            if (options != null && options.getType() == ParamOption.Type.JSON) {
+                strValue = mergeJSONValues(firstValue, paramValues);
+            } else {
+                strValue = firstValue.execute();
+            }
             if (strValue == null) {
                 continue;
             }
 
-            ParamOption options = p.getOptions();
             if (options != null) {
                 try {
                     switch (options.getType()) {
                         case JSON:
-                            Map map = new HashMap(Tool.toMap(new JSONObject(strValue)));
-                            for (Closure closureValue : paramValues) {
-                                String appendValue = closureValue.execute();
-                                if (Tool.isJSON(appendValue)) {
-                                    map.putAll(Tool.toMap(new JSONObject(appendValue)));
-                                } else {
-                                    Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "Couldn't append value to a JSONObject");
-                                }
-                            }
-                            strValue = new JSONObject(map).toString();
+                            // Valeurs déjà fusionnées
                             break;
                         case ARRAY:
                             List array = new ArrayList();
@@ -685,19 +1034,60 @@ class Builder implements Runnable {
             }
 
             String separator = ",";
-            if (options != null) {
-                separator = options.getSeparator();
-                if (options.isEncode()) {
-                    strValue = Tool.percentEncode(strValue);
-                    separator = Tool.percentEncode(separator);
+            String subQuery;
+            if (options != null && options.isEncode()) {
+                // Valeur encodée directement à la suite de la clé
+                StringBuilder subQueryBuilder = new StringBuilder(key.length() + strValue.length() * 3 + 2)
+                        .append('&').append(key).append('=');
+                Tool.percentEncode(strValue, subQueryBuilder);
+                subQuery = subQueryBuilder.toString();
+                separator = Tool.percentEncode(options.getSeparator());
+            } else {
+                if (options != null) {
+                    separator = options.getSeparator();
                 }
+                subQuery = makeSubQuery(key, strValue);
             }
 
-            formattedParameters.put(key, new Pair<>(makeSubQuery(key, strValue), separator));
+            formattedParameters.put(key, new Pair<>(subQuery, separator));
         }
         return formattedParameters;
     }
 
+    // Les fragments structurés sont fusionnés tels quels, seules les valeurs fournies sous forme de chaîne sont relues
+    private String mergeJSONValues(Closure firstValue, List<Closure> appendedValues) {
+        JSONAccumulator accumulator = new JSONAccumulator();
+        String firstString = "";
+        try {
+            Map<String, ?> firstFragment = (firstValue instanceof JSONClosure) ? ((JSONClosure) firstValue).executeJSON() : null;
+            if (firstFragment != null) {
+                accumulator.merge(firstFragment);
+            } else {
+                if (!(firstValue instanceof JSONClosure)) {
+                    firstString = firstValue.execute();
+                    if (firstString == null) {
+                        return null;
+                    }
+                }
+                accumulator.merge(new JSONObject(firstString));
+            }
+            for (Closure closureValue : appendedValues) {
+                if (!accumulator.append(closureValue)) {
+                    Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "Couldn't append value to a JSONObject");
+                }
+            }
+        } catch (JSONException ex) {
+            Log.e(ATInternet.TAG, ex.toString());
+            return firstString;
+        }
+        try {
+            return accumulator.toJSONString();
+        } catch (JSONException ex) {
+            Log.e(ATInternet.TAG, ex.toString());
+            return firstString;
+        }
+    }
+
     private static String mhIdSuffixGenerator() {
         Calendar calendar = Calendar.getInstance();
         calendar.setTime(new Date());
@@ -716,11 +1106,17 @@ class Builder implements Runnable {
 class Sender implements Runnable {
 
     private static final int RETRY_COUNT = 3;
-    private static final int TIMEOUT = 15000;
-    private static final int STATUS_OK = 200;
+    static final int TIMEOUT = 15000;
+    static final int STATUS_OK = 200;
     private static final String RECEIVE_FROM_SERVER_ERROR = "recvfrom";
+    private static final String ENCODING = "UTF-8";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private static final int MAX_HEDGE_THREADS = 4;
+    private static final long HEDGE_THREAD_KEEP_ALIVE_TIME = 30;
 
-    private static boolean offlineHitProcessing;
+    private static final AtomicBoolean offlineHitProcessing = new AtomicBoolean();
+
+    private static ExecutorService hedgeExecutor;
 
     private final Tracker tracker;
     private final Storage storage;
@@ -728,6 +1124,7 @@ class Sender implements Runnable {
     private final Hit hit;
     private final String oltParameter;
     private final boolean forceSendOfflineHits;
+    private OfflineReplay replay;
 
     Sender(Tracker tracker, Hit hit, boolean forceSendOfflineHits, String... oltParameter) {
         this.tracker = tracker;
@@ -737,17 +1134,35 @@ class Sender implements Runnable {
         this.oltParameter = (oltParameter.length > 0) ? oltParameter[0] : "";
     }
 
+    private boolean isOfflineOnly() {
+        return tracker.getOfflineMode() == Tracker.OfflineMode.always && !forceSendOfflineHits;
+    }
+
+    private boolean isWaitingForNetwork(Hit hit) {
+        // Si pas de connexion, les hits critiques ne passent pas derrière les hits stockés
+        // Rejeu à débit limité : les hits en direct sont envoyés sans attendre les hits stockés
+        return TechnicalContext.getConnection() == TechnicalContext.ConnectionType.OFFLINE ||
+                (!hit.isOffline() && !OfflineReplay.isRateLimited(tracker) && storage.getCountOfflineHits() > 0 && !tracker.getSendPolicy().isCritical(hit));
+    }
+
+    static boolean isStoredWithoutSending(List<Sender> senders) {
+        for (Sender sender : senders) {
+            if (sender.hit.isOffline() || !(sender.isOfflineOnly() || sender.isWaitingForNetwork(sender.hit))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void send(final Hit hit) {
         /// Mode offline only
-        if (tracker.getOfflineMode() == Tracker.OfflineMode.always &&
-                !forceSendOfflineHits) {
+        if (isOfflineOnly()) {
             saveHitDatabase(hit);
             return;
         }
 
-        // Si pas de connexion
-        if (TechnicalContext.getConnection() == TechnicalContext.ConnectionType.OFFLINE ||
-                (!hit.isOffline() && storage.getCountOfflineHits() > 0)) {
+        SendPolicy sendPolicy = tracker.getSendPolicy();
+        if (isWaitingForNetwork(hit)) {
             // Si le hit ne provient pas du offline
             if (!hit.isOffline()) {
                 saveHitDatabase(hit);
@@ -755,55 +1170,214 @@ class Sender implements Runnable {
             return;
         }
 
-        HttpURLConnection connection = null;
+        // Réseau lent ou facturé : le hit est différé
+        if (!hit.isOffline() && sendPolicy.shouldDefer(hit)) {
+            saveHitDatabase(hit);
+            sendPolicy.onHitDeferred();
+            return;
+        }
+
+        // Un hit différé déjà stocké n'est pas rejoué sur ce réseau avant la fin du délai maximum
+        if (hit.isOffline() && !forceSendOfflineHits && sendPolicy.shouldKeepStored(hit)) {
+            sendPolicy.onHitDeferred();
+            return;
+        }
+
+        // Le collecteur est indisponible : pas de tentative réseau
+        String endpoint = Tool.getEndpoint(hit.getUrl());
+        CircuitBreaker circuitBreaker = tracker.getCircuitBreaker();
+        if (!circuitBreaker.allowRequest(endpoint)) {
+            // Les hits déjà stockés y restent sans consommer de tentative
+            if (!hit.isOffline()) {
+                onCircuitOpen();
+            }
+            return;
+        }
+
+        // Le hit sera envoyé avec d'autres dans une même requête, vers le point de collecte des lots
+        if (HitBatcher.isEnabled(tracker.getConfiguration())) {
+            tracker.getHitBatcher().add(this);
+            return;
+        }
+
+        // Délai d'attente adapté aux temps de réponse mesurés sur ce réseau
+        Configuration configuration = tracker.getConfiguration();
+        RttEstimator rttEstimator = tracker.getRttEstimator();
+        String rttKey = RttEstimator.getKey(endpoint, TechnicalContext.getConnection());
+        int timeout = TIMEOUT;
+        if (configuration.getBoolean(TrackerConfigurationKeys.ENABLE_ADAPTIVE_TIMEOUT, false)) {
+            timeout = rttEstimator.getTimeout(rttKey, configuration.getInt(TrackerConfigurationKeys.ADAPTIVE_TIMEOUT_PERCENTILE, RttEstimator.DEFAULT_TIMEOUT_PERCENTILE), TIMEOUT);
+        }
+
         try {
             // Execution de la requête
-            URL url = new URL(hit.getUrl());
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setReadTimeout(TIMEOUT);
-            connection.setConnectTimeout(TIMEOUT);
-            connection.connect();
-
-            int statusCode = connection.getResponseCode();
-            final String message = connection.getResponseMessage();
+            HitTransport.Request request = createRequest(configuration).setTimeout(timeout);
+            long startTime = System.nanoTime();
+            HitTransport.Response response;
+            if (configuration.getBoolean(TrackerConfigurationKeys.ENABLE_HEDGED_SENDING, false)) {
+                response = sendHedged(tracker.getTransport(), request, rttEstimator.getHedgeDelay(rttKey));
+            } else {
+                response = tracker.getTransport().send(request);
+            }
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            rttEstimator.addSample(rttKey, latency);
+            tracker.getDeliveryMetrics().onHitSent(latency);
+            circuitBreaker.onResponse(endpoint, response.getStatusCode());
 
             // Le hit n'a pas pu être envoyé
-            if (statusCode != STATUS_OK) {
-                if (tracker.getOfflineMode() != Tracker.OfflineMode.never) {
-                    if (!hit.isOffline()) {
-                        saveHitDatabase(hit);
-                    } else {
-                        updateRetryCount(hit);
-                    }
-                }
-                Tool.executeCallback(tracker.getListener(), Tool.CallbackType.SEND, message, TrackerListener.HitStatus.Failed);
-                updateDebugger(message, "error48", false);
+            if (response.getStatusCode() != STATUS_OK) {
+                onSendFailed(response.getMessage());
             } else {
-                // Si le hit provient du stockage, on le supprime de la base
-                if (hit.isOffline()) {
-                    storage.deleteHit(hit.getUrl());
-                }
-                Tool.executeCallback(tracker.getListener(), Tool.CallbackType.SEND, hit.getUrl(), TrackerListener.HitStatus.Success);
-                updateDebugger(hit.getUrl(), "sent48", true);
+                onSendSucceeded();
             }
         } catch (final Exception e) {
-            updateDebugger(e.getMessage(), "error48", false);
-            // Si une erreur est survenue au moment de la récupération du pixel de marquage mais que le hit est bien envoyé
+            // Un dépassement du délai compte comme une mesure pour élargir les prochains délais
+            if (e instanceof SocketTimeoutException) {
+                rttEstimator.addSample(rttKey, timeout);
+            }
             if (checkExceptionServerReceiveData(e)) {
-                // Si il s'agissait d'un hit offline, on le supprime
-                if (hit.isOffline()) {
-                    storage.deleteHit(hit.getUrl());
+                circuitBreaker.onSuccess(endpoint);
+            } else {
+                circuitBreaker.onFailure(endpoint);
+            }
+            onSendError(e);
+        }
+    }
+
+    private HitTransport.Request createRequest(Configuration configuration) throws UnsupportedEncodingException {
+        String url = hit.getUrl();
+        int queryIndex = url.indexOf('?');
+        // Les paramètres sont envoyés dans le corps de la requête
+        if (queryIndex >= 0 && configuration.getBoolean(TrackerConfigurationKeys.ENABLE_POST_SENDING, false)) {
+            return new HitTransport.Request(url.substring(0, queryIndex), url.substring(queryIndex + 1).getBytes(ENCODING), FORM_CONTENT_TYPE);
+        }
+        return new HitTransport.Request(url);
+    }
+
+    private static HitTransport.Response sendHedged(final HitTransport transport, HitTransport.Request request, long hedgeDelay) throws Exception {
+        if (hedgeDelay < 0) {
+            return transport.send(request);
+        }
+        // Chaque tentative a sa propre requête pour que la perdante puisse être annulée seule
+        HitTransport.Request[] requests = new HitTransport.Request[]{request.copy(), request.copy()};
+        ArrayList<Future<HitTransport.Response>> attempts = new ArrayList<>();
+        CompletionService<HitTransport.Response> completionService = new ExecutorCompletionService<>(getHedgeExecutor());
+        try {
+            attempts.add(completionService.submit(createAttempt(transport, requests[0])));
+        } catch (RejectedExecutionException e) {
+            // Toutes les tentatives parallèles sont occupées : envoi simple
+            return transport.send(request);
+        }
+
+        try {
+            Future<HitTransport.Response> result = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            // Pas de réponse au 95e centile : seconde tentative, la première réponse reçue est retenue
+            if (result == null) {
+                try {
+                    attempts.add(completionService.submit(createAttempt(transport, requests[1])));
+                } catch (RejectedExecutionException e) {
+                    // Pas de seconde tentative, attente de la première
                 }
-            } else if (tracker.getOfflineMode() != Tracker.OfflineMode.never) {
-                if (!hit.isOffline()) {
-                    saveHitDatabase(hit);
-                } else {
-                    updateRetryCount(hit);
+            }
+
+            ExecutionException lastError = null;
+            for (int i = 0; i < attempts.size(); i++) {
+                if (result == null) {
+                    result = completionService.take();
+                }
+                try {
+                    return result.get();
+                } catch (ExecutionException e) {
+                    lastError = e;
+                    result = null;
                 }
             }
+            Throwable cause = lastError.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IOException(cause);
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            // La tentative perdante est interrompue et sa connexion fermée
+            for (int i = 0; i < attempts.size(); i++) {
+                Future<HitTransport.Response> attempt = attempts.get(i);
+                if (!attempt.isDone()) {
+                    attempt.cancel(true);
+                    requests[i].cancel();
+                }
+            }
+        }
+    }
+
+    private static Callable<HitTransport.Response> createAttempt(final HitTransport transport, final HitTransport.Request request) {
+        return new Callable<HitTransport.Response>() {
+            @Override
+            public HitTransport.Response call() throws Exception {
+                return transport.send(request);
+            }
+        };
+    }
+
+    private static synchronized ExecutorService getHedgeExecutor() {
+        if (hedgeExecutor == null) {
+            // Nombre de tentatives simultanées borné, sans file d'attente
+            hedgeExecutor = new ThreadPoolExecutor(0, MAX_HEDGE_THREADS, HEDGE_THREAD_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ATHedgedSender");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return hedgeExecutor;
+    }
+
+    private void onCircuitOpen() {
+        if (tracker.getOfflineMode() != Tracker.OfflineMode.never) {
+            saveHitDatabase(hit);
+        } else {
+            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.SEND, "Collector unavailable : " + hit.getUrl(), TrackerListener.HitStatus.Failed);
+            updateDebugger("Collector unavailable : " + hit.getUrl(), "error48", false);
+        }
+    }
+
+    Hit getHit() {
+        return hit;
+    }
+
+    void onSendSucceeded() {
+        // Si le hit provient du stockage, on le supprime de la base
+        if (hit.isOffline()) {
+            deleteStoredHit();
+        }
+        Tool.executeCallback(tracker.getListener(), Tool.CallbackType.SEND, hit.getUrl(), TrackerListener.HitStatus.Success);
+        updateDebugger(hit.getUrl(), "sent48", true);
+    }
+
+    void onSendFailed(String message) {
+        if (tracker.getOfflineMode() != Tracker.OfflineMode.never) {
+            if (!hit.isOffline()) {
+                saveHitDatabase(hit);
+            } else {
+                updateRetryCount(hit);
+            }
+        }
+        Tool.executeCallback(tracker.getListener(), Tool.CallbackType.SEND, message, TrackerListener.HitStatus.Failed);
+        updateDebugger(message, "error48", false);
+    }
+
+    void onSendError(Exception e) {
+        updateDebugger(e.getMessage(), "error48", false);
+        // Si une erreur est survenue au moment de la récupération du pixel de marquage mais que le hit est bien envoyé
+        if (checkExceptionServerReceiveData(e)) {
+            // Si il s'agissait d'un hit offline, on le supprime
+            if (hit.isOffline()) {
+                deleteStoredHit();
+            }
+        } else if (tracker.getOfflineMode() != Tracker.OfflineMode.never) {
+            if (!hit.isOffline()) {
+                saveHitDatabase(hit);
+            } else {
+                updateRetryCount(hit);
             }
         }
     }
@@ -820,29 +1394,24 @@ class Sender implements Runnable {
         send(hit);
     }
 
-    static void sendOfflineHits(Tracker tracker, Storage storage, boolean force, boolean async) {
+    static void sendOfflineHits(final Tracker tracker, Storage storage, boolean force, boolean async) {
         if (forceSendOfflineHits(tracker, force) && isNetworkOnline() && isAllowedToProcess()) {
 
-            ArrayList<Hit> offlineHits = storage.getOfflineHits();
-            if (async) {
+            OfflineReplay replay = new OfflineReplay(tracker, storage, force);
+            if (async || OfflineReplay.isRateLimited(tracker)) {
                 TrackerQueue.setEnabledFillQueueFromDatabase(false);
-                for (Hit hit : offlineHits) {
-                    Sender sender = new Sender(tracker, hit, force);
-                    TrackerQueue.getInstance().put(sender);
-                }
-                TrackerQueue.getInstance().put(new Runnable() {
+                replay.runAsync(new Runnable() {
                     @Override
                     public void run() {
                         TrackerQueue.setEnabledFillQueueFromDatabase(true);
                     }
                 });
-            } else {
-                offlineHitProcessing = true;
-                for (Hit hit : offlineHits) {
-                    Sender sender = new Sender(tracker, hit, force);
-                    sender.send(false);
+            } else if (offlineHitProcessing.compareAndSet(false, true)) {
+                try {
+                    replay.run();
+                } finally {
+                    offlineHitProcessing.set(false);
                 }
-                offlineHitProcessing = false;
             }
         }
     }
@@ -856,30 +1425,66 @@ class Sender implements Runnable {
     }
 
     private static boolean isAllowedToProcess() {
-        return !offlineHitProcessing && TrackerQueue.isEnabledFillQueueFromDatabase();
+        return !offlineHitProcessing.get() && TrackerQueue.isEnabledFillQueueFromDatabase();
+    }
+
+    void setReplay(OfflineReplay replay) {
+        this.replay = replay;
+    }
+
+    // Pendant un rejeu, les modifications de la base sont regroupées par page
+    private void deleteStoredHit() {
+        if (replay != null) {
+            replay.delete(hit.getId());
+        } else {
+            storage.deleteHit(hit.getId());
+        }
     }
 
     private void updateRetryCount(Hit hit) {
         int retryCount = hit.getRetry();
-        if (retryCount < RETRY_COUNT) {
-            storage.updateRetry(hit.getUrl(), retryCount + 1);
+        if (retryCount >= RETRY_COUNT) {
+            deleteStoredHit();
+        } else if (replay != null) {
+            replay.retry(hit.getId(), retryCount + 1);
         } else {
-            storage.deleteHit(hit.getUrl());
+            storage.updateRetry(hit.getId(), retryCount + 1);
+        }
+    }
+
+    static void saveHitsDatabase(List<Sender> senders) {
+        Sender first = senders.get(0);
+        ArrayList<String> urls = new ArrayList<>(senders.size());
+        for (Sender sender : senders) {
+            urls.add(sender.hit.getUrl());
+        }
+        ArrayList<String> storedUrls = first.storage.saveHits(urls, System.currentTimeMillis(), first.oltParameter);
+        for (int i = 0; i < senders.size(); i++) {
+            senders.get(i).onHitSaved(storedUrls != null ? storedUrls.get(i) : null);
         }
     }
 
     void saveHitDatabase(final Hit hit) {
-        final String url = storage.saveHit(hit.getUrl(), System.currentTimeMillis(), oltParameter);
+        onHitSaved(storage.saveHit(hit.getUrl(), System.currentTimeMillis(), oltParameter));
+    }
+
+    private void onHitSaved(String url) {
         if (!TextUtils.isEmpty(url)) {
             Tool.executeCallback(tracker.getListener(), Tool.CallbackType.SAVE, url);
             updateDebugger(url, "save48", true);
+            int evictedHitCount = storage.takeEvictedHitCount();
+            if (evictedHitCount > 0) {
+                String message = evictedHitCount + " stored hit(s) evicted, offline storage limit reached";
+                Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, message);
+                updateDebugger(message, "warning48", false);
+            }
         } else {
             Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "Hit could not be saved : " + hit.getUrl());
             updateDebugger("Hit could not be saved : " + hit.getUrl(), "warning48", false);
         }
     }
 
-    private static boolean checkExceptionServerReceiveData(Exception e) {
+    static boolean checkExceptionServerReceiveData(Exception e) {
         int index = 0;
         do {
             if (e.getStackTrace()[index].getMethodName().equals(RECEIVE_FROM_SERVER_ERROR)) {
@@ -906,1119 +1511,4211 @@ class Sender implements Runnable {
     }
 }
 
-class Dispatcher {
+final class OfflineReplay {
 
-    private final Tracker tracker;
+    static final int PAGE_SIZE = 50;
 
-    Dispatcher(Tracker tracker) {
+    // Rejeu asynchrone en cours, pour le suivi de sa progression
+    private static volatile OfflineReplay drain;
+
+    private final Tracker tracker;
+    private final Storage storage;
+    private final boolean force;
+    private final ArrayList<Long> deletedIds = new ArrayList<>();
+    private final HashMap<Long, Integer> retries = new HashMap<>();
+    private final TokenBucket hitBucket;
+    private final TokenBucket byteBucket;
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private int pageProcessedCount;
+    private int initialCount;
+    private long startTime;
+    // Dernier identifiant acquitté sans trou depuis le début de la table, conservé entre les parcours
+    private long cursor;
+    // Dernier identifiant lu dans le parcours courant
+    private long position;
+    private boolean isCursorPinned;
+
+    OfflineReplay(Tracker tracker, Storage storage, boolean force) {
         this.tracker = tracker;
+        this.storage = storage;
+        this.force = force;
+        // Reprise après le dernier hit traité si le parcours précédent a été interrompu
+        cursor = Tracker.getPreferences().getLong(getCursorKey(storage), 0);
+        position = cursor;
+        Configuration configuration = tracker.getConfiguration();
+        int hitsPerSecond = configuration.getInt(TrackerConfigurationKeys.OFFLINE_DRAIN_HITS_PER_SECOND, 0);
+        int bytesPerSecond = configuration.getInt(TrackerConfigurationKeys.OFFLINE_DRAIN_BYTES_PER_SECOND, 0);
+        hitBucket = hitsPerSecond > 0 ? new TokenBucket(hitsPerSecond, hitsPerSecond) : null;
+        byteBucket = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, bytesPerSecond) : null;
     }
 
-    void dispatch(BusinessObject... businessObjects) {
-        try {
-            ArrayList<BusinessObject> trackerObjects;
-            for (BusinessObject businessObject : businessObjects) {
-                businessObject.setParams();
+    // Débit limité : le rejeu est toujours asynchrone et laisse passer les hits en direct devant lui
+    static boolean isRateLimited(Tracker tracker) {
+        Configuration configuration = tracker.getConfiguration();
+        return configuration.getInt(TrackerConfigurationKeys.OFFLINE_DRAIN_HITS_PER_SECOND, 0) > 0 ||
+                configuration.getInt(TrackerConfigurationKeys.OFFLINE_DRAIN_BYTES_PER_SECOND, 0) > 0;
+    }
 
-                if (businessObject instanceof AbstractScreen) {
-                    trackerObjects = new ArrayList<>(tracker.getBusinessObjects().values());
+    static OfflineReplay getDrain() {
+        return drain;
+    }
 
-                    boolean hasOrder = false;
+    // Les identifiants des deux backends sont indépendants, chacun a son propre curseur
+    static String getCursorKey(Storage storage) {
+        return TrackerConfigurationKeys.OFFLINE_REPLAY_CURSOR + "_" + storage.getBackend();
+    }
 
-                    for (BusinessObject object : trackerObjects) {
-                        if (isScreenCompatible(object) && object.getTimestamp() < businessObject.getTimestamp()) {
+    void run() {
+        ArrayList<Sender> senders;
+        while ((senders = nextPage()) != null) {
+            for (Sender sender : senders) {
+                sender.send(false);
+            }
+            onPageSent(senders);
+        }
+    }
 
-                            if (object instanceof Order) {
-                                hasOrder = true;
-                            }
+    void runAsync(final Runnable onComplete) {
+        startTime = System.currentTimeMillis();
+        initialCount = Math.max(0, storage.getCountOfflineHits());
+        drain = this;
+        runNextPageAsync(new Runnable() {
+            @Override
+            public void run() {
+                if (drain == OfflineReplay.this) {
+                    drain = null;
+                }
+                onComplete.run();
+            }
+        });
+    }
 
-                            object.setParams();
-                            tracker.getBusinessObjects().remove(object.getId());
-                        }
-                    }
+    private void runNextPageAsync(final Runnable onComplete) {
+        final ArrayList<Sender> senders = nextPage();
+        if (senders == null) {
+            onComplete.run();
+            return;
+        }
+        if (hitBucket != null || byteBucket != null) {
+            sendAfterDelay(senders, 0, onComplete);
+            return;
+        }
+        // La page suivante n'est chargée qu'une fois la page courante traitée
+        Runnable onPageComplete = new Runnable() {
+            @Override
+            public void run() {
+                onPageSent(senders);
+                runNextPageAsync(onComplete);
+            }
+        };
+        if (tracker.getSenderPool().isParallel()) {
+            tracker.getSenderPool().executeAll(senders, onPageComplete);
+        } else {
+            for (Sender sender : senders) {
+                TrackerQueue.getInstance().put(sender);
+            }
+            TrackerQueue.getInstance().put(onPageComplete);
+        }
+    }
 
-                    if (tracker.Cart().getCartId() != null && (((Screen) businessObject).isBasketScreen() || hasOrder)) {
-                        tracker.Cart().setParams();
-                    }
-                } else if (businessObject instanceof Gesture) {
-                    trackerObjects = new ArrayList<>(tracker.getBusinessObjects().values());
+    // Un seul hit rejoué à la fois dans la file : les hits en direct ajoutés entre-temps passent devant
+    private void sendAfterDelay(final ArrayList<Sender> senders, final int index, final Runnable onComplete) {
+        if (index == senders.size()) {
+            onPageSent(senders);
+            runNextPageAsync(onComplete);
+            return;
+        }
+        final Sender sender = senders.get(index);
+        long now = System.currentTimeMillis();
+        long delay = 0;
+        if (hitBucket != null) {
+            delay = hitBucket.reserve(1, now);
+        }
+        if (byteBucket != null) {
+            delay = Math.max(delay, byteBucket.reserve(Storage.getSize(sender.getHit().getUrl()), now));
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                sender.run();
+                processedCount.incrementAndGet();
+                sendAfterDelay(senders, index + 1, onComplete);
+            }
+        };
+        if (delay > 0) {
+            TrackerQueue.getInstance().schedule(task, delay);
+        } else {
+            TrackerQueue.getInstance().put(task);
+        }
+    }
 
-                    if (((Gesture) businessObject).getAction() == Gesture.Action.InternalSearch) {
-                        for (BusinessObject object : trackerObjects) {
-                            if ((object instanceof InternalSearch) && object.getTimestamp() < businessObject.getTimestamp()) {
-                                object.setParams();
-                                tracker.getBusinessObjects().remove(object.getId());
-                            }
-                        }
-                    }
-                }
+    // Estimation : hits stockés au début du rejeu moins les hits déjà traités
+    int getRemainingCount() {
+        return Math.max(0, initialCount - processedCount.get());
+    }
 
-                tracker.getBusinessObjects().remove(businessObject.getId());
-                trackerObjects = new ArrayList<>(tracker.getBusinessObjects().values());
+    // Débit mesuré depuis le début du rejeu, en hits par seconde
+    double getRate() {
+        long elapsedTime = Math.max(1, System.currentTimeMillis() - startTime);
+        return processedCount.get() * 1000.0 / elapsedTime;
+    }
 
-                for (BusinessObject object : trackerObjects) {
-                    if ((object instanceof CustomObject || object instanceof NuggAd) && object.getTimestamp() < businessObject.getTimestamp()) {
-                        object.setParams();
-                        tracker.getBusinessObjects().remove(object.getId());
-                    }
-                }
-            }
+    long getEstimatedTime() {
+        int remainingCount = getRemainingCount();
+        if (remainingCount == 0) {
+            return 0;
+        }
+        double rate = getRate();
+        return rate > 0 ? (long) Math.ceil(remainingCount * 1000 / rate) : -1;
+    }
 
-            if (Hit.getHitType(tracker.getBuffer().getVolatileParams(), tracker.getBuffer().getPersistentParams()) == Hit.HitType.Screen) {
-                SharedPreferences preferences = Tracker.getPreferences();
-                if (!preferences.getBoolean(TrackerConfigurationKeys.CAMPAIGN_ADDED_KEY, false)) {
-                    final String xtor = preferences.getString(TrackerConfigurationKeys.MARKETING_CAMPAIGN_SAVED, null);
-                    if (xtor != null) {
-                        ParamOption beforeStcPositionWithEncoding = new ParamOption()
-                                .setRelativePosition(ParamOption.RelativePosition.before)
-                                .setRelativeParameterKey(Hit.HitParam.JSON.stringValue())
-                                .setEncode(true);
+    long getCursor() {
+        return cursor;
+    }
 
-                        if (preferences.getBoolean(TrackerConfigurationKeys.IS_FIRST_AFTER_INSTALL_HIT_KEY, true)) {
-                            tracker.setParam(Hit.HitParam.Source.stringValue(), xtor, beforeStcPositionWithEncoding);
-                            preferences.edit().putBoolean(TrackerConfigurationKeys.IS_FIRST_AFTER_INSTALL_HIT_KEY, false).apply();
-                        } else {
-                            tracker.setParam(Hit.HitParam.RemanentSource.stringValue(), xtor, beforeStcPositionWithEncoding);
-                        }
-                        preferences.edit().putBoolean(TrackerConfigurationKeys.CAMPAIGN_ADDED_KEY, true).apply();
-                    }
-                }
+    private ArrayList<Sender> nextPage() {
+        // Plus de réseau : le curseur est conservé pour reprendre au même endroit
+        if (TechnicalContext.getConnection() == TechnicalContext.ConnectionType.OFFLINE) {
+            return null;
+        }
+        ArrayList<Hit> hits = storage.getOfflineHits(position, PAGE_SIZE);
+        if (hits == null || hits.isEmpty()) {
+            // Fin du parcours : sans hit restant, le prochain repartira du début de la table
+            if (!isCursorPinned) {
+                setCursor(0);
             }
+            return null;
+        }
+        ArrayList<Sender> senders = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            Sender sender = new Sender(tracker, hit, force);
+            sender.setReplay(this);
+            senders.add(sender);
+        }
+        return senders;
+    }
 
-            setIdentifiedVisitorInfos();
+    synchronized void delete(long id) {
+        retries.remove(id);
+        deletedIds.add(id);
+    }
 
+    synchronized void retry(long id, int retry) {
+        retries.put(id, retry);
+    }
 
-            ParamOption stcOptions = new ParamOption()
-                    .setAppend(true)
-                    .setEncode(true)
-                    .setType(ParamOption.Type.JSON)
-                    .setRelativePosition(ParamOption.RelativePosition.last);
-            tracker.setParam(Hit.HitParam.JSON.stringValue(), LifeCycle.getMetrics(Tracker.getPreferences()), stcOptions);
-            if ((boolean) tracker.getConfiguration().get(TrackerConfigurationKeys.ENABLE_CRASH_DETECTION)) {
-                tracker.setParam(Hit.HitParam.JSON.stringValue(), CrashDetectionHandler.getCrashInformation(Tracker.getPreferences()), stcOptions);
+    private void onPageSent(ArrayList<Sender> senders) {
+        tracker.getHitBatcher().flush();
+        // Suppressions et tentatives de la page écrites en une seule transaction
+        ArrayList<Long> pageDeletedIds;
+        HashMap<Long, Integer> pageRetries;
+        synchronized (this) {
+            pageDeletedIds = new ArrayList<>(deletedIds);
+            pageRetries = new HashMap<>(retries);
+            deletedIds.clear();
+            retries.clear();
+        }
+        storage.updateHits(pageDeletedIds, pageRetries);
+        // Le curseur s'arrête au premier hit non acquitté (échec ou hit différé) pour qu'il soit relu à la reprise
+        if (!isCursorPinned) {
+            HashSet<Long> acknowledgedIds = new HashSet<>(pageDeletedIds);
+            long acknowledgedId = cursor;
+            for (Sender sender : senders) {
+                long id = sender.getHit().getId();
+                if (!acknowledgedIds.contains(id)) {
+                    isCursorPinned = true;
+                    break;
+                }
+                acknowledgedId = id;
             }
+            if (acknowledgedId != cursor) {
+                setCursor(acknowledgedId);
+            }
+        }
+        position = senders.get(senders.size() - 1).getHit().getId();
+        pageProcessedCount += senders.size();
+        processedCount.set(pageProcessedCount);
+    }
 
-            Map<String, String> identification = new HashMap<>();
-            identification.put("idType", String.valueOf(tracker.configuration.get(TrackerConfigurationKeys.IDENTIFIER)));
-            tracker.setParam(Hit.HitParam.JSON.stringValue(), identification, stcOptions);
+    private void setCursor(long id) {
+        cursor = id;
+        Tracker.getPreferences().edit().putLong(getCursorKey(storage), id).apply();
+    }
+}
 
-            final String referrer = Tracker.getPreferences().getString(TrackerConfigurationKeys.REFERRER, null);
-            if (!TextUtils.isEmpty(referrer)) {
-                tracker.setParam(Hit.HitParam.Refstore.stringValue(), referrer);
-                Tracker.getPreferences().edit().putString(TrackerConfigurationKeys.REFERRER, null).apply();
-            }
+final class TokenBucket {
 
-            Builder builder = new Builder(tracker);
-            tracker.getBuffer().getVolatileParams().clear();
-            TrackerQueue.getInstance().put(builder);
+    // Jetons par milliseconde
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillTime = -1;
 
-            tracker.Context().setLevel2(tracker.Context().getLevel2());
-        } catch (Exception e) {
-            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.ERROR, e.toString(), TrackerListener.HitStatus.Failed);
-        }
+    TokenBucket(double ratePerSecond, double capacity) {
+        rate = ratePerSecond / 1000;
+        this.capacity = Math.max(1, capacity);
+        tokens = this.capacity;
     }
 
-    private boolean isScreenCompatible(BusinessObject object) {
-        return ((object instanceof OnAppAd && ((OnAppAd) object).getAction() == OnAppAd.Action.View)
-                || object instanceof Order
-                || object instanceof InternalSearch
-                || object instanceof ScreenInfo);
+    // Les jetons sont réservés tout de suite : le retour est le délai en millisecondes avant de les utiliser
+    synchronized long reserve(double amount, long now) {
+        if (lastRefillTime >= 0 && now > lastRefillTime) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillTime) * rate);
+        }
+        lastRefillTime = Math.max(lastRefillTime, now);
+        tokens -= amount;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / rate);
     }
+}
 
-    void setIdentifiedVisitorInfos() {
-        if (!((boolean) tracker.getConfiguration().get(TrackerConfigurationKeys.PERSIST_IDENTIFIED_VISITOR))) {
-            return;
-        }
-        ParamOption beforeStcPosition = new ParamOption()
-                .setRelativePosition(ParamOption.RelativePosition.before)
-                .setRelativeParameterKey(Hit.HitParam.JSON.stringValue());
+final class RttEstimator {
 
-        ParamOption beforeStcPositionWithEncoding = new ParamOption()
-                .setRelativePosition(ParamOption.RelativePosition.before)
-                .setRelativeParameterKey(Hit.HitParam.JSON.stringValue()).setEncode(true);
+    static final int MIN_SAMPLES = 5;
+    static final int MIN_TIMEOUT = 2000;
+    static final int MAX_TIMEOUT = 30000;
+    static final int DEFAULT_TIMEOUT_PERCENTILE = 99;
+    static final int HEDGE_PERCENTILE = 95;
+    private static final int WINDOW_SIZE = 32;
+    private static final int TIMEOUT_FACTOR = 3;
+    private static final int MAX_PERCENTILE = 100;
 
-        String visitorNumericID = Tracker.getPreferences().getString(IdentifiedVisitor.VISITOR_NUMERIC, null);
-        String visitorCategory = Tracker.getPreferences().getString(IdentifiedVisitor.VISITOR_CATEGORY, null);
-        String visitorTextID = Tracker.getPreferences().getString(IdentifiedVisitor.VISITOR_TEXT, null);
-        if (visitorNumericID != null) {
-            tracker.setParam(Hit.HitParam.VisitorIdentifierNumeric.stringValue(), visitorNumericID, beforeStcPosition);
+    private final HashMap<String, long[]> samples = new HashMap<>();
+    private final HashMap<String, Integer> sampleCounts = new HashMap<>();
+
+    static String getKey(String endpoint, TechnicalContext.ConnectionType connection) {
+        return endpoint + '|' + connection.name();
+    }
+
+    synchronized void addSample(String key, long rtt) {
+        long[] window = samples.get(key);
+        if (window == null) {
+            window = new long[WINDOW_SIZE];
+            samples.put(key, window);
         }
-        if (visitorTextID != null) {
-            tracker.setParam(Hit.HitParam.VisitorIdentifierText.stringValue(), visitorTextID, beforeStcPositionWithEncoding);
+        Integer count = sampleCounts.get(key);
+        int sampleCount = count == null ? 0 : count;
+        // Fenêtre glissante : la plus ancienne mesure est remplacée
+        window[sampleCount % WINDOW_SIZE] = rtt;
+        sampleCounts.put(key, sampleCount + 1);
+    }
+
+    synchronized long getPercentile(String key, int percentile) {
+        long[] window = samples.get(key);
+        Integer count = sampleCounts.get(key);
+        if (window == null || count == null || count < MIN_SAMPLES) {
+            return -1;
         }
-        if (visitorCategory != null) {
-            tracker.setParam(Hit.HitParam.VisitorCategory.stringValue(), visitorCategory, beforeStcPosition);
+        int size = Math.min(count, WINDOW_SIZE);
+        long[] sorted = Arrays.copyOf(window, size);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(Math.max(1, Math.min(percentile, MAX_PERCENTILE)) / (double) MAX_PERCENTILE * size);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    int getTimeout(String key, int percentile, int defaultTimeout) {
+        long rtt = getPercentile(key, percentile);
+        if (rtt < 0) {
+            return defaultTimeout;
         }
+        return (int) Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, rtt * TIMEOUT_FACTOR));
+    }
+
+    long getHedgeDelay(String key) {
+        return getPercentile(key, HEDGE_PERCENTILE);
     }
 }
 
-final class TrackerQueue extends LinkedBlockingQueue<Runnable> {
+final class SendPolicy {
 
-    private static boolean enabledFillQueueFromDatabase = true;
-    private static TrackerQueue instance;
-    private final ScheduledExecutorService scheduledExecutorService;
+    static final int DEFAULT_MAX_DELAY = 300000;
+    static final String RICH_MEDIA_REFRESH = "RichMediaRefresh";
+    private static final String DEFAULT_DEFERRABLE_HIT_TYPES = RICH_MEDIA_REFRESH + "," + Hit.HitType.ProduitImpression.name();
+    private static final String REFRESH_ACTION = "&a=refresh";
 
-    private TrackerQueue() {
-        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+    private final Tracker tracker;
+    private boolean isFlushScheduled;
+
+    SendPolicy(Tracker tracker) {
+        this.tracker = tracker;
     }
 
-    static TrackerQueue getInstance() {
-        if (instance == null) {
-            instance = new TrackerQueue();
-            start();
+    boolean isEnabled() {
+        // Les hits différés sont conservés dans le stockage offline
+        return tracker.getConfiguration().getBoolean(TrackerConfigurationKeys.ENABLE_NETWORK_AWARE_SENDING, false)
+                && tracker.getOfflineMode() != Tracker.OfflineMode.never;
+    }
+
+    boolean isCritical(Hit hit) {
+        return isEnabled() && !isDeferrable(hit);
+    }
+
+    boolean shouldDefer(Hit hit) {
+        return isEnabled() && isConstrained(TechnicalContext.getConnection()) && isDeferrable(hit);
+    }
+
+    boolean shouldKeepStored(Hit hit) {
+        if (hit.getDate() == null || !shouldDefer(hit)) {
+            return false;
         }
-        return instance;
+        long storedTime = System.currentTimeMillis() - hit.getDate().getTime();
+        return storedTime < tracker.getConfiguration().getInt(TrackerConfigurationKeys.DEFERRED_SENDING_MAX_DELAY, DEFAULT_MAX_DELAY);
     }
 
-    private static void start() {
-        new Thread(new Runnable() {
+    boolean isLinkImproved(TechnicalContext.ConnectionType previous, TechnicalContext.ConnectionType current) {
+        return isEnabled() && isConstrained(previous) && !isConstrained(current) && current != TechnicalContext.ConnectionType.OFFLINE;
+    }
+
+    void onHitDeferred() {
+        synchronized (this) {
+            if (isFlushScheduled) {
+                return;
+            }
+            isFlushScheduled = true;
+        }
+        // Les hits différés sont envoyés au plus tard après le délai maximum
+        TrackerQueue.getInstance().schedule(new Runnable() {
             @Override
             public void run() {
-                try {
-                    Runnable runnable;
-                    while ((runnable = instance.take()) != null) {
-                        instance.scheduledExecutorService.execute(runnable);
-                    }
-                } catch (InterruptedException e) {
-                    Log.e(ATInternet.TAG, e.toString());
-                    Thread.currentThread().interrupt();
+                synchronized (SendPolicy.this) {
+                    isFlushScheduled = false;
                 }
+                Sender.sendOfflineHits(tracker, Storage.getInstance(Tracker.getAppContext()), false, true);
             }
-        }).start();
+        }, tracker.getConfiguration().getInt(TrackerConfigurationKeys.DEFERRED_SENDING_MAX_DELAY, DEFAULT_MAX_DELAY));
     }
 
-    static void setEnabledFillQueueFromDatabase(boolean enabled) {
-        enabledFillQueueFromDatabase = enabled;
+    boolean isDeferrable(Hit hit) {
+        Object value = tracker.getConfiguration().get(TrackerConfigurationKeys.DEFERRABLE_HIT_TYPES);
+        String deferrableHitTypes = value != null ? String.valueOf(value) : DEFAULT_DEFERRABLE_HIT_TYPES;
+        if (TextUtils.isEmpty(deferrableHitTypes)) {
+            return false;
+        }
+        Hit.HitType hitType = hit.getHitType();
+        for (String deferrableHitType : deferrableHitTypes.split(",")) {
+            deferrableHitType = deferrableHitType.trim();
+            if (deferrableHitType.equals(hitType.name())) {
+                return true;
+            }
+            if (RICH_MEDIA_REFRESH.equals(deferrableHitType) && isRichMediaRefresh(hitType, hit.getUrl())) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    static boolean isEnabledFillQueueFromDatabase() {
-        return enabledFillQueueFromDatabase;
+    private boolean isConstrained(TechnicalContext.ConnectionType connection) {
+        switch (connection) {
+            case GPRS:
+            case EDGE:
+            case TWOG:
+                return true;
+            case THREEG:
+            case THREEGPLUS:
+            case FOURG:
+                // Réseau mobile considéré comme facturé à l'usage
+                return tracker.getConfiguration().getBoolean(TrackerConfigurationKeys.DEFER_ON_METERED_NETWORK, true);
+            default:
+                return false;
+        }
     }
 
-    @Override
-    public void put(Runnable runnable) {
-        try {
-            if (runnable != null) {
-                super.put(runnable);
-            }
-        } catch (InterruptedException e) {
-            Log.e(ATInternet.TAG, e.toString());
-            Thread.currentThread().interrupt();
-        }
+    static boolean isRichMediaRefresh(Hit.HitType hitType, String url) {
+        return isRichMedia(hitType) && url.contains(REFRESH_ACTION);
+    }
+
+    private static boolean isRichMedia(Hit.HitType hitType) {
+        return hitType == Hit.HitType.Audio || hitType == Hit.HitType.Video || hitType == Hit.HitType.Animation;
     }
 }
 
-class TechnicalContext {
+final class SenderPool {
 
-    private static final int RETRY_GET_ADVERTISING_COUNT = 3;
-    private static final String ANDROID_ID_KEY = "androidid";
-    private static final String ADVERTISING_ID_KEY = "advertisingid";
-    private static String screenName = "";
-    private static int level2 = -1;
+    static final int DEFAULT_WORKERS = 1;
+    static final int QUEUE_CAPACITY = 1000;
+    private static final int KEEP_ALIVE_TIME = 30;
 
-    static final Closure VTAG = new Closure() {
+    private final Tracker tracker;
+    private final ArrayDeque<Runnable> orderedTasks = new ArrayDeque<>();
+    private final Object idleLock = new Object();
+    private ThreadPoolExecutor executor;
+    private boolean isOrderedTaskRunning;
+    private Thread orderedTasksThread;
+    private int pendingTaskCount;
+
+    private final Runnable orderedTasksRunner = new Runnable() {
         @Override
-        public String execute() {
-            return "2.12.1";
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (orderedTasks) {
+                    task = orderedTasks.poll();
+                    if (task == null) {
+                        isOrderedTaskRunning = false;
+                        orderedTasksThread = null;
+                        return;
+                    }
+                    orderedTasksThread = Thread.currentThread();
+                    if (orderedTasks.size() == QUEUE_CAPACITY - 1) {
+                        orderedTasks.notifyAll();
+                    }
+                }
+                task.run();
+            }
         }
     };
 
-    static final Closure PTAG = new Closure() {
-        @Override
-        public String execute() {
-            return "Android";
+    SenderPool(Tracker tracker) {
+        this.tracker = tracker;
+    }
+
+    boolean isParallel() {
+        return getWorkers() > 1;
+    }
+
+    void execute(Runnable task) {
+        int workers = getWorkers();
+        // Un seul worker : envoi direct sur le thread appelant
+        if (workers <= 1) {
+            task.run();
+            return;
         }
-    };
 
-    enum ConnectionType {
-        GPRS, EDGE, TWOG, THREEG, THREEGPLUS, FOURG, WIFI, OFFLINE, UNKNOWN
+        Runnable trackedTask = track(task);
+        ThreadPoolExecutor threadPoolExecutor = getExecutor(workers);
+        // Ordre strict : une seule tâche du tracker à la fois, dans l'ordre d'arrivée
+        if (tracker.getConfiguration().getBoolean(TrackerConfigurationKeys.STRICT_ORDERING, false)) {
+            synchronized (orderedTasks) {
+                // File pleine : l'appelant est ralenti comme par CallerRunsPolicy, mais attend une place pour garder l'ordre
+                // (une tâche ajoutée depuis la tâche en cours passe toujours, sinon elle s'attendrait elle-même)
+                while (orderedTasks.size() >= QUEUE_CAPACITY && Thread.currentThread() != orderedTasksThread) {
+                    try {
+                        orderedTasks.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                orderedTasks.offer(trackedTask);
+                if (isOrderedTaskRunning) {
+                    return;
+                }
+                isOrderedTaskRunning = true;
+            }
+            threadPoolExecutor.execute(orderedTasksRunner);
+        } else {
+            threadPoolExecutor.execute(trackedTask);
+        }
     }
 
-    static void resetScreenContext() {
-        screenName = null;
-        level2 = -1;
+    void executeAll(List<? extends Runnable> tasks, final Runnable onComplete) {
+        if (tasks.isEmpty()) {
+            onComplete.run();
+            return;
+        }
+        final AtomicInteger remainingTaskCount = new AtomicInteger(tasks.size());
+        for (final Runnable task : tasks) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        if (remainingTaskCount.decrementAndGet() == 0) {
+                            onComplete.run();
+                        }
+                    }
+                }
+            });
+        }
     }
 
-    static void setScreenName(String sn) {
-        screenName = sn;
+    boolean awaitIdle(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (idleLock) {
+            while (pendingTaskCount > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                idleLock.wait(remaining);
+            }
+        }
+        return true;
     }
 
-    static String getScreenName() {
-        return screenName;
+    private Runnable track(final Runnable task) {
+        synchronized (idleLock) {
+            pendingTaskCount++;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    Log.e(ATInternet.TAG, e.toString());
+                } finally {
+                    synchronized (idleLock) {
+                        pendingTaskCount--;
+                        if (pendingTaskCount == 0) {
+                            idleLock.notifyAll();
+                        }
+                    }
+                }
+            }
+        };
     }
 
-    static void setLevel2(int lv) {
-        level2 = lv;
+    private int getWorkers() {
+        return tracker.getConfiguration().getInt(TrackerConfigurationKeys.SENDER_WORKERS, DEFAULT_WORKERS);
     }
 
-    static int getLevel2() {
-        return level2;
+    private synchronized ThreadPoolExecutor getExecutor(int workers) {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ATSenderWorker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        } else if (executor.getMaximumPoolSize() != workers) {
+            // Au-delà de la file d'attente, la tâche est exécutée par le thread appelant
+            if (workers > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(workers);
+                executor.setCorePoolSize(workers);
+            } else {
+                executor.setCorePoolSize(workers);
+                executor.setMaximumPoolSize(workers);
+            }
+        }
+        return executor;
     }
+}
 
-    static ConnectionType getConnection() {
-        android.content.Context context = Tracker.getAppContext();
-        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(android.content.Context.CONNECTIVITY_SERVICE);
-        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+final class HitBatcher {
 
-        if (networkInfo == null) {
-            return ConnectionType.OFFLINE;
+    private static final int DEFAULT_MAX_COUNT = 20;
+    private static final int DEFAULT_MAX_BYTES = 16384;
+    private static final int DEFAULT_LINGER_TIME = 2000;
+    private static final String ENCODING = "UTF-8";
+    private static final String CONTENT_TYPE = "text/plain; charset=UTF-8";
+    private static final char HIT_SEPARATOR = '\n';
+
+    private final Tracker tracker;
+    private final LinkedHashMap<String, Batch> pendingBatches = new LinkedHashMap<>();
+
+    HitBatcher(Tracker tracker) {
+        this.tracker = tracker;
+    }
+
+    // Le collecteur par défaut n'accepte pas les lots : un point de collecte dédié doit être configuré
+    static boolean isEnabled(Configuration configuration) {
+        return configuration.getBoolean(TrackerConfigurationKeys.ENABLE_BATCH_SENDING, false)
+                && !TextUtils.isEmpty(getBatchEndpoint(configuration));
+    }
+
+    private static String getBatchEndpoint(Configuration configuration) {
+        Object batchEndpoint = configuration.get(TrackerConfigurationKeys.BATCH_ENDPOINT);
+        return batchEndpoint == null ? null : String.valueOf(batchEndpoint);
+    }
+
+    void add(Sender sender) {
+        String url = sender.getHit().getUrl();
+        int queryIndex = url.indexOf('?');
+        final String endpoint = Tool.getEndpoint(url);
+        String query = url.substring(queryIndex + 1);
+        int queryBytes = Storage.getSize(query);
+        Configuration configuration = tracker.getConfiguration();
+        int maxBytes = configuration.getInt(TrackerConfigurationKeys.BATCH_MAX_BYTES, DEFAULT_MAX_BYTES);
+
+        Batch previousBatch = null;
+        final Batch batch;
+        boolean isFull;
+        synchronized (this) {
+            Batch current = pendingBatches.get(endpoint);
+            // Le lot en attente est envoyé avant d'ajouter un hit qui lui ferait dépasser la taille maximum
+            if (current != null && current.getBytes() + 1 + queryBytes > maxBytes) {
+                pendingBatches.remove(endpoint);
+                previousBatch = current;
+                current = null;
+            }
+            if (current == null) {
+                current = new Batch();
+                pendingBatches.put(endpoint, current);
+                scheduleFlush(endpoint, current, configuration.getInt(TrackerConfigurationKeys.BATCH_LINGER_TIME, DEFAULT_LINGER_TIME));
+            }
+            current.add(sender, query, queryBytes);
+            isFull = current.size() >= configuration.getInt(TrackerConfigurationKeys.BATCH_MAX_COUNT, DEFAULT_MAX_COUNT)
+                    || current.getBytes() >= maxBytes;
+            if (isFull) {
+                pendingBatches.remove(endpoint);
+            }
+            batch = current;
         }
 
-        if (networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
-            return ConnectionType.WIFI;
+        if (previousBatch != null) {
+            send(endpoint, previousBatch);
+        }
+        if (isFull) {
+            send(endpoint, batch);
         }
+    }
 
-        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(android.content.Context.TELEPHONY_SERVICE);
-        if (telephonyManager == null) {
-            return ConnectionType.UNKNOWN;
+    void flush() {
+        LinkedHashMap<String, Batch> batches;
+        synchronized (this) {
+            batches = new LinkedHashMap<>(pendingBatches);
+            pendingBatches.clear();
         }
+        for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+    }
 
-        switch (telephonyManager.getNetworkType()) {
-            case TelephonyManager.NETWORK_TYPE_GPRS:
-                return ConnectionType.GPRS;
-            case TelephonyManager.NETWORK_TYPE_EDGE:
-                return ConnectionType.EDGE;
-            case TelephonyManager.NETWORK_TYPE_1xRTT:
-                return ConnectionType.TWOG;
-            case TelephonyManager.NETWORK_TYPE_CDMA:
-            case TelephonyManager.NETWORK_TYPE_UMTS:
-            case TelephonyManager.NETWORK_TYPE_EVDO_0:
-            case TelephonyManager.NETWORK_TYPE_EVDO_A:
-            case TelephonyManager.NETWORK_TYPE_EVDO_B:
-                return ConnectionType.THREEG;
-            case TelephonyManager.NETWORK_TYPE_HSPA:
-            case TelephonyManager.NETWORK_TYPE_HSDPA:
-            case TelephonyManager.NETWORK_TYPE_HSUPA:
-                return ConnectionType.THREEGPLUS;
-            case TelephonyManager.NETWORK_TYPE_HSPAP:
-            case TelephonyManager.NETWORK_TYPE_LTE:
-                return ConnectionType.FOURG;
-            default:
-                return ConnectionType.UNKNOWN;
+    synchronized int getPendingCount() {
+        int count = 0;
+        for (Batch batch : pendingBatches.values()) {
+            count += batch.size();
         }
+        return count;
     }
 
-    static Closure getConnectionType() {
-        return new Closure() {
+    private void scheduleFlush(final String endpoint, final Batch batch, int lingerTime) {
+        TrackerQueue.getInstance().schedule(new Runnable() {
             @Override
-            public String execute() {
-                switch (getConnection()) {
-                    case GPRS:
-                        return "gprs";
-                    case EDGE:
-                        return "edge";
-                    case TWOG:
-                        return "2g";
-                    case THREEG:
-                        return "3g";
-                    case THREEGPLUS:
-                        return "3g+";
-                    case FOURG:
-                        return "4g";
-                    case WIFI:
-                        return "wifi";
-                    case UNKNOWN:
-                        return "unknown";
-                    default:
-                        return "offline";
+            public void run() {
+                boolean isPending;
+                synchronized (HitBatcher.this) {
+                    isPending = pendingBatches.get(endpoint) == batch;
+                    if (isPending) {
+                        pendingBatches.remove(endpoint);
+                    }
+                }
+                if (isPending) {
+                    send(endpoint, batch);
                 }
             }
-        };
+        }, lingerTime);
     }
 
-    static Closure getCarrier() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                android.content.Context context = Tracker.getAppContext();
-                TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(android.content.Context.TELEPHONY_SERVICE);
-                return (telephonyManager != null) ? telephonyManager.getNetworkOperatorName() : "";
+    private void send(String endpoint, Batch batch) {
+        List<Sender> senders = batch.getSenders();
+        try {
+            byte[] body = batch.getBody().getBytes(ENCODING);
+            long startTime = System.nanoTime();
+            String batchEndpoint = getBatchEndpoint(tracker.getConfiguration());
+            if (TextUtils.isEmpty(batchEndpoint)) {
+                // Point de collecte retiré entre-temps : les hits sont conservés pour un prochain envoi
+                for (Sender sender : senders) {
+                    sender.onSendFailed("Batch endpoint not configured");
+                }
+                return;
+            }
+            HitTransport.Response response = tracker.getTransport().send(new HitTransport.Request(batchEndpoint, body, CONTENT_TYPE).setTimeout(Sender.TIMEOUT));
+            tracker.getDeliveryMetrics().onHitSent(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            tracker.getCircuitBreaker().onResponse(endpoint, response.getStatusCode());
+
+            // Le lot n'a pas pu être envoyé
+            if (response.getStatusCode() != Sender.STATUS_OK) {
+                for (Sender sender : senders) {
+                    sender.onSendFailed(response.getMessage());
+                }
+                return;
             }
-        };
-    }
 
-    static Closure getLanguage() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                Locale localeDefault = Locale.getDefault();
-                if (localeDefault == null) {
-                    return "";
+            // Le collecteur renvoie un statut par hit, une ligne par hit : sans statut lisible, aucun hit n'est acquitté
+            int[] hitStatusCodes = response.getBody() == null ? null : readHitStatusCodes(new String(response.getBody(), ENCODING), senders.size());
+            if (hitStatusCodes == null) {
+                for (Sender sender : senders) {
+                    sender.onSendFailed("Missing per-hit status in batch response");
                 }
-                return String.format("%1$s-%2$s-%3$s", localeDefault.getLanguage(), localeDefault.getCountry(), localeDefault.getVariant());
+                return;
             }
-        };
+            for (int i = 0; i < senders.size(); i++) {
+                if (hitStatusCodes[i] == Sender.STATUS_OK) {
+                    senders.get(i).onSendSucceeded();
+                } else {
+                    senders.get(i).onSendFailed(String.valueOf(hitStatusCodes[i]));
+                }
+            }
+        } catch (Exception e) {
+            if (Sender.checkExceptionServerReceiveData(e)) {
+                tracker.getCircuitBreaker().onSuccess(endpoint);
+            } else {
+                tracker.getCircuitBreaker().onFailure(endpoint);
+            }
+            for (Sender sender : senders) {
+                sender.onSendError(e);
+            }
+        }
     }
 
-    static Closure getDevice() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                return String.format("[%1$s]-[%2$s]", Build.BRAND, Tool.removeCharacters(Build.MODEL, " ", "-", ".").toLowerCase());
+    private static int[] readHitStatusCodes(String responseBody, int hitCount) {
+        int[] statusCodes = new int[hitCount];
+        int index = 0;
+        for (String line : responseBody.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
             }
-        };
+            if (index >= hitCount) {
+                return null;
+            }
+            try {
+                statusCodes[index++] = Integer.parseInt(line);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return index == hitCount ? statusCodes : null;
     }
 
-    static Closure getManufacturer() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                return Build.MANUFACTURER;
+    private static final class Batch {
+
+        private final ArrayList<Sender> senders = new ArrayList<>();
+        private final StringBuilder body = new StringBuilder();
+        // Taille du corps encodé en UTF-8
+        private int bytes;
+
+        void add(Sender sender, String query, int queryBytes) {
+            if (!senders.isEmpty()) {
+                body.append(HIT_SEPARATOR);
+                bytes++;
             }
-        };
-    }
+            body.append(query);
+            bytes += queryBytes;
+            senders.add(sender);
+        }
 
-    static Closure getModel() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                return Build.MODEL;
-            }
-        };
+        int size() {
+            return senders.size();
+        }
+
+        int getBytes() {
+            return bytes;
+        }
+
+        String getBody() {
+            return body.toString();
+        }
+
+        List<Sender> getSenders() {
+            return senders;
+        }
     }
+}
 
-    static Closure getOS() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                return String.format("[android]-[%s]", Build.VERSION.RELEASE);
+final class CircuitBreaker {
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    static final int DEFAULT_BASE_DELAY = 1000;
+    static final int DEFAULT_MAX_DELAY = 300000;
+    private static final int MAX_BACKOFF_EXPONENT = 20;
+    private static final Random RANDOM = new Random();
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final Tracker tracker;
+    private final HashMap<String, Circuit> circuits = new HashMap<>();
+
+    CircuitBreaker(Tracker tracker) {
+        this.tracker = tracker;
+    }
+
+    boolean allowRequest(String endpoint) {
+        if (!isEnabled()) {
+            return true;
+        }
+        synchronized (this) {
+            Circuit circuit = circuits.get(endpoint);
+            if (circuit == null || circuit.state == State.CLOSED) {
+                return true;
             }
-        };
+            // Une seule requête de test est autorisée après l'attente
+            if (circuit.state == State.OPEN && System.currentTimeMillis() >= circuit.retryTime) {
+                circuit.state = State.HALF_OPEN;
+                return true;
+            }
+            return false;
+        }
     }
 
-    static Closure getLocalHour() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                return new SimpleDateFormat("HH'x'mm'x'ss", Locale.ENGLISH).format(new Date());
+    void onResponse(String endpoint, int statusCode) {
+        // Seules les erreurs serveur indiquent un collecteur indisponible
+        if (statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            onFailure(endpoint);
+        } else {
+            onSuccess(endpoint);
+        }
+    }
+
+    void onSuccess(String endpoint) {
+        boolean isRecovered;
+        synchronized (this) {
+            Circuit circuit = circuits.remove(endpoint);
+            isRecovered = circuit != null && circuit.state != State.CLOSED;
+        }
+        if (isRecovered) {
+            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "Collector available again : " + endpoint);
+            Sender.sendOfflineHits(tracker, Storage.getInstance(Tracker.getAppContext()), false, true);
+        }
+    }
+
+    void onFailure(String endpoint) {
+        if (!isEnabled()) {
+            return;
+        }
+        Configuration configuration = tracker.getConfiguration();
+        long delay = 0;
+        synchronized (this) {
+            Circuit circuit = circuits.get(endpoint);
+            if (circuit == null) {
+                circuit = new Circuit();
+                circuits.put(endpoint, circuit);
             }
-        };
+            circuit.failures++;
+            if (circuit.state == State.HALF_OPEN || (circuit.state == State.CLOSED
+                    && circuit.failures >= configuration.getInt(TrackerConfigurationKeys.CIRCUIT_BREAKER_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD))) {
+                circuit.openCount++;
+                circuit.state = State.OPEN;
+                delay = computeDelay(circuit.openCount,
+                        configuration.getInt(TrackerConfigurationKeys.CIRCUIT_BREAKER_BASE_DELAY, DEFAULT_BASE_DELAY),
+                        configuration.getInt(TrackerConfigurationKeys.CIRCUIT_BREAKER_MAX_DELAY, DEFAULT_MAX_DELAY));
+                circuit.retryTime = System.currentTimeMillis() + delay;
+            }
+        }
+        if (delay > 0) {
+            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.WARNING, "Collector unavailable, next attempt in " + delay + "ms : " + endpoint);
+            scheduleProbe(delay);
+        }
     }
 
-    static Closure getApplicationIdentifier() {
-        return new Closure() {
+    synchronized State getState(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+
+    synchronized void reset() {
+        circuits.clear();
+    }
+
+    static long computeDelay(int openCount, long baseDelay, long maxDelay) {
+        // Backoff exponentiel avec gigue : entre la moitié et la totalité du délai
+        long delay = Math.min(maxDelay, baseDelay << Math.min(openCount - 1, MAX_BACKOFF_EXPONENT));
+        long halfDelay = delay / 2;
+        return halfDelay + (long) (RANDOM.nextDouble() * (delay - halfDelay)) + 1;
+    }
+
+    private boolean isEnabled() {
+        return tracker.getConfiguration().getBoolean(TrackerConfigurationKeys.ENABLE_CIRCUIT_BREAKER, true);
+    }
+
+    private void scheduleProbe(long delay) {
+        // Les hits stockés servent de requête de test une fois le délai écoulé
+        TrackerQueue.getInstance().schedule(new Runnable() {
             @Override
-            public String execute() {
-                return Tracker.getAppContext().getPackageName();
+            public void run() {
+                Sender.sendOfflineHits(tracker, Storage.getInstance(Tracker.getAppContext()), false, true);
             }
-        };
+        }, delay);
     }
 
-    static Closure getApplicationVersion() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                android.content.Context context = Tracker.getAppContext();
-                String versionName = "";
-                try {
-                    if (context.getPackageManager() != null &&
-                            context.getPackageName() != null &&
-                            context.getPackageManager().getPackageInfo(context.getPackageName(), 0) != null) {
+    private static final class Circuit {
+        private State state = State.CLOSED;
+        private int failures;
+        private int openCount;
+        private long retryTime;
+    }
+}
 
-                        versionName = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
-                    }
-                } catch (PackageManager.NameNotFoundException e) {
-                    Log.e(ATInternet.TAG, e.toString());
-                }
-                return String.format("[%s]", versionName);
-            }
-        };
+final class HitConnectionPool {
+
+    static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST = 2;
+    static final int DEFAULT_KEEP_ALIVE_DURATION = 30000;
+    private static final int OPENED = 0;
+    private static final int REUSED = 1;
+
+    private static HitConnectionPool instance;
+
+    // Connexions inactives par hôte (schéma, hôte et port), la plus récente en tête
+    private final HashMap<String, ArrayDeque<HttpConnection>> idleConnections = new HashMap<>();
+    // Connexions ouvertes et réutilisées par hôte
+    private final HashMap<String, long[]> connectionCounts = new HashMap<>();
+    private int maxIdleConnectionsPerHost = DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST;
+    private long keepAliveDuration = DEFAULT_KEEP_ALIVE_DURATION;
+    private boolean isEvictionScheduled;
+
+    private HitConnectionPool() {
     }
 
-    static Closure getResolution() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                android.content.Context context = Tracker.getAppContext();
-                DisplayMetrics displayMetrics = new DisplayMetrics();
-                ((WindowManager) context.getApplicationContext().getSystemService(android.content.Context.WINDOW_SERVICE)).getDefaultDisplay().getMetrics(displayMetrics);
-                return displayMetrics.widthPixels + "x" + displayMetrics.heightPixels;
+    static synchronized HitConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new HitConnectionPool();
+        }
+        return instance;
+    }
+
+    // Les connexions passant par un proxy sont laissées à HttpURLConnection
+    static boolean isDirect(URL url) {
+        ProxySelector proxySelector = ProxySelector.getDefault();
+        if (proxySelector == null) {
+            return true;
+        }
+        try {
+            List<Proxy> proxies = proxySelector.select(url.toURI());
+            return proxies == null || proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    void configure(int maxIdleConnectionsPerHost, long keepAliveDuration) {
+        ArrayList<HttpConnection> closedConnections = new ArrayList<>();
+        synchronized (this) {
+            this.maxIdleConnectionsPerHost = Math.max(0, maxIdleConnectionsPerHost);
+            this.keepAliveDuration = Math.max(0, keepAliveDuration);
+            collectEvictedConnections(System.currentTimeMillis(), closedConnections);
+        }
+        close(closedConnections);
+    }
+
+    HttpConnection acquire(URL url, int timeout) throws IOException {
+        String key = HttpConnection.getKey(url);
+        ArrayList<HttpConnection> closedConnections = new ArrayList<>();
+        HttpConnection connection;
+        while (true) {
+            synchronized (this) {
+                collectEvictedConnections(System.currentTimeMillis(), closedConnections);
+                ArrayDeque<HttpConnection> connections = idleConnections.get(key);
+                connection = connections != null ? connections.pollFirst() : null;
             }
-        };
+            // Une connexion fermée par le serveur pendant son inactivité n'est pas réutilisée
+            if (connection == null || connection.isHealthy()) {
+                break;
+            }
+            closedConnections.add(connection);
+        }
+        close(closedConnections);
+
+        if (connection == null) {
+            connection = HttpConnection.open(url, timeout);
+            count(key, OPENED);
+        } else {
+            count(key, REUSED);
+        }
+        return connection;
     }
 
-    @TargetApi(17)
-    static Closure getDiagonal() {
-        return new Closure() {
-            @Override
-            public String execute() {
-                DisplayMetrics metrics = new DisplayMetrics();
-                Display d = ((WindowManager) Tracker.getAppContext().getSystemService(Context.WINDOW_SERVICE))
-                        .getDefaultDisplay();
-                d.getMetrics(metrics);
+    void release(HttpConnection connection) {
+        if (!connection.isReusable()) {
+            discard(connection);
+            return;
+        }
+        ArrayList<HttpConnection> closedConnections = new ArrayList<>();
+        boolean scheduleEviction = false;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            collectEvictedConnections(now, closedConnections);
+            ArrayDeque<HttpConnection> connections = idleConnections.get(connection.getKey());
+            if (connections == null) {
+                connections = new ArrayDeque<>();
+                idleConnections.put(connection.getKey(), connections);
+            }
+            if (keepAliveDuration == 0 || connections.size() >= maxIdleConnectionsPerHost) {
+                closedConnections.add(connection);
+            } else {
+                connection.setIdleTime(now);
+                connections.addFirst(connection);
+                scheduleEviction = !isEvictionScheduled;
+                isEvictionScheduled = true;
+            }
+        }
+        close(closedConnections);
 
-                int widthPixels = metrics.widthPixels;
-                int heightPixels = metrics.heightPixels;
+        if (scheduleEviction) {
+            scheduleEviction();
+        }
+    }
 
-                try {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
-                        widthPixels = (Integer) Display.class.getMethod("getRawWidth").invoke(d);
-                        heightPixels = (Integer) Display.class.getMethod("getRawHeight").invoke(d);
-                    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-                        Point realSize = new Point();
-                        d.getRealSize(realSize);
+    void discard(HttpConnection connection) {
+        connection.close();
+    }
 
-                        widthPixels = realSize.x;
-                        heightPixels = realSize.y;
+    synchronized int getIdleConnectionCount(String endpoint) {
+        ArrayDeque<HttpConnection> connections = idleConnections.get(getKey(endpoint));
+        return connections != null ? connections.size() : 0;
+    }
 
-                    }
-                } catch (Exception e) {
-                    Log.e(ATInternet.TAG, e.toString());
-                }
+    synchronized long getOpenedConnectionCount(String endpoint) {
+        long[] counts = connectionCounts.get(getKey(endpoint));
+        return counts != null ? counts[OPENED] : 0;
+    }
 
-                double x = Math.pow(widthPixels / metrics.xdpi, 2);
-                double y = Math.pow(heightPixels / metrics.ydpi, 2);
+    synchronized long getReusedConnectionCount(String endpoint) {
+        long[] counts = connectionCounts.get(getKey(endpoint));
+        return counts != null ? counts[REUSED] : 0;
+    }
 
+    synchronized double getReuseRatio(String endpoint) {
+        return getReuseRatio(connectionCounts.get(getKey(endpoint)));
+    }
 
-                return String.format(Locale.ENGLISH, "%.1f", Math.sqrt(x + y));
+    synchronized double getReuseRatio() {
+        long[] total = new long[2];
+        for (long[] counts : connectionCounts.values()) {
+            total[OPENED] += counts[OPENED];
+            total[REUSED] += counts[REUSED];
+        }
+        return getReuseRatio(total);
+    }
+
+    void clear() {
+        ArrayList<HttpConnection> closedConnections = new ArrayList<>();
+        synchronized (this) {
+            for (ArrayDeque<HttpConnection> connections : idleConnections.values()) {
+                closedConnections.addAll(connections);
             }
-        };
+            idleConnections.clear();
+            connectionCounts.clear();
+        }
+        close(closedConnections);
     }
 
-    static Closure getDownloadSource(final Tracker tracker) {
-        return new Closure() {
+    private void scheduleEviction() {
+        long delay;
+        synchronized (this) {
+            delay = keepAliveDuration;
+        }
+        TrackerQueue.getInstance().schedule(new Runnable() {
             @Override
-            public String execute() {
-                Object dls = tracker.getConfiguration().get(TrackerConfigurationKeys.DOWNLOAD_SOURCE);
-                if (dls != null) {
-                    return String.valueOf(dls);
+            public void run() {
+                ArrayList<HttpConnection> closedConnections = new ArrayList<>();
+                boolean reschedule;
+                synchronized (HitConnectionPool.this) {
+                    collectEvictedConnections(System.currentTimeMillis(), closedConnections);
+                    reschedule = !idleConnections.isEmpty();
+                    isEvictionScheduled = reschedule;
+                }
+                close(closedConnections);
+                if (reschedule) {
+                    scheduleEviction();
                 }
-                return "ext";
             }
-        };
+        }, delay);
     }
 
-    static Closure getUserId(final String identifier, final boolean ignoreLimitedAdTracking) {
-        return new Closure() {
-            @SuppressLint("HardwareIds")
-            @Override
-            public String execute() {
-                final android.content.Context context = Tracker.getAppContext();
-                SharedPreferences preferences = context.getSharedPreferences(TrackerConfigurationKeys.PREFERENCES, Context.MODE_PRIVATE);
+    // Appelé sous verrou : les connexions à fermer sont retirées du pool et fermées hors verrou
+    private void collectEvictedConnections(long now, List<HttpConnection> closedConnections) {
+        Iterator<Map.Entry<String, ArrayDeque<HttpConnection>>> iterator = idleConnections.entrySet().iterator();
+        while (iterator.hasNext()) {
+            ArrayDeque<HttpConnection> connections = iterator.next().getValue();
+            while (!connections.isEmpty()
+                    && (connections.size() > maxIdleConnectionsPerHost || now - connections.peekLast().getIdleTime() >= keepAliveDuration)) {
+                closedConnections.add(connections.pollLast());
+            }
+            if (connections.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
 
-                if (preferences.getBoolean(TrackerConfigurationKeys.OPT_OUT_ENABLED, false)) {
-                    return "opt-out";
-                }
+    private synchronized void count(String key, int index) {
+        long[] counts = connectionCounts.get(key);
+        if (counts == null) {
+            counts = new long[2];
+            connectionCounts.put(key, counts);
+        }
+        counts[index]++;
+    }
 
-                String idType = TextUtils.isEmpty(identifier) ? "" : identifier.toLowerCase();
+    private static double getReuseRatio(long[] counts) {
+        if (counts == null || counts[OPENED] + counts[REUSED] == 0) {
+            return 0;
+        }
+        return (double) counts[REUSED] / (counts[OPENED] + counts[REUSED]);
+    }
 
-                if (idType.equals(ANDROID_ID_KEY)) {
-                    return Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
-                }
+    private static String getKey(String endpoint) {
+        try {
+            return HttpConnection.getKey(new URL(endpoint));
+        } catch (MalformedURLException e) {
+            return endpoint;
+        }
+    }
 
-                if (idType.equals(ADVERTISING_ID_KEY)) {
-                    try {
-                        com.google.android.gms.ads.identifier.AdvertisingIdClient.Info adInfo = null;
-                        int count = 0;
-                        while (adInfo == null && count < RETRY_GET_ADVERTISING_COUNT) {
-                            adInfo = com.google.android.gms.ads.identifier.AdvertisingIdClient.getAdvertisingIdInfo(context);
-                            count++;
-                        }
+    private static void close(List<HttpConnection> connections) {
+        for (HttpConnection connection : connections) {
+            connection.close();
+        }
+    }
+}
 
-                        if (adInfo != null && !adInfo.isLimitAdTrackingEnabled()) {
-                            return adInfo.getId();
-                        } else {
-                            if (ignoreLimitedAdTracking) {
-                                return getIdentifierUUID(preferences);
-                            }
-                            return "opt-out";
-                        }
-                    } catch (Exception e) {
-                        Log.e(ATInternet.TAG, e.toString());
-                        return "";
-                    }
+final class HttpConnection implements Closeable {
+
+    private static final String CRLF = "\r\n";
+    private static final String HEADER_ENCODING = "ISO-8859-1";
+    private static final String CONTENT_LENGTH = "content-length";
+    private static final String TRANSFER_ENCODING = "transfer-encoding";
+    private static final String CONNECTION = "connection";
+    private static final String HTTPS = "https";
+    private static final String HEAD = "HEAD";
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    private static final int HEX = 16;
+    private static final int HTTP_CONTINUE = 100;
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NO_CONTENT = 204;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int BUFFER_SIZE = 512;
+    private static final int HEALTH_CHECK_TIMEOUT = 1;
+
+    private final String key;
+    private final String host;
+    private final Socket socket;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private boolean isReusable = true;
+    private long idleTime;
+
+    private HttpConnection(String key, String host, Socket socket) throws IOException {
+        this.key = key;
+        this.host = host;
+        this.socket = socket;
+        inputStream = new BufferedInputStream(socket.getInputStream());
+        outputStream = socket.getOutputStream();
+    }
+
+    static String getKey(URL url) {
+        return url.getProtocol().toLowerCase(Locale.ENGLISH) + "://" + url.getHost().toLowerCase(Locale.ENGLISH) + ":" + getPort(url);
+    }
+
+    static HttpConnection open(URL url, int timeout) throws IOException {
+        String hostName = url.getHost();
+        int port = getPort(url);
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(hostName, port), timeout);
+            socket.setTcpNoDelay(true);
+            if (HTTPS.equalsIgnoreCase(url.getProtocol())) {
+                SSLSocket sslSocket = (SSLSocket) HttpsURLConnection.getDefaultSSLSocketFactory().createSocket(socket, hostName, port, true);
+                socket = sslSocket;
+                sslSocket.setSoTimeout(timeout);
+                sslSocket.startHandshake();
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(hostName, sslSocket.getSession())) {
+                    throw new SSLPeerUnverifiedException("Hostname not verified : " + hostName);
                 }
+            }
+            return new HttpConnection(getKey(url), port == url.getDefaultPort() ? hostName : hostName + ":" + port, socket);
+        } catch (IOException e) {
+            closeSocket(socket);
+            throw e;
+        }
+    }
 
-                return getIdentifierUUID(preferences);
+    String getKey() {
+        return key;
+    }
+
+    boolean isReusable() {
+        return isReusable;
+    }
+
+    long getIdleTime() {
+        return idleTime;
+    }
+
+    void setIdleTime(long idleTime) {
+        this.idleTime = idleTime;
+    }
+
+    boolean isHealthy() {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        // Une lecture sans attente détecte une connexion fermée par le serveur (fin de flux) ou des données inattendues
+        try {
+            int timeout = socket.getSoTimeout();
+            try {
+                socket.setSoTimeout(HEALTH_CHECK_TIMEOUT);
+                inputStream.read();
+                return false;
+            } finally {
+                socket.setSoTimeout(timeout);
             }
-        };
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
     }
 
-    private static String getIdentifierUUID(SharedPreferences preferences) {
-        String uuid = preferences.getString(TrackerConfigurationKeys.IDCLIENT_UUID, null);
-        if (uuid == null) {
+    HitTransport.Response exchange(HitTransport.Request request) throws IOException {
+        socket.setSoTimeout(request.getTimeout());
+
+        // Envoi de la requête
+        String target = new URL(request.getUrl()).getFile();
+        byte[] body = request.getBody();
+        StringBuilder head = new StringBuilder()
+                .append(request.getMethod()).append(' ').append(target.isEmpty() ? "/" : target).append(" HTTP/1.1").append(CRLF)
+                .append("Host: ").append(host).append(CRLF)
+                .append("Connection: keep-alive").append(CRLF);
+        String userAgent = System.getProperty("http.agent");
+        if (!TextUtils.isEmpty(userAgent)) {
+            head.append("User-Agent: ").append(userAgent).append(CRLF);
+        }
+        if (body != null) {
+            head.append("Content-Type: ").append(request.getContentType()).append(CRLF)
+                    .append("Content-Length: ").append(body.length).append(CRLF);
+        }
+        head.append(CRLF);
+        outputStream.write(head.toString().getBytes(HEADER_ENCODING));
+        if (body != null) {
+            outputStream.write(body);
+        }
+        outputStream.flush();
+
+        // Lecture de la réponse, réponses intermédiaires (1xx) ignorées
+        String statusLine;
+        int statusCode;
+        String message;
+        Headers headers;
+        do {
+            statusLine = readLine(inputStream);
+            if (statusLine == null) {
+                isReusable = false;
+                throw new EOFException("Connection closed by server");
+            }
+            String[] status = statusLine.split(" ", 3);
+            if (status.length < 2) {
+                isReusable = false;
+                throw new IOException("Bad status line : " + statusLine);
+            }
+            try {
+                statusCode = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                isReusable = false;
+                throw new IOException("Bad status line : " + statusLine);
+            }
+            message = status.length > 2 ? status[2] : "";
+            headers = readHeaders(inputStream);
+        } while (statusCode >= HTTP_CONTINUE && statusCode < HTTP_OK);
+
+        if (headers.connection != null) {
+            isReusable = !"close".equalsIgnoreCase(headers.connection);
+        }
+        if (statusLine.startsWith(HTTP_1_0) && !"keep-alive".equalsIgnoreCase(headers.connection)) {
+            isReusable = false;
+        }
+
+        ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+        if (HEAD.equals(request.getMethod()) || statusCode == HTTP_NO_CONTENT || statusCode == HTTP_NOT_MODIFIED) {
+            // Pas de corps
+            return new HitTransport.Response(statusCode, message, responseBody.toByteArray());
+        }
+        if (headers.isChunked) {
+            int chunkSize;
+            while ((chunkSize = readChunkSize(inputStream)) > 0) {
+                readFully(inputStream, responseBody, chunkSize);
+                readLine(inputStream);
+            }
+            // Trailers
+            readHeaders(inputStream);
+        } else if (headers.contentLength >= 0) {
+            readFully(inputStream, responseBody, headers.contentLength);
+        } else {
+            readFully(inputStream, responseBody, Integer.MAX_VALUE);
+            isReusable = false;
+        }
+        return new HitTransport.Response(statusCode, message, responseBody.toByteArray());
+    }
+
+    @Override
+    public void close() {
+        isReusable = false;
+        closeSocket(socket);
+    }
+
+    static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = inputStream.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static int getPort(URL url) {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    private static Headers readHeaders(InputStream inputStream) throws IOException {
+        Headers headers = new Headers();
+        String line;
+        while ((line = readLine(inputStream)) != null && !line.isEmpty()) {
+            int separatorIndex = line.indexOf(':');
+            if (separatorIndex < 0) {
+                continue;
+            }
+            String name = line.substring(0, separatorIndex).trim().toLowerCase(Locale.ENGLISH);
+            String value = line.substring(separatorIndex + 1).trim();
+            if (CONTENT_LENGTH.equals(name)) {
+                try {
+                    headers.contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad content length : " + value);
+                }
+            } else if (TRANSFER_ENCODING.equals(name)) {
+                headers.isChunked = "chunked".equalsIgnoreCase(value);
+            } else if (CONNECTION.equals(name)) {
+                headers.connection = value;
+            }
+        }
+        return headers;
+    }
+
+    private static int readChunkSize(InputStream inputStream) throws IOException {
+        String line = readLine(inputStream);
+        if (line == null) {
+            throw new EOFException("Response body truncated");
+        }
+        int extensionIndex = line.indexOf(';');
+        try {
+            return Integer.parseInt((extensionIndex < 0 ? line : line.substring(0, extensionIndex)).trim(), HEX);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad chunk size : " + line);
+        }
+    }
+
+    private static void readFully(InputStream inputStream, ByteArrayOutputStream outputStream, int length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = inputStream.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read == -1) {
+                if (length == Integer.MAX_VALUE) {
+                    return;
+                }
+                throw new EOFException("Response body truncated");
+            }
+            outputStream.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, e.toString());
+        }
+    }
+
+    private static final class Headers {
+        private int contentLength = -1;
+        private boolean isChunked;
+        private String connection;
+    }
+}
+
+final class EndpointPrewarmer implements Runnable {
+
+    private static final int TIMEOUT = 5000;
+
+    private final Tracker tracker;
+
+    private EndpointPrewarmer(Tracker tracker) {
+        this.tracker = tracker;
+    }
+
+    static void start(Tracker tracker) {
+        Thread thread = new Thread(new EndpointPrewarmer(tracker), "ATEndpointPrewarmer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        boolean isHttpTransport = tracker.getTransport() instanceof HttpHitTransport;
+        for (String endpoint : getEndpoints(tracker.getConfiguration())) {
+            try {
+                URL url = new URL(endpoint);
+                // Résolution DNS
+                InetAddress.getAllByName(url.getHost());
+                if (!isHttpTransport || !HitConnectionPool.isDirect(url)) {
+                    continue;
+                }
+
+                // Connexion TCP (et TLS) laissée ouverte dans le pool pour le premier hit
+                HitConnectionPool connectionPool = HitConnectionPool.getInstance();
+                connectionPool.release(connectionPool.acquire(url, TIMEOUT));
+            } catch (Exception e) {
+                Log.e(ATInternet.TAG, "Endpoint prewarm failed : " + e.toString());
+            }
+        }
+    }
+
+    static List<String> getEndpoints(Configuration configuration) {
+        boolean isSecure = configuration.getBoolean(TrackerConfigurationKeys.SECURE, false);
+        String domain = String.valueOf(configuration.get(TrackerConfigurationKeys.DOMAIN));
+        String[] subDomains = new String[]{
+                String.valueOf(configuration.get(isSecure ? TrackerConfigurationKeys.LOG_SSL : TrackerConfigurationKeys.LOG)),
+                String.valueOf(configuration.get(TrackerConfigurationKeys.COLLECT_DOMAIN))
+        };
+
+        ArrayList<String> endpoints = new ArrayList<>();
+        if (TextUtils.isEmpty(domain)) {
+            return endpoints;
+        }
+        for (String subDomain : subDomains) {
+            if (TextUtils.isEmpty(subDomain) || "null".equals(subDomain)) {
+                continue;
+            }
+            String endpoint = (isSecure ? "https://" : "http://") + subDomain + "." + domain + "/";
+            if (!endpoints.contains(endpoint)) {
+                endpoints.add(endpoint);
+            }
+        }
+        return endpoints;
+    }
+}
+
+final class DeliveryMetrics {
+
+    private final boolean isPrewarmEnabled;
+    private volatile long firstHitLatency = -1;
+
+    DeliveryMetrics(boolean isPrewarmEnabled) {
+        this.isPrewarmEnabled = isPrewarmEnabled;
+    }
+
+    boolean isPrewarmEnabled() {
+        return isPrewarmEnabled;
+    }
+
+    long getFirstHitLatency() {
+        return firstHitLatency;
+    }
+
+    void onHitSent(long latency) {
+        synchronized (this) {
+            if (firstHitLatency >= 0) {
+                return;
+            }
+            firstHitLatency = latency;
+        }
+        // Conservée pour comparer les démarrages avec et sans préchauffage
+        Tracker.getPreferences().edit().putLong(getPreferenceKey(isPrewarmEnabled), latency).apply();
+    }
+
+    static long getLastFirstHitLatency(boolean isPrewarmEnabled) {
+        return Tracker.getPreferences().getLong(getPreferenceKey(isPrewarmEnabled), -1);
+    }
+
+    private static String getPreferenceKey(boolean isPrewarmEnabled) {
+        return isPrewarmEnabled ? TrackerConfigurationKeys.FIRST_HIT_LATENCY_PREWARMED : TrackerConfigurationKeys.FIRST_HIT_LATENCY;
+    }
+}
+
+class Dispatcher {
+
+    private final Tracker tracker;
+
+    Dispatcher(Tracker tracker) {
+        this.tracker = tracker;
+    }
+
+    void dispatch(BusinessObject... businessObjects) {
+        try {
+            ArrayList<BusinessObject> trackerObjects;
+            for (BusinessObject businessObject : businessObjects) {
+                businessObject.setParams();
+
+                if (businessObject instanceof AbstractScreen) {
+                    trackerObjects = new ArrayList<>(tracker.getBusinessObjects().values());
+
+                    boolean hasOrder = false;
+
+                    for (BusinessObject object : trackerObjects) {
+                        if (isScreenCompatible(object) && object.getTimestamp() < businessObject.getTimestamp()) {
+
+                            if (object instanceof Order) {
+                                hasOrder = true;
+                            }
+
+                            object.setParams();
+                            tracker.getBusinessObjects().remove(object.getId());
+                        }
+                    }
+
+                    if (tracker.Cart().getCartId() != null && (((Screen) businessObject).isBasketScreen() || hasOrder)) {
+                        tracker.Cart().setParams();
+                    }
+                } else if (businessObject instanceof Gesture) {
+                    trackerObjects = new ArrayList<>(tracker.getBusinessObjects().values());
+
+                    if (((Gesture) businessObject).getAction() == Gesture.Action.InternalSearch) {
+                        for (BusinessObject object : trackerObjects) {
+                            if ((object instanceof InternalSearch) && object.getTimestamp() < businessObject.getTimestamp()) {
+                                object.setParams();
+                                tracker.getBusinessObjects().remove(object.getId());
+                            }
+                        }
+                    }
+                }
+
+                tracker.getBusinessObjects().remove(businessObject.getId());
+                trackerObjects = new ArrayList<>(tracker.getBusinessObjects().values());
+
+                for (BusinessObject object : trackerObjects) {
+                    if ((object instanceof CustomObject || object instanceof NuggAd) && object.getTimestamp() < businessObject.getTimestamp()) {
+                        object.setParams();
+                        tracker.getBusinessObjects().remove(object.getId());
+                    }
+                }
+            }
+
+            if (Hit.getHitType(tracker.getBuffer().getVolatileParams(), tracker.getBuffer().getPersistentParams()) == Hit.HitType.Screen) {
+                SharedPreferences preferences = Tracker.getPreferences();
+                if (!preferences.getBoolean(TrackerConfigurationKeys.CAMPAIGN_ADDED_KEY, false)) {
+                    final String xtor = preferences.getString(TrackerConfigurationKeys.MARKETING_CAMPAIGN_SAVED, null);
+                    if (xtor != null) {
+                        ParamOption beforeStcPositionWithEncoding = new ParamOption()
+                                .setRelativePosition(ParamOption.RelativePosition.before)
+                                .setRelativeParameterKey(Hit.HitParam.JSON.stringValue())
+                                .setEncode(true);
+
+                        if (preferences.getBoolean(TrackerConfigurationKeys.IS_FIRST_AFTER_INSTALL_HIT_KEY, true)) {
+                            tracker.setParam(Hit.HitParam.Source.stringValue(), xtor, beforeStcPositionWithEncoding);
+                            preferences.edit().putBoolean(TrackerConfigurationKeys.IS_FIRST_AFTER_INSTALL_HIT_KEY, false).apply();
+                        } else {
+                            tracker.setParam(Hit.HitParam.RemanentSource.stringValue(), xtor, beforeStcPositionWithEncoding);
+                        }
+                        preferences.edit().putBoolean(TrackerConfigurationKeys.CAMPAIGN_ADDED_KEY, true).apply();
+                    }
+                }
+            }
+
+            setIdentifiedVisitorInfos();
+
+
+            ParamOption stcOptions = new ParamOption()
+                    .setAppend(true)
+                    .setEncode(true)
+                    .setType(ParamOption.Type.JSON)
+                    .setRelativePosition(ParamOption.RelativePosition.last);
+            tracker.setParam(Hit.HitParam.JSON.stringValue(), LifeCycle.getMetrics(Tracker.getPreferences()), stcOptions);
+            if ((boolean) tracker.getConfiguration().get(TrackerConfigurationKeys.ENABLE_CRASH_DETECTION)) {
+                tracker.setParam(Hit.HitParam.JSON.stringValue(), CrashDetectionHandler.getCrashInformation(Tracker.getPreferences()), stcOptions);
+            }
+
+            Map<String, String> identification = new HashMap<>();
+            identification.put("idType", String.valueOf(tracker.configuration.get(TrackerConfigurationKeys.IDENTIFIER)));
+            tracker.setParam(Hit.HitParam.JSON.stringValue(), identification, stcOptions);
+
+            final String referrer = Tracker.getPreferences().getString(TrackerConfigurationKeys.REFERRER, null);
+            if (!TextUtils.isEmpty(referrer)) {
+                tracker.setParam(Hit.HitParam.Refstore.stringValue(), referrer);
+                Tracker.getPreferences().edit().putString(TrackerConfigurationKeys.REFERRER, null).apply();
+            }
+
+            Buffer buffer = tracker.getBuffer();
+            TrackerQueue.getInstance().put(new Builder(tracker, buffer.takeVolatileParams(), buffer.getPersistentParamsSnapshot()));
+
+            // s2 persistant réécrit seulement s'il a changé, pour garder l'instantané des paramètres persistants
+            int level2 = tracker.Context().getLevel2();
+            if (!isLevel2Persisted(buffer.getPersistentParams().get(Hit.HitParam.Level2.stringValue()), level2)) {
+                tracker.Context().setLevel2(level2);
+            }
+        } catch (Exception e) {
+            Tool.executeCallback(tracker.getListener(), Tool.CallbackType.ERROR, e.toString(), TrackerListener.HitStatus.Failed);
+        }
+    }
+
+    private static boolean isLevel2Persisted(Param param, int level2) {
+        if (level2 <= 0) {
+            return param == null;
+        }
+        return param != null && param.isPersistent() && param.getValues().size() == 1
+                && String.valueOf(level2).equals(param.getValues().get(0).execute());
+    }
+
+    private boolean isScreenCompatible(BusinessObject object) {
+        return ((object instanceof OnAppAd && ((OnAppAd) object).getAction() == OnAppAd.Action.View)
+                || object instanceof Order
+                || object instanceof InternalSearch
+                || object instanceof ScreenInfo);
+    }
+
+    void setIdentifiedVisitorInfos() {
+        if (!((boolean) tracker.getConfiguration().get(TrackerConfigurationKeys.PERSIST_IDENTIFIED_VISITOR))) {
+            return;
+        }
+        ParamOption beforeStcPosition = new ParamOption()
+                .setRelativePosition(ParamOption.RelativePosition.before)
+                .setRelativeParameterKey(Hit.HitParam.JSON.stringValue());
+
+        ParamOption beforeStcPositionWithEncoding = new ParamOption()
+                .setRelativePosition(ParamOption.RelativePosition.before)
+                .setRelativeParameterKey(Hit.HitParam.JSON.stringValue()).setEncode(true);
+
+        String visitorNumericID = Tracker.getPreferences().getString(IdentifiedVisitor.VISITOR_NUMERIC, null);
+        String visitorCategory = Tracker.getPreferences().getString(IdentifiedVisitor.VISITOR_CATEGORY, null);
+        String visitorTextID = Tracker.getPreferences().getString(IdentifiedVisitor.VISITOR_TEXT, null);
+        if (visitorNumericID != null) {
+            tracker.setParam(Hit.HitParam.VisitorIdentifierNumeric.stringValue(), visitorNumericID, beforeStcPosition);
+        }
+        if (visitorTextID != null) {
+            tracker.setParam(Hit.HitParam.VisitorIdentifierText.stringValue(), visitorTextID, beforeStcPositionWithEncoding);
+        }
+        if (visitorCategory != null) {
+            tracker.setParam(Hit.HitParam.VisitorCategory.stringValue(), visitorCategory, beforeStcPosition);
+        }
+    }
+}
+
+final class TrackerQueue extends LinkedBlockingQueue<Runnable> {
+
+    private static boolean enabledFillQueueFromDatabase = true;
+    private static TrackerQueue instance;
+    private final ScheduledExecutorService scheduledExecutorService;
+
+    private TrackerQueue() {
+        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    static TrackerQueue getInstance() {
+        if (instance == null) {
+            instance = new TrackerQueue();
+            start();
+        }
+        return instance;
+    }
+
+    private static void start() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Runnable runnable;
+                    while ((runnable = instance.take()) != null) {
+                        instance.scheduledExecutorService.execute(runnable);
+                    }
+                } catch (InterruptedException e) {
+                    Log.e(ATInternet.TAG, e.toString());
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).start();
+    }
+
+    void schedule(Runnable runnable, long delay) {
+        scheduledExecutorService.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    static void setEnabledFillQueueFromDatabase(boolean enabled) {
+        enabledFillQueueFromDatabase = enabled;
+    }
+
+    static boolean isEnabledFillQueueFromDatabase() {
+        return enabledFillQueueFromDatabase;
+    }
+
+    @Override
+    public void put(Runnable runnable) {
+        try {
+            if (runnable != null) {
+                super.put(runnable);
+            }
+        } catch (InterruptedException e) {
+            Log.e(ATInternet.TAG, e.toString());
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+final class QueueJournal {
+
+    private static final String JOURNAL_FILE = "ATQueueJournal";
+    private static final String ENCODING = "UTF-8";
+    // Au-delà de cette taille, le journal est réécrit avec les seules entrées en attente
+    static final int COMPACTION_SIZE = 64 * 1024;
+    // Enregistrement : taille, opération, identifiant puis, pour un ajout, olt et hits
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+    private static final byte APPEND = 1;
+    private static final byte ACK = 2;
+    private static final int MAX_SYNC_ATTEMPTS = 3;
+
+    private static QueueJournal instance;
+
+    private final File file;
+    private final LinkedHashMap<Long, Entry> pendingEntries = new LinkedHashMap<>();
+    private final Object syncLock = new Object();
+    private ArrayList<Entry> recoveredEntries;
+    private boolean isLoaded;
+    private boolean isOpen;
+    private long nextId = 1;
+    private FileChannel channel;
+    // Octets écrits depuis le premier chargement, réécritures comprises
+    private long writtenBytes;
+    private long syncedBytes;
+
+    static final class Entry {
+        private final long id;
+        private final List<String> urls;
+        private final String oltParameter;
+
+        private Entry(long id, List<String> urls, String oltParameter) {
+            this.id = id;
+            this.urls = urls;
+            this.oltParameter = oltParameter;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        List<String> getUrls() {
+            return urls;
+        }
+
+        String getOltParameter() {
+            return oltParameter;
+        }
+    }
+
+    QueueJournal(File file) {
+        this.file = file;
+    }
+
+    static synchronized QueueJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new QueueJournal(new File(context.getFilesDir(), JOURNAL_FILE));
+        }
+        return instance;
+    }
+
+    // Retour -1 si le journal n'est pas disponible
+    long append(List<String> urls, String oltParameter) {
+        long id;
+        long position;
+        synchronized (this) {
+            if (!open()) {
+                return -1;
+            }
+            id = nextId++;
+            Entry entry = new Entry(id, new ArrayList<>(urls), oltParameter);
+            try {
+                ByteBuffer record = encode(entry);
+                position = writtenBytes + record.remaining();
+                SegmentLogStorage.writeFully(channel, record);
+                writtenBytes = position;
+            } catch (IOException e) {
+                Log.e(ATInternet.TAG, "Cannot journal hits : " + e);
+                close();
+                return -1;
+            }
+            pendingEntries.put(id, entry);
+        }
+        try {
+            sync(position);
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, "Cannot sync hits journal : " + e);
+            synchronized (this) {
+                pendingEntries.remove(id);
+            }
+            return -1;
+        }
+        return id;
+    }
+
+    // Écritures groupées : un seul fsync couvre les entrées ajoutées par les autres appelants entre-temps
+    private void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            if (syncedBytes >= position) {
+                return;
+            }
+            // Une réécriture ou une fermeture concurrente peut fermer le canal : le fsync est refait sur le canal courant,
+            // qui contient toujours l'entrée (réécrite ou relue à la réouverture)
+            for (int attempt = 1; ; attempt++) {
+                FileChannel syncedChannel;
+                long target;
+                synchronized (this) {
+                    if (!open()) {
+                        throw new IOException("Hits journal closed");
+                    }
+                    syncedChannel = channel;
+                    target = writtenBytes;
+                }
+                try {
+                    syncedChannel.force(false);
+                    syncedBytes = target;
+                    return;
+                } catch (ClosedChannelException e) {
+                    if (attempt == MAX_SYNC_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    // Acquittement sans fsync : s'il est perdu, les hits sont seulement renvoyés au prochain lancement
+    synchronized void acknowledge(long id) {
+        if (pendingEntries.remove(id) == null || !open()) {
+            return;
+        }
+        try {
+            if (pendingEntries.isEmpty()) {
+                channel.truncate(0);
+            } else if (channel.size() >= COMPACTION_SIZE) {
+                rewrite();
+            } else {
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+                record.putInt(RECORD_HEADER_SIZE).put(ACK).putLong(id);
+                record.flip();
+                SegmentLogStorage.writeFully(channel, record);
+                writtenBytes += RECORD_HEADER_SIZE;
+            }
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, "Cannot acknowledge journaled hits : " + e);
+            close();
+        }
+    }
+
+    // Entrées en attente au chargement du journal, rendues une seule fois par processus
+    synchronized List<Entry> takeRecoveredEntries() {
+        if (!open() || recoveredEntries == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = recoveredEntries;
+        recoveredEntries = null;
+        return entries;
+    }
+
+    synchronized int getPendingCount() {
+        return open() ? pendingEntries.size() : 0;
+    }
+
+    synchronized void close() {
+        SegmentLogStorage.closeQuietly(channel);
+        channel = null;
+        isOpen = false;
+    }
+
+    private boolean open() {
+        if (isOpen) {
+            return true;
+        }
+        try {
+            File directory = file.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            pendingEntries.clear();
+            long validSize = load();
+            // Fin d'enregistrement incomplète (arrêt pendant une écriture) : elle est ignorée
+            if (validSize < channel.size()) {
+                channel.truncate(validSize);
+            }
+            channel.position(validSize);
+            if (!isLoaded) {
+                recoveredEntries = new ArrayList<>(pendingEntries.values());
+                isLoaded = true;
+            }
+            for (long id : pendingEntries.keySet()) {
+                nextId = Math.max(nextId, id + 1);
+            }
+            isOpen = true;
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, "Cannot open hits journal : " + e);
+            close();
+        }
+        return isOpen;
+    }
+
+    private long load() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.position(0);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        long validSize = 0;
+        try {
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int start = buffer.position();
+                int size = buffer.getInt();
+                if (size < RECORD_HEADER_SIZE || size > buffer.remaining() + 4) {
+                    break;
+                }
+                byte operation = buffer.get();
+                long id = buffer.getLong();
+                if (operation == APPEND) {
+                    String oltParameter = readString(buffer);
+                    int count = buffer.getInt();
+                    ArrayList<String> urls = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        urls.add(readString(buffer));
+                    }
+                    pendingEntries.put(id, new Entry(id, urls, oltParameter));
+                } else if (operation == ACK) {
+                    pendingEntries.remove(id);
+                } else {
+                    break;
+                }
+                if (buffer.position() != start + size) {
+                    break;
+                }
+                validSize = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            Log.w(ATInternet.TAG, "Incomplete hits journal record ignored");
+        }
+        return validSize;
+    }
+
+    private void rewrite() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileChannel tmpChannel = new RandomAccessFile(tmpFile, "rw").getChannel();
+        try {
+            tmpChannel.truncate(0);
+            for (Entry entry : pendingEntries.values()) {
+                SegmentLogStorage.writeFully(tmpChannel, encode(entry));
+            }
+            tmpChannel.force(false);
+        } finally {
+            tmpChannel.close();
+        }
+        SegmentLogStorage.closeQuietly(channel);
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+    }
+
+    private static ByteBuffer encode(Entry entry) throws IOException {
+        byte[] oltParameter = String.valueOf(entry.oltParameter).getBytes(ENCODING);
+        ArrayList<byte[]> urls = new ArrayList<>(entry.urls.size());
+        int size = RECORD_HEADER_SIZE + 4 + oltParameter.length + 4;
+        for (String url : entry.urls) {
+            byte[] bytes = url.getBytes(ENCODING);
+            urls.add(bytes);
+            size += 4 + bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size).put(APPEND).putLong(entry.id);
+        buffer.putInt(oltParameter.length).put(oltParameter);
+        buffer.putInt(urls.size());
+        for (byte[] url : urls) {
+            buffer.putInt(url.length).put(url);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, ENCODING);
+    }
+}
+
+class TechnicalContext {
+
+    private static final int RETRY_GET_ADVERTISING_COUNT = 3;
+    private static final String ANDROID_ID_KEY = "androidid";
+    private static final String ADVERTISING_ID_KEY = "advertisingid";
+    private static String screenName = "";
+    private static int level2 = -1;
+    private static volatile ConnectionType connection;
+
+    static final Closure VTAG = new Closure() {
+        @Override
+        public String execute() {
+            return "2.12.1";
+        }
+    };
+
+    static final Closure PTAG = new Closure() {
+        @Override
+        public String execute() {
+            return "Android";
+        }
+    };
+
+    enum ConnectionType {
+        GPRS, EDGE, TWOG, THREEG, THREEGPLUS, FOURG, WIFI, OFFLINE, UNKNOWN
+    }
+
+    static void resetScreenContext() {
+        screenName = null;
+        level2 = -1;
+    }
+
+    static void setScreenName(String sn) {
+        screenName = sn;
+    }
+
+    static String getScreenName() {
+        return screenName;
+    }
+
+    static void setLevel2(int lv) {
+        level2 = lv;
+    }
+
+    static int getLevel2() {
+        return level2;
+    }
+
+    static ConnectionType getConnection() {
+        // État mis à jour par ConnectivityMonitor, lu directement à défaut d'abonnement
+        ConnectionType current = connection;
+        return current != null ? current : readConnection(Tracker.getAppContext());
+    }
+
+    static ConnectionType setConnection(ConnectionType connectionType) {
+        ConnectionType previous = connection;
+        connection = connectionType;
+        return previous;
+    }
+
+    static ConnectionType readConnection(android.content.Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(android.content.Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+
+        if (networkInfo == null) {
+            return ConnectionType.OFFLINE;
+        }
+
+        if (networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
+            return ConnectionType.WIFI;
+        }
+
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(android.content.Context.TELEPHONY_SERVICE);
+        if (telephonyManager == null) {
+            return ConnectionType.UNKNOWN;
+        }
+
+        switch (telephonyManager.getNetworkType()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+                return ConnectionType.GPRS;
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+                return ConnectionType.EDGE;
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+                return ConnectionType.TWOG;
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+                return ConnectionType.THREEG;
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+                return ConnectionType.THREEGPLUS;
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return ConnectionType.FOURG;
+            default:
+                return ConnectionType.UNKNOWN;
+        }
+    }
+
+    static Closure getConnectionType() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                switch (getConnection()) {
+                    case GPRS:
+                        return "gprs";
+                    case EDGE:
+                        return "edge";
+                    case TWOG:
+                        return "2g";
+                    case THREEG:
+                        return "3g";
+                    case THREEGPLUS:
+                        return "3g+";
+                    case FOURG:
+                        return "4g";
+                    case WIFI:
+                        return "wifi";
+                    case UNKNOWN:
+                        return "unknown";
+                    default:
+                        return "offline";
+                }
+            }
+        };
+    }
+
+    static Closure getCarrier() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                android.content.Context context = Tracker.getAppContext();
+                TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(android.content.Context.TELEPHONY_SERVICE);
+                return (telephonyManager != null) ? telephonyManager.getNetworkOperatorName() : "";
+            }
+        };
+    }
+
+    static Closure getLanguage() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                Locale localeDefault = Locale.getDefault();
+                if (localeDefault == null) {
+                    return "";
+                }
+                return String.format("%1$s-%2$s-%3$s", localeDefault.getLanguage(), localeDefault.getCountry(), localeDefault.getVariant());
+            }
+        };
+    }
+
+    static Closure getDevice() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                return String.format("[%1$s]-[%2$s]", Build.BRAND, Tool.removeCharacters(Build.MODEL, " ", "-", ".").toLowerCase());
+            }
+        };
+    }
+
+    static Closure getManufacturer() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                return Build.MANUFACTURER;
+            }
+        };
+    }
+
+    static Closure getModel() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                return Build.MODEL;
+            }
+        };
+    }
+
+    static Closure getOS() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                return String.format("[android]-[%s]", Build.VERSION.RELEASE);
+            }
+        };
+    }
+
+    static Closure getLocalHour() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                return new SimpleDateFormat("HH'x'mm'x'ss", Locale.ENGLISH).format(new Date());
+            }
+        };
+    }
+
+    static Closure getApplicationIdentifier() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                return Tracker.getAppContext().getPackageName();
+            }
+        };
+    }
+
+    static Closure getApplicationVersion() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                android.content.Context context = Tracker.getAppContext();
+                String versionName = "";
+                try {
+                    if (context.getPackageManager() != null &&
+                            context.getPackageName() != null &&
+                            context.getPackageManager().getPackageInfo(context.getPackageName(), 0) != null) {
+
+                        versionName = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
+                    }
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.e(ATInternet.TAG, e.toString());
+                }
+                return String.format("[%s]", versionName);
+            }
+        };
+    }
+
+    static Closure getResolution() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                android.content.Context context = Tracker.getAppContext();
+                DisplayMetrics displayMetrics = new DisplayMetrics();
+                ((WindowManager) context.getApplicationContext().getSystemService(android.content.Context.WINDOW_SERVICE)).getDefaultDisplay().getMetrics(displayMetrics);
+                return displayMetrics.widthPixels + "x" + displayMetrics.heightPixels;
+            }
+        };
+    }
+
+    @TargetApi(17)
+    static Closure getDiagonal() {
+        return new Closure() {
+            @Override
+            public String execute() {
+                DisplayMetrics metrics = new DisplayMetrics();
+                Display d = ((WindowManager) Tracker.getAppContext().getSystemService(Context.WINDOW_SERVICE))
+                        .getDefaultDisplay();
+                d.getMetrics(metrics);
+
+                int widthPixels = metrics.widthPixels;
+                int heightPixels = metrics.heightPixels;
+
+                try {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                        widthPixels = (Integer) Display.class.getMethod("getRawWidth").invoke(d);
+                        heightPixels = (Integer) Display.class.getMethod("getRawHeight").invoke(d);
+                    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                        Point realSize = new Point();
+                        d.getRealSize(realSize);
+
+                        widthPixels = realSize.x;
+                        heightPixels = realSize.y;
+
+                    }
+                } catch (Exception e) {
+                    Log.e(ATInternet.TAG, e.toString());
+                }
+
+                double x = Math.pow(widthPixels / metrics.xdpi, 2);
+                double y = Math.pow(heightPixels / metrics.ydpi, 2);
+
+
+                return String.format(Locale.ENGLISH, "%.1f", Math.sqrt(x + y));
+            }
+        };
+    }
+
+    static Closure getDownloadSource(final Tracker tracker) {
+        return new Closure() {
+            @Override
+            public String execute() {
+                Object dls = tracker.getConfiguration().get(TrackerConfigurationKeys.DOWNLOAD_SOURCE);
+                if (dls != null) {
+                    return String.valueOf(dls);
+                }
+                return "ext";
+            }
+        };
+    }
+
+    static Closure getUserId(final String identifier, final boolean ignoreLimitedAdTracking) {
+        return new Closure() {
+            @SuppressLint("HardwareIds")
+            @Override
+            public String execute() {
+                final android.content.Context context = Tracker.getAppContext();
+                SharedPreferences preferences = context.getSharedPreferences(TrackerConfigurationKeys.PREFERENCES, Context.MODE_PRIVATE);
+
+                if (preferences.getBoolean(TrackerConfigurationKeys.OPT_OUT_ENABLED, false)) {
+                    return "opt-out";
+                }
+
+                String idType = TextUtils.isEmpty(identifier) ? "" : identifier.toLowerCase();
+
+                if (idType.equals(ANDROID_ID_KEY)) {
+                    return Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+                }
+
+                if (idType.equals(ADVERTISING_ID_KEY)) {
+                    try {
+                        com.google.android.gms.ads.identifier.AdvertisingIdClient.Info adInfo = null;
+                        int count = 0;
+                        while (adInfo == null && count < RETRY_GET_ADVERTISING_COUNT) {
+                            adInfo = com.google.android.gms.ads.identifier.AdvertisingIdClient.getAdvertisingIdInfo(context);
+                            count++;
+                        }
+
+                        if (adInfo != null && !adInfo.isLimitAdTrackingEnabled()) {
+                            return adInfo.getId();
+                        } else {
+                            if (ignoreLimitedAdTracking) {
+                                return getIdentifierUUID(preferences);
+                            }
+                            return "opt-out";
+                        }
+                    } catch (Exception e) {
+                        Log.e(ATInternet.TAG, e.toString());
+                        return "";
+                    }
+                }
+
+                return getIdentifierUUID(preferences);
+            }
+        };
+    }
+
+    private static String getIdentifierUUID(SharedPreferences preferences) {
+        String uuid = preferences.getString(TrackerConfigurationKeys.IDCLIENT_UUID, null);
+        if (uuid == null) {
             uuid = UUID.randomUUID().toString();
             preferences.edit().putString(TrackerConfigurationKeys.IDCLIENT_UUID, uuid).apply();
         }
-        return uuid;
+        return uuid;
+    }
+
+    static void optOut(android.content.Context context, boolean enabled) {
+        context.getSharedPreferences(TrackerConfigurationKeys.PREFERENCES, android.content.Context.MODE_PRIVATE).edit().putBoolean(TrackerConfigurationKeys.OPT_OUT_ENABLED, enabled).apply();
+    }
+
+    static boolean optOutEnabled(android.content.Context context) {
+        return context.getSharedPreferences(TrackerConfigurationKeys.PREFERENCES, android.content.Context.MODE_PRIVATE).getBoolean(TrackerConfigurationKeys.OPT_OUT_ENABLED, false);
+    }
+}
+
+final class ConnectivityMonitor extends BroadcastReceiver {
+
+    interface Listener {
+        void connectionDidChange(TechnicalContext.ConnectionType previous, TechnicalContext.ConnectionType current);
+    }
+
+    private static ConnectivityMonitor instance;
+
+    private final CopyOnWriteArrayList<WeakReference<Listener>> listeners = new CopyOnWriteArrayList<>();
+    private boolean isRegistered;
+    // Référence conservée : le TelephonyManager ne retient pas toujours le listener
+    private PhoneStateListener phoneStateListener;
+
+    private ConnectivityMonitor() {
+    }
+
+    static synchronized ConnectivityMonitor getInstance() {
+        if (instance == null) {
+            instance = new ConnectivityMonitor();
+        }
+        return instance;
+    }
+
+    synchronized void register(Context context) {
+        if (isRegistered || context == null) {
+            return;
+        }
+        try {
+            Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            TechnicalContext.setConnection(TechnicalContext.readConnection(appContext));
+            appContext.registerReceiver(this, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            listenNetworkTypeChanges(appContext);
+            isRegistered = true;
+        } catch (Exception e) {
+            // Sans abonnement, l'état de la connexion est lu à chaque appel
+            TechnicalContext.setConnection(null);
+            Log.e(ATInternet.TAG, e.toString());
+        }
+    }
+
+    // CONNECTIVITY_ACTION n'est pas émis quand seul le type de réseau mobile change (3G vers 4G)
+    private void listenNetworkTypeChanges(final Context context) {
+        final TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager == null) {
+            return;
+        }
+        // Un PhoneStateListener doit être créé sur un thread disposant d'un Looper
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    phoneStateListener = new PhoneStateListener() {
+                        @Override
+                        public void onDataConnectionStateChanged(int state, int networkType) {
+                            update(TechnicalContext.readConnection(context));
+                        }
+                    };
+                    telephonyManager.listen(phoneStateListener, PhoneStateListener.LISTEN_DATA_CONNECTION_STATE);
+                } catch (Exception e) {
+                    Log.e(ATInternet.TAG, e.toString());
+                }
+            }
+        });
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(new WeakReference<>(listener));
+    }
+
+    void removeListener(Listener listener) {
+        for (WeakReference<Listener> reference : listeners) {
+            Listener current = reference.get();
+            if (current == null || current == listener) {
+                listeners.remove(reference);
+            }
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        update(TechnicalContext.readConnection(context));
+    }
+
+    void update(TechnicalContext.ConnectionType connection) {
+        TechnicalContext.ConnectionType previous = TechnicalContext.setConnection(connection);
+        if (previous == connection) {
+            return;
+        }
+        for (WeakReference<Listener> reference : listeners) {
+            Listener listener = reference.get();
+            if (listener == null) {
+                listeners.remove(reference);
+            } else {
+                listener.connectionDidChange(previous, connection);
+            }
+        }
+    }
+}
+
+class Tool {
+
+    enum CallbackType {
+        FIRST_LAUNCH, BUILD, SEND, PARTNER, WARNING, SAVE, ERROR
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    // Caractères ASCII conservés tels quels, tous les autres sont encodés en UTF-8
+    private static final boolean[] UNENCODED_CHARACTERS = new boolean[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            UNENCODED_CHARACTERS[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNENCODED_CHARACTERS[c] = true;
+            UNENCODED_CHARACTERS[Character.toLowerCase(c)] = true;
+        }
+    }
+
+    static String percentEncode(String s) {
+        StringBuilder builder = new StringBuilder(s.length() * 3);
+        percentEncode(s, builder);
+        return builder.toString();
+    }
+
+    static void percentEncode(String s, StringBuilder builder) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (UNENCODED_CHARACTERS[c]) {
+                    builder.append(c);
+                } else {
+                    appendEncodedByte(builder, c);
+                }
+            } else if (c < 0x800) {
+                appendEncodedByte(builder, 0xC0 | (c >> 6));
+                appendEncodedByte(builder, 0x80 | (c & 0x3F));
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                appendEncodedByte(builder, 0xE0 | (c >> 12));
+                appendEncodedByte(builder, 0x80 | ((c >> 6) & 0x3F));
+                appendEncodedByte(builder, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                appendEncodedByte(builder, 0xF0 | (codePoint >> 18));
+                appendEncodedByte(builder, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendEncodedByte(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendEncodedByte(builder, 0x80 | (codePoint & 0x3F));
+            } else {
+                // Surrogate isolé remplacé par '?' comme le faisait URLEncoder
+                appendEncodedByte(builder, '?');
+            }
+        }
+    }
+
+    private static void appendEncodedByte(StringBuilder builder, int b) {
+        builder.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0x0F]);
+    }
+
+    static String percentDecode(String s) {
+        try {
+            s = URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            Log.e(ATInternet.TAG, e.toString());
+        }
+        return s;
+    }
+
+    static String getEndpoint(String url) {
+        int queryIndex = url.indexOf('?');
+        return queryIndex < 0 ? url : url.substring(0, queryIndex);
+    }
+
+    static String removeCharacters(String s, String... charTobeRemoved) {
+        String result = s;
+        for (String c : charTobeRemoved) {
+            result = result.replace(c, "");
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    static String convertToString(Object value, String separator) {
+        separator = (!TextUtils.isEmpty(separator)) ? separator : ",";
+        StringBuilder result = new StringBuilder();
+        boolean isFirst = true;
+
+        if (value != null) {
+            if (value instanceof List) {
+                List<Object> listResult = (List<Object>) value;
+                for (Object object : listResult) {
+                    value = object;
+                    if (isFirst) {
+                        result = new StringBuilder(convertToString(value, separator));
+                        isFirst = false;
+                    } else {
+                        result.append(separator).append(convertToString(value, separator));
+                    }
+                }
+            } else if (value instanceof Object[]) {
+                Object[] objects = (Object[]) value;
+                value = Arrays.asList(objects);
+                return convertToString(value, separator);
+            } else if (value instanceof Map) {
+                result = new StringBuilder(new JSONObject((Map) value).toString());
+            } else {
+                result = new StringBuilder(String.valueOf(value));
+            }
+        }
+
+        return result.toString();
+    }
+
+    static Closure getTimeStamp() {
+        return new Closure() {
+            @Override
+            public String execute() {
+
+                double result = System.currentTimeMillis() / 1000.0;
+                long d = (long) result;
+                String afterZero = Double.toString(result - d);
+
+                return (afterZero.length() > 1) ? (Long.toString(d) + afterZero.substring(1)) : "";
+            }
+        };
+    }
+
+    static boolean isTablet(android.content.Context context) {
+        return (context.getResources().getConfiguration().screenLayout & android.content.res.Configuration.SCREENLAYOUT_SIZE_MASK) >= android.content.res.Configuration.SCREENLAYOUT_SIZE_LARGE;
+    }
+
+    static Tracker.OfflineMode convertStringToOfflineMode(String offlineMode) {
+        switch (offlineMode) {
+            case "always":
+                return Tracker.OfflineMode.always;
+            case "required":
+                return Tracker.OfflineMode.required;
+            default:
+                return Tracker.OfflineMode.never;
+        }
+    }
+
+    static HitTransport convertStringToHitTransport(String transport) {
+        if ("inMemory".equals(transport)) {
+            return new InMemoryHitTransport();
+        } else if ("loopback".equals(transport)) {
+            try {
+                return new LoopbackHitTransport();
+            } catch (IOException e) {
+                Log.e(ATInternet.TAG, e.toString());
+            }
+        }
+        return new HttpHitTransport();
+    }
+
+    static void executeCallback(TrackerListener trackerListener, CallbackType callbackType, String message, TrackerListener.HitStatus... hitStatuses) {
+        if (trackerListener != null) {
+            switch (callbackType) {
+                case FIRST_LAUNCH:
+                    trackerListener.trackerNeedsFirstLaunchApproval(message);
+                    break;
+                case BUILD:
+                    trackerListener.buildDidEnd(hitStatuses[0], message);
+                    break;
+                case SEND:
+                    trackerListener.sendDidEnd(hitStatuses[0], message);
+                    break;
+                case PARTNER:
+                    trackerListener.didCallPartner(message);
+                    break;
+                case WARNING:
+                    trackerListener.warningDidOccur(message);
+                    break;
+                case SAVE:
+                    trackerListener.saveDidEnd(message);
+                    break;
+                default://error
+                    trackerListener.errorDidOccur(message);
+                    break;
+            }
+        }
+    }
+
+    static int getDaysBetweenTimes(long latestTimeMillis, long oldestTimeMillis) {
+        return (int) TimeUnit.DAYS.convert((latestTimeMillis - oldestTimeMillis), TimeUnit.MILLISECONDS);
+    }
+
+    static int getSecondsBetweenTimes(long latestTimeMillis, long oldestTimeMillis) {
+        return (int) TimeUnit.SECONDS.convert((latestTimeMillis - oldestTimeMillis), TimeUnit.MILLISECONDS);
+    }
+
+    static String formatNumberLength(String s, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = s.length(); i < length; i++) {
+            sb.append('0');
+        }
+        return sb.append(s).toString();
+    }
+
+    static boolean isJSON(String s) {
+        if (s == null) {
+            return false;
+        }
+
+        try {
+            JSONObject obj = new JSONObject(s);
+            return obj.toString().equals(cleanJSONString(s));
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    static boolean isArray(String s) {
+        if (s == null) {
+            return false;
+        }
+
+        try {
+            JSONArray array = new JSONArray(s);
+            return array.toString().equals(cleanJSONString(s));
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    private static String cleanJSONString(String jsonStr) {
+        return jsonStr.replace("\n", "")
+                .replace("\t", "")
+                .replace("\b", "")
+                .replace("\f", "")
+                .replace(" ", "")
+                .replace("\r", "");
+    }
+
+    static Map<String, Object> toMap(JSONObject jsonObject) {
+        Map<String, Object> map = new HashMap<>();
+
+        Iterator<String> keysItr = jsonObject.keys();
+        while (keysItr.hasNext()) {
+            String key = keysItr.next();
+            Object value = null;
+            try {
+                value = jsonObject.get(key);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            map.put(key, value);
+        }
+        return map;
+    }
+
+    static SparseIntArray sortSparseIntArrayByKey(SparseIntArray arr) {
+        int length = arr.size();
+        int[] keys = new int[length];
+        for (int i = 0; i < length; i++) {
+            keys[i] = arr.keyAt(i);
+        }
+
+        boolean swapped;
+        do {
+            swapped = false;
+            for (int i = 1; i < length - 1; i++) {
+                int k = keys[i - 1];
+                int k1 = keys[i];
+                if (k > k1) {
+                    keys[i - 1] = k1;
+                    keys[i] = k;
+                    swapped = true;
+                }
+            }
+        } while (swapped);
+
+        SparseIntArray res = new SparseIntArray();
+        for (int k : keys) {
+            res.append(k, arr.get(k));
+        }
+
+        return res;
+    }
+
+    static String appendParameterValues(Param param) {
+        StringBuilder result = new StringBuilder();
+
+        if (param == null) {
+            return result.toString();
+        }
+
+        boolean isFirst = true;
+        for (Closure closure : param.getValues()) {
+            if (isFirst) {
+                result.append(closure.execute());
+                isFirst = false;
+            } else {
+                if (param.getOptions() != null) {
+                    result.append(param.getOptions().getSeparator());
+                } else {
+                    result.append(",");
+                }
+                result.append(closure.execute());
+            }
+        }
+
+        return result.toString();
+    }
+
+    static String sha256(String s) {
+        String baseString = "AT" + s;
+        StringBuilder sb = new StringBuilder();
+        try {
+            MessageDigest md;
+            md = MessageDigest.getInstance("SHA-256");
+            md.update(baseString.getBytes());
+
+            byte[] byteData = md.digest();
+
+            for (byte aByteData : byteData) {
+                String hex = Integer.toHexString(0xff & aByteData);
+                if (hex.length() == 1) {
+                    sb.append('0');
+                }
+                sb.append(hex);
+            }
+        } catch (Exception e) {
+            Log.e(ATInternet.TAG, e.toString());
+        }
+        return sb.toString();
+    }
+
+    static Drawable getResizedImage(int imageID, android.content.Context context, int width, int height) {
+        Bitmap b = BitmapFactory.decodeResource(context.getResources(), imageID);
+        Bitmap bitmapResized = Bitmap.createScaledBitmap(b, width, height, false);
+        return new BitmapDrawable(context.getResources(), bitmapResized);
+    }
+
+    static void setVisibleViewWithAnimation(View view, boolean visible) {
+        AlphaAnimation animation;
+        if (visible) {
+            view.setVisibility(View.VISIBLE);
+            animation = new AlphaAnimation(0.F, 1.F);
+        } else {
+            view.setVisibility(View.GONE);
+            animation = new AlphaAnimation(1.F, 0.F);
+        }
+        animation.setDuration(400);
+        view.startAnimation(animation);
+    }
+
+    static LinkedHashMap<String, String> getParameters(String hit) {
+        LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        try {
+            URL url = new URL(hit);
+            map.put("ssl", "http".equals(url.getProtocol()) ? "Off" : "On");
+            map.put("log", url.getHost());
+            String[] queryComponents = url.getQuery().split("&");
+            for (String queryComponent : queryComponents) {
+                String[] elem = queryComponent.split("=");
+                if (elem.length <= 1) {
+                    map.put(elem[0], "");
+                    continue;
+                }
+
+                elem[1] = Tool.percentDecode(elem[1]);
+                if (elem[0].equals(Hit.HitParam.JSON.stringValue())) {
+                    map.put(elem[0], new JSONObject(elem[1]).toString(3));
+                } else {
+                    map.put(elem[0], elem[1]);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(ATInternet.TAG, e.toString());
+        }
+        return map;
+    }
+
+    @SuppressWarnings("deprecation")
+    @SuppressLint("deprecation")
+    @TargetApi(23)
+    static int getColor(android.content.Context context, int colorId) {
+        if (Build.VERSION.SDK_INT >= 23) {
+            return context.getResources().getColor(colorId, null);
+        } else {
+            return context.getResources().getColor(colorId);
+        }
+    }
+
+    static void runOnMainThread(Activity act, Runnable r) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            r.run();
+        } else {
+            act.runOnUiThread(r);
+        }
+    }
+}
+
+abstract class Storage {
+
+    static final String SQLITE_BACKEND = "sqlite";
+    static final String SEGMENT_LOG_BACKEND = "segmentLog";
+    private static final String SEGMENT_LOG_DIRECTORY = "ATHitLog";
+    static final String OLDEST_EVICTION = "oldest";
+    static final String PRIORITY_EVICTION = "priority";
+    static final int LOW_PRIORITY = 0;
+    static final int NORMAL_PRIORITY = 1;
+    static final int HIGH_PRIORITY = 2;
+
+    private static final boolean INITIALIZED = true;
+    private static final HashMap<String, Storage> instances = new HashMap<>();
+    private static String backend = SQLITE_BACKEND;
+    private static String databasePath;
+    private static volatile int maxHitCount;
+    private static volatile long maxHitBytes;
+    private static volatile boolean priorityEviction;
+
+    private final AtomicInteger evictedHitCount = new AtomicInteger();
+
+    static synchronized Storage getInstance(Context context) {
+        Storage instance = instances.get(backend);
+        if (instance == null) {
+            if (TextUtils.isEmpty(databasePath)) {
+                databasePath = "TrackerDatabase";
+            }
+            if (SEGMENT_LOG_BACKEND.equals(backend)) {
+                instance = new SegmentLogStorage(new File(context.getFilesDir(), SEGMENT_LOG_DIRECTORY));
+            } else {
+                instance = new SQLiteStorage(context, databasePath);
+            }
+            instances.put(backend, instance);
+        }
+        return instance;
+    }
+
+    static synchronized void setBackend(String value) {
+        // Les hits stockés par l'autre backend y restent jusqu'à son retour
+        backend = SEGMENT_LOG_BACKEND.equals(value) ? SEGMENT_LOG_BACKEND : SQLITE_BACKEND;
+    }
+
+    static void setLimits(int maxCount, long maxBytes, String evictionPolicy) {
+        maxHitCount = maxCount;
+        maxHitBytes = maxBytes;
+        priorityEviction = PRIORITY_EVICTION.equals(evictionPolicy);
+    }
+
+    static void setDatabasePath(String path) {
+        if (!INITIALIZED) {
+            databasePath = path;
+        } else {
+            Log.w(ATInternet.TAG, "Changing path when database is already INITIALIZED");
+        }
+    }
+
+    static String getDatabasePath() {
+        return databasePath;
+    }
+
+    abstract ArrayList<String> saveHits(List<String> hits, long time, String oltParameter);
+
+    abstract void updateHits(List<Long> deletedIds, Map<Long, Integer> retries);
+
+    abstract int getCountOfflineHits();
+
+    abstract long getSizeOfflineHits();
+
+    abstract void removeAllOfflineHits();
+
+    abstract void removeOldOfflineHits(int storageDuration);
+
+    abstract ArrayList<Hit> getOfflineHits();
+
+    abstract ArrayList<Hit> getOfflineHits(long afterId, int limit);
+
+    abstract Hit getOldestOfflineHit();
+
+    abstract Hit getLatestOfflineHit();
+
+    abstract void close();
+
+    abstract String getBackend();
+
+    String saveHit(String hit, long time, String oltParameter) {
+        ArrayList<String> storedHits = saveHits(Collections.singletonList(hit), time, oltParameter);
+        return storedHits != null ? storedHits.get(0) : null;
+    }
+
+    void deleteHit(long id) {
+        if (id >= 0) {
+            updateHits(Collections.singletonList(id), Collections.<Long, Integer>emptyMap());
+        }
+    }
+
+    void updateRetry(long id, int retry) {
+        if (id >= 0) {
+            updateHits(Collections.<Long>emptyList(), Collections.singletonMap(id, retry));
+        }
+    }
+
+    // Nombre de hits supprimés pour respecter les limites depuis le dernier appel
+    int takeEvictedHitCount() {
+        return evictedHitCount.getAndSet(0);
+    }
+
+    void onHitsEvicted(int count) {
+        evictedHitCount.addAndGet(count);
+    }
+
+    static boolean isOverLimits(int count, long bytes) {
+        return (maxHitCount > 0 && count > maxHitCount) || (maxHitBytes > 0 && bytes > maxHitBytes);
+    }
+
+    static boolean isPriorityEviction() {
+        return priorityEviction;
+    }
+
+    // Type enregistré avec le hit, l'éviction n'a plus à analyser l'url
+    static String getStoredType(String hit) {
+        Hit.HitType hitType = new Hit(hit).getHitType();
+        if (SendPolicy.isRichMediaRefresh(hitType, hit)) {
+            return SendPolicy.RICH_MEDIA_REFRESH;
+        }
+        return hitType.name();
+    }
+
+    static int getEvictionPriority(String type) {
+        if (SendPolicy.RICH_MEDIA_REFRESH.equals(type) || Hit.HitType.ProduitImpression.name().equals(type)) {
+            return LOW_PRIORITY;
+        }
+        return Hit.HitType.Screen.name().equals(type) ? HIGH_PRIORITY : NORMAL_PRIORITY;
+    }
+
+    static int getSize(String hit) {
+        try {
+            return hit.getBytes("UTF-8").length;
+        } catch (UnsupportedEncodingException e) {
+            return hit.length();
+        }
+    }
+
+    Iterator<Hit> iterateOfflineHits(int pageSize) {
+        final int limit = Math.max(1, pageSize);
+        return new Iterator<Hit>() {
+            private Iterator<Hit> page = new ArrayList<Hit>().iterator();
+            private long lastId = 0;
+            private boolean lastPage = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!page.hasNext() && !lastPage) {
+                    ArrayList<Hit> hits = getOfflineHits(lastId, limit);
+                    if (hits == null) {
+                        hits = new ArrayList<>();
+                    }
+                    lastPage = hits.size() < limit;
+                    if (!hits.isEmpty()) {
+                        lastId = hits.get(hits.size() - 1).getId();
+                    }
+                    page = hits.iterator();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public Hit next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    String buildHitToStore(String hit, String olt) {
+        int index = hit.indexOf('&');
+        if (index < 0) {
+            return hit;
+        }
+        // olt null conservé tel quel dans l'url, comme auparavant
+        return assembleStoredHit(hit.substring(0, index), hit.substring(index), String.valueOf(olt));
+    }
+
+    // Url envoyée pour un hit stocké, en un seul parcours du corps : cn=offline et olt ajouté après ts et mh
+    // (olt null pour un corps qui le contient déjà)
+    static String assembleStoredHit(String prefix, String body, String olt) {
+        // Comme pour un découpage sur '&', les paramètres vides en fin d'url sont ignorés
+        int length = body.length();
+        while (length > 0 && body.charAt(length - 1) == '&') {
+            length--;
+        }
+        StringBuilder builder = new StringBuilder(prefix.length() + length + 16).append(prefix);
+        int start = body.indexOf('&');
+        while (start >= 0 && start < length) {
+            int end = body.indexOf('&', start + 1);
+            if (end < 0 || end > length) {
+                end = length;
+            }
+            int keyEnd = body.indexOf('=', start + 1);
+            if (keyEnd < 0 || keyEnd > end) {
+                keyEnd = end;
+            }
+            int keyLength = keyEnd - start - 1;
+            if (keyLength == 2 && body.startsWith("cn", start + 1)) {
+                builder.append("&cn=offline");
+            } else {
+                builder.append(body, start, end);
+            }
+            if (olt != null && keyLength == 2 && (body.startsWith("ts", start + 1) || body.startsWith("mh", start + 1))) {
+                builder.append("&olt=").append(olt);
+            }
+            start = end;
+        }
+        return builder.toString();
+    }
+
+    static long getMaxOldDate(int storageDuration) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(new Date());
+        cal.add(Calendar.DATE, -storageDuration);
+        return cal.getTime().getTime();
+    }
+}
+
+final class SQLiteStorage extends Storage {
+
+    private static final int DATABASE_VERSION = 4;
+    private static final String HITS_STORAGE_TABLE = "StoredOfflineHit";
+    private static final String PREFIX_TABLE = "HitPrefix";
+    private static final String ID = "id";
+    private static final String HIT = "hit";
+    private static final String PREFIX = "prefix";
+    private static final String BODY = "body";
+    private static final String COMPRESSED = "compressed";
+    private static final String OLT = "olt";
+    private static final String RETRY = "retry";
+    private static final String DATE = "date";
+    private static final String TYPE = "type";
+    private static final String SIZE = "size";
+    private static final String SELECT_ALL_QUERY = "SELECT " + ID + ", " + PREFIX + ", " + BODY + ", " + COMPRESSED + ", " + OLT + ", " + DATE + ", " + RETRY + " FROM " + HITS_STORAGE_TABLE + " ";
+    private static final String CREATE_TABLE_QUERY =
+            "CREATE TABLE IF NOT EXISTS " + HITS_STORAGE_TABLE + " (" +
+                    ID + " INTEGER PRIMARY KEY AUTOINCREMENT , " +
+                    PREFIX + " INTEGER NOT NULL , " +
+                    BODY + " BLOB NOT NULL , " +
+                    COMPRESSED + " INTEGER NOT NULL DEFAULT 0 , " +
+                    OLT + " TEXT , " +
+                    DATE + " INTEGER NOT NULL , " +
+                    RETRY + " INTEGER NOT NULL , " +
+                    TYPE + " TEXT NOT NULL DEFAULT '' , " +
+                    SIZE + " INTEGER NOT NULL DEFAULT 0);";
+    private static final String CREATE_PREFIX_TABLE_QUERY =
+            "CREATE TABLE IF NOT EXISTS " + PREFIX_TABLE + " (" +
+                    ID + " INTEGER PRIMARY KEY AUTOINCREMENT , " +
+                    PREFIX + " TEXT NOT NULL UNIQUE);";
+    private static final String CREATE_DATE_INDEX_QUERY = "CREATE INDEX IF NOT EXISTS " + HITS_STORAGE_TABLE + "_" + DATE + " ON " + HITS_STORAGE_TABLE + " (" + DATE + ");";
+    private static final String INSERT_QUERY = "INSERT INTO " + HITS_STORAGE_TABLE + " (" + PREFIX + ", " + BODY + ", " + COMPRESSED + ", " + OLT + ", " + DATE + ", " + RETRY + ", " + TYPE + ", " + SIZE + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_PREFIX_QUERY = "INSERT OR IGNORE INTO " + PREFIX_TABLE + " (" + PREFIX + ") VALUES (?)";
+    private static final String DELETE_QUERY = "DELETE FROM " + HITS_STORAGE_TABLE + " WHERE " + ID + " = ?";
+    private static final String UPDATE_RETRY_QUERY = "UPDATE " + HITS_STORAGE_TABLE + " SET " + RETRY + " = ? WHERE " + ID + " = ?";
+    private static final String COUNT_QUERY = "SELECT COUNT(*) FROM " + HITS_STORAGE_TABLE;
+    private static final String BYTES_QUERY = "SELECT COALESCE(SUM(" + SIZE + "), 0) FROM " + HITS_STORAGE_TABLE;
+    private static final String SIZE_QUERY = "SELECT COALESCE(SUM(" + SIZE + "), 0) FROM " + HITS_STORAGE_TABLE + " WHERE " + ID + " = ?";
+    // Les hits les moins prioritaires sont supprimés en premier
+    private static final String PRIORITY_ORDER = "CASE " + TYPE +
+            " WHEN '" + SendPolicy.RICH_MEDIA_REFRESH + "' THEN " + LOW_PRIORITY +
+            " WHEN '" + Hit.HitType.ProduitImpression.name() + "' THEN " + LOW_PRIORITY +
+            " WHEN '" + Hit.HitType.Screen.name() + "' THEN " + HIGH_PRIORITY +
+            " ELSE " + NORMAL_PRIORITY + " END";
+    // Corps compressé seulement au-delà de cette taille, avec un dictionnaire des paramètres les plus fréquents
+    private static final int COMPRESSION_MIN_SIZE = 64;
+    private static final int DEFLATE_COMPRESSION = 1;
+    private static final byte[] COMPRESSION_DICTIONARY = ("&vtag=&ptag=js&r=&re=&hl=&lng=&dm=&tz=&idclient=&apid=&apvr=&car=&cn=wifi" +
+            "&os=android&mfmd=mobile&manufacturer=&model=&ts=&olt=&mh=&type=screen&action=&p=&s2=&stc={}&ati=&atc=&click=A").getBytes(Charset.forName("UTF-8"));
+
+    private final DatabaseHelper helper;
+    private final AtomicInteger offlineHitCount = new AtomicInteger();
+    private final AtomicLong offlineHitBytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+    // Préfixes de configuration (domaine, chemin et site) enregistrés une seule fois
+    private final ConcurrentHashMap<String, Long> prefixIds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, String> prefixes = new ConcurrentHashMap<>();
+    private volatile SQLiteDatabase database;
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement insertPrefixStatement;
+    private SQLiteStatement deleteStatement;
+    private SQLiteStatement updateRetryStatement;
+    private SQLiteStatement sizeStatement;
+
+    SQLiteStorage(Context context, String databasePath) {
+        helper = new DatabaseHelper(context, databasePath);
+    }
+
+    private synchronized SQLiteDatabase getDatabase() {
+        // Connexion unique conservée ouverte, les requêtes fréquentes sont compilées une seule fois
+        if (database == null || !database.isOpen()) {
+            database = null;
+            SQLiteDatabase db = helper.getWritableDatabase();
+            if (db == null) {
+                return null;
+            }
+            try {
+                // Journalisation WAL : les lectures ne sont pas bloquées par les écritures
+                db.enableWriteAheadLogging();
+                insertStatement = db.compileStatement(INSERT_QUERY);
+                insertPrefixStatement = db.compileStatement(INSERT_PREFIX_QUERY);
+                deleteStatement = db.compileStatement(DELETE_QUERY);
+                updateRetryStatement = db.compileStatement(UPDATE_RETRY_QUERY);
+                sizeStatement = db.compileStatement(SIZE_QUERY);
+                // Les compteurs en mémoire sont initialisés une seule fois depuis la base
+                SQLiteStatement countStatement = db.compileStatement(COUNT_QUERY);
+                offlineHitCount.set((int) countStatement.simpleQueryForLong());
+                countStatement.close();
+                SQLiteStatement bytesStatement = db.compileStatement(BYTES_QUERY);
+                offlineHitBytes.set(bytesStatement.simpleQueryForLong());
+                bytesStatement.close();
+                loadPrefixes(db);
+                database = db;
+            } catch (Exception e) {
+                Log.e(ATInternet.TAG, "Cannot prepare database : " + e);
+                return null;
+            }
+        }
+        return database;
+    }
+
+    @Override
+    ArrayList<String> saveHits(List<String> hits, long time, String oltParameter) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return null;
+        }
+        // olt null conservé tel quel dans l'url, comme auparavant
+        String olt = String.valueOf(oltParameter);
+        ArrayList<String> storedHits = new ArrayList<>(hits.size());
+        int insertedCount = 0;
+        long insertedBytes = 0;
+        try {
+            synchronized (insertStatement) {
+                // Préfixes enregistrés avant la transaction : ils restent valides même si elle est annulée
+                long[] prefixIds = new long[hits.size()];
+                for (int i = 0; i < prefixIds.length; i++) {
+                    prefixIds[i] = getPrefixId(db, getPrefix(hits.get(i)));
+                }
+                db.beginTransactionNonExclusive();
+                try {
+                    for (int i = 0; i < prefixIds.length; i++) {
+                        // Enregistrement structuré : seul le préfixe est séparé, l'url finale est construite à l'envoi
+                        String hit = hits.get(i);
+                        String prefix = getPrefix(hit);
+                        String body = hit.substring(prefix.length());
+                        String storedHit = assembleStoredHit(prefix, body, olt);
+                        int size = getSize(storedHit);
+                        bindBody(insertStatement, body);
+                        insertStatement.bindLong(1, prefixIds[i]);
+                        insertStatement.bindString(4, olt);
+                        insertStatement.bindLong(5, time);
+                        insertStatement.bindLong(6, 0);
+                        insertStatement.bindString(7, getStoredType(hit));
+                        insertStatement.bindLong(8, size);
+                        if (insertStatement.executeInsert() != -1) {
+                            insertedCount++;
+                            insertedBytes += size;
+                        }
+                        insertStatement.clearBindings();
+                        storedHits.add(storedHit);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } catch (Exception e) {
+            Log.e(ATInternet.TAG, "Cannot save hits : " + e);
+            return null;
+        }
+        offlineHitCount.addAndGet(insertedCount);
+        offlineHitBytes.addAndGet(insertedBytes);
+        evict();
+        return storedHits;
+    }
+
+    private void loadPrefixes(SQLiteDatabase db) {
+        prefixIds.clear();
+        prefixes.clear();
+        Cursor c = db.rawQuery("SELECT " + ID + ", " + PREFIX + " FROM " + PREFIX_TABLE, null);
+        try {
+            while (c.moveToNext()) {
+                prefixIds.put(c.getString(1), c.getLong(0));
+                prefixes.put(c.getLong(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
     }
 
-    static void optOut(android.content.Context context, boolean enabled) {
-        context.getSharedPreferences(TrackerConfigurationKeys.PREFERENCES, android.content.Context.MODE_PRIVATE).edit().putBoolean(TrackerConfigurationKeys.OPT_OUT_ENABLED, enabled).apply();
+    // Appelé sous le verrou d'insertion
+    private long getPrefixId(SQLiteDatabase db, String prefix) {
+        Long id = prefixIds.get(prefix);
+        if (id == null) {
+            insertPrefixStatement.bindString(1, prefix);
+            id = insertPrefixStatement.executeInsert();
+            insertPrefixStatement.clearBindings();
+            if (id == -1) {
+                id = queryPrefixId(db, prefix);
+            }
+            prefixIds.put(prefix, id);
+            prefixes.put(id, prefix);
+        }
+        return id;
     }
 
-    static boolean optOutEnabled(android.content.Context context) {
-        return context.getSharedPreferences(TrackerConfigurationKeys.PREFERENCES, android.content.Context.MODE_PRIVATE).getBoolean(TrackerConfigurationKeys.OPT_OUT_ENABLED, false);
+    private static long queryPrefixId(SQLiteDatabase db, String prefix) {
+        Cursor c = db.rawQuery("SELECT " + ID + " FROM " + PREFIX_TABLE + " WHERE " + PREFIX + " = ?", new String[]{prefix});
+        try {
+            if (c.moveToFirst()) {
+                return c.getLong(0);
+            }
+        } finally {
+            c.close();
+        }
+        throw new IllegalStateException("Cannot save hit prefix : " + prefix);
     }
-}
 
-class Tool {
+    // Préfixe de configuration : url jusqu'au premier paramètre après le site
+    private static String getPrefix(String hit) {
+        int index = hit.indexOf('&');
+        return index < 0 ? hit : hit.substring(0, index);
+    }
 
-    enum CallbackType {
-        FIRST_LAUNCH, BUILD, SEND, PARTNER, WARNING, SAVE, ERROR
+    private static void bindBody(SQLiteStatement statement, String body) throws UnsupportedEncodingException {
+        byte[] bytes = body.getBytes("UTF-8");
+        byte[] compressed = bytes.length >= COMPRESSION_MIN_SIZE ? compress(bytes) : null;
+        if (compressed != null) {
+            statement.bindBlob(2, compressed);
+            statement.bindLong(3, DEFLATE_COMPRESSION);
+        } else {
+            statement.bindBlob(2, bytes);
+            statement.bindLong(3, 0);
+        }
     }
 
-    static String percentEncode(String s) {
+    // Null si la compression ne réduit pas la taille
+    private static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
         try {
-            s = URLEncoder.encode(s, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            Log.e(ATInternet.TAG, e.toString());
+            deflater.setDictionary(COMPRESSION_DICTIONARY);
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] buffer = new byte[bytes.length];
+            int length = deflater.deflate(buffer);
+            if (!deflater.finished() || length >= bytes.length) {
+                return null;
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
         }
-        return s.replace("+", "%20")
-                .replace("*", "%2A")
-                .replace("-", "%2D")
-                .replace(".", "%2E")
-                .replace("_", "%5F");
     }
 
-    static String percentDecode(String s) {
+    private static byte[] decompress(byte[] bytes) throws DataFormatException {
+        Inflater inflater = new Inflater();
         try {
-            s = URLDecoder.decode(s, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            Log.e(ATInternet.TAG, e.toString());
+            inflater.setInput(bytes);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length * 3);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(COMPRESSION_DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new DataFormatException("Truncated hit body");
+                    }
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            inflater.end();
         }
-        return s;
     }
 
-    static String removeCharacters(String s, String... charTobeRemoved) {
-        String result = s;
-        for (String c : charTobeRemoved) {
-            result = result.replace(c, "");
+    private String readHitUrl(Cursor c) throws UnsupportedEncodingException, DataFormatException {
+        byte[] body = c.getBlob(2);
+        if (c.getInt(3) == DEFLATE_COMPRESSION) {
+            body = decompress(body);
         }
-        return result;
+        String prefix = prefixes.get(c.getLong(1));
+        if (prefix == null) {
+            throw new IllegalStateException("Unknown hit prefix : " + c.getLong(1));
+        }
+        // Url finale construite à la lecture, juste avant l'envoi
+        return assembleStoredHit(prefix, new String(body, "UTF-8"), c.isNull(4) ? null : c.getString(4));
     }
 
-    @SuppressWarnings("unchecked")
-    static String convertToString(Object value, String separator) {
-        separator = (!TextUtils.isEmpty(separator)) ? separator : ",";
-        StringBuilder result = new StringBuilder();
-        boolean isFirst = true;
-
-        if (value != null) {
-            if (value instanceof List) {
-                List<Object> listResult = (List<Object>) value;
-                for (Object object : listResult) {
-                    value = object;
-                    if (isFirst) {
-                        result = new StringBuilder(convertToString(value, separator));
-                        isFirst = false;
-                    } else {
-                        result.append(separator).append(convertToString(value, separator));
+    @Override
+    void updateHits(List<Long> deletedIds, Map<Long, Integer> retries) {
+        if ((deletedIds.isEmpty() && retries.isEmpty()) || getDatabase() == null) {
+            return;
+        }
+        SQLiteDatabase db = database;
+        int deletedCount = 0;
+        long deletedBytes = 0;
+        try {
+            // Verrous des requêtes toujours pris avant la transaction
+            synchronized (deleteStatement) {
+                synchronized (updateRetryStatement) {
+                    db.beginTransactionNonExclusive();
+                    try {
+                        for (long id : deletedIds) {
+                            // Taille lue sous le verrou de suppression, avant la suppression
+                            sizeStatement.bindLong(1, id);
+                            long size = sizeStatement.simpleQueryForLong();
+                            sizeStatement.clearBindings();
+                            deleteStatement.bindLong(1, id);
+                            if (deleteStatement.executeUpdateDelete() > 0) {
+                                deletedCount++;
+                                deletedBytes += size;
+                            }
+                            deleteStatement.clearBindings();
+                        }
+                        for (Map.Entry<Long, Integer> entry : retries.entrySet()) {
+                            updateRetryStatement.bindLong(1, entry.getValue());
+                            updateRetryStatement.bindLong(2, entry.getKey());
+                            updateRetryStatement.executeUpdateDelete();
+                            updateRetryStatement.clearBindings();
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
                     }
                 }
-            } else if (value instanceof Object[]) {
-                Object[] objects = (Object[]) value;
-                value = Arrays.asList(objects);
-                return convertToString(value, separator);
-            } else if (value instanceof Map) {
-                result = new StringBuilder(new JSONObject((Map) value).toString());
-            } else {
-                result = new StringBuilder(String.valueOf(value));
             }
+        } catch (Exception e) {
+            Log.e(ATInternet.TAG, "Cannot update hits : " + e);
+            return;
         }
-
-        return result.toString();
-    }
-
-    static Closure getTimeStamp() {
-        return new Closure() {
-            @Override
-            public String execute() {
-
-                double result = System.currentTimeMillis() / 1000.0;
-                long d = (long) result;
-                String afterZero = Double.toString(result - d);
-
-                return (afterZero.length() > 1) ? (Long.toString(d) + afterZero.substring(1)) : "";
-            }
-        };
+        offlineHitCount.addAndGet(-deletedCount);
+        offlineHitBytes.addAndGet(-deletedBytes);
     }
 
-    static boolean isTablet(android.content.Context context) {
-        return (context.getResources().getConfiguration().screenLayout & android.content.res.Configuration.SCREENLAYOUT_SIZE_MASK) >= android.content.res.Configuration.SCREENLAYOUT_SIZE_LARGE;
+    @Override
+    int getCountOfflineHits() {
+        if (database == null && getDatabase() == null) {
+            return -1;
+        }
+        return offlineHitCount.get();
     }
 
-    static Tracker.OfflineMode convertStringToOfflineMode(String offlineMode) {
-        switch (offlineMode) {
-            case "always":
-                return Tracker.OfflineMode.always;
-            case "required":
-                return Tracker.OfflineMode.required;
-            default:
-                return Tracker.OfflineMode.never;
+    @Override
+    long getSizeOfflineHits() {
+        if (database == null && getDatabase() == null) {
+            return -1;
         }
+        return offlineHitBytes.get();
     }
 
-    static void executeCallback(TrackerListener trackerListener, CallbackType callbackType, String message, TrackerListener.HitStatus... hitStatuses) {
-        if (trackerListener != null) {
-            switch (callbackType) {
-                case FIRST_LAUNCH:
-                    trackerListener.trackerNeedsFirstLaunchApproval(message);
-                    break;
-                case BUILD:
-                    trackerListener.buildDidEnd(hitStatuses[0], message);
-                    break;
-                case SEND:
-                    trackerListener.sendDidEnd(hitStatuses[0], message);
-                    break;
-                case PARTNER:
-                    trackerListener.didCallPartner(message);
-                    break;
-                case WARNING:
-                    trackerListener.warningDidOccur(message);
-                    break;
-                case SAVE:
-                    trackerListener.saveDidEnd(message);
-                    break;
-                default://error
-                    trackerListener.errorDidOccur(message);
-                    break;
+    @Override
+    void removeAllOfflineHits() {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return;
+        }
+        synchronized (insertStatement) {
+            synchronized (deleteStatement) {
+                db.delete(HITS_STORAGE_TABLE, null, null);
+                offlineHitCount.set(0);
+                offlineHitBytes.set(0);
             }
         }
     }
 
-    static int getDaysBetweenTimes(long latestTimeMillis, long oldestTimeMillis) {
-        return (int) TimeUnit.DAYS.convert((latestTimeMillis - oldestTimeMillis), TimeUnit.MILLISECONDS);
+    @Override
+    void removeOldOfflineHits(int storageDuration) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return;
+        }
+        String where = DATE + " < " + getMaxOldDate(storageDuration);
+        synchronized (deleteStatement) {
+            Cursor c = db.rawQuery("SELECT COALESCE(SUM(" + SIZE + "), 0) FROM " + HITS_STORAGE_TABLE + " WHERE " + where, null);
+            long deletedBytes = c.moveToFirst() ? c.getLong(0) : 0;
+            c.close();
+            offlineHitCount.addAndGet(-db.delete(HITS_STORAGE_TABLE, where, null));
+            offlineHitBytes.addAndGet(-deletedBytes);
+        }
     }
 
-    static int getSecondsBetweenTimes(long latestTimeMillis, long oldestTimeMillis) {
-        return (int) TimeUnit.SECONDS.convert((latestTimeMillis - oldestTimeMillis), TimeUnit.MILLISECONDS);
+    private void evict() {
+        if (!isOverLimits(offlineHitCount.get(), offlineHitBytes.get())) {
+            return;
+        }
+        synchronized (evictionLock) {
+            int count = offlineHitCount.get();
+            long bytes = offlineHitBytes.get();
+            ArrayList<Long> evictedIds = new ArrayList<>();
+            Cursor c = database.rawQuery("SELECT " + ID + ", " + SIZE + " FROM " + HITS_STORAGE_TABLE + " ORDER BY " +
+                    (isPriorityEviction() ? PRIORITY_ORDER + ", " : "") + DATE + " ASC, " + ID + " ASC", null);
+            try {
+                while (isOverLimits(count, bytes) && c.moveToNext()) {
+                    evictedIds.add(c.getLong(0));
+                    count--;
+                    bytes -= c.getLong(1);
+                }
+            } finally {
+                c.close();
+            }
+            updateHits(evictedIds, Collections.<Long, Integer>emptyMap());
+            onHitsEvicted(evictedIds.size());
+        }
     }
 
-    static String formatNumberLength(String s, int length) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = s.length(); i < length; i++) {
-            sb.append('0');
+    @Override
+    ArrayList<Hit> getOfflineHits() {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return null;
         }
-        return sb.append(s).toString();
+        return readHits(db.rawQuery(SELECT_ALL_QUERY + "ORDER BY " + ID + " ASC", null));
     }
 
-    static boolean isJSON(String s) {
-        if (s == null) {
-            return false;
+    @Override
+    ArrayList<Hit> getOfflineHits(long afterId, int limit) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return null;
         }
+        return readHits(db.rawQuery(SELECT_ALL_QUERY + "WHERE " + ID + " > ? ORDER BY " + ID + " ASC LIMIT " + limit, new String[]{String.valueOf(afterId)}));
+    }
 
-        try {
-            JSONObject obj = new JSONObject(s);
-            return obj.toString().equals(cleanJSONString(s));
-        } catch (JSONException e) {
-            return false;
+    private ArrayList<Hit> readHits(Cursor c) {
+        ArrayList<Hit> hits = new ArrayList<>();
+        if (c == null) {
+            return hits;
+        }
+        if (c.moveToFirst()) {
+            do {
+                long id = c.getLong(0);
+                try {
+                    hits.add(new Hit(id, readHitUrl(c), new Date(c.getLong(5)), c.getInt(6), true));
+                } catch (Exception e) {
+                    Log.e(ATInternet.TAG, "Cannot read stored hit " + id + " : " + e);
+                }
+            }
+            while (c.moveToNext());
         }
+        c.close();
+        return hits;
     }
 
-    static boolean isArray(String s) {
-        if (s == null) {
-            return false;
+    @Override
+    Hit getOldestOfflineHit() {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return null;
         }
+        ArrayList<Hit> hits = readHits(db.rawQuery(SELECT_ALL_QUERY + "ORDER BY " + DATE + " ASC LIMIT 1", null));
+        return hits.isEmpty() ? null : hits.get(0);
+    }
 
-        try {
-            JSONArray array = new JSONArray(s);
-            return array.toString().equals(cleanJSONString(s));
-        } catch (JSONException e) {
-            return false;
+    @Override
+    Hit getLatestOfflineHit() {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return null;
         }
+        ArrayList<Hit> hits = readHits(db.rawQuery(SELECT_ALL_QUERY + "ORDER BY " + DATE + " DESC LIMIT 1", null));
+        return hits.isEmpty() ? null : hits.get(0);
     }
 
-    private static String cleanJSONString(String jsonStr) {
-        return jsonStr.replace("\n", "")
-                .replace("\t", "")
-                .replace("\b", "")
-                .replace("\f", "")
-                .replace(" ", "")
-                .replace("\r", "");
+    @Override
+    void close() {
+        helper.close();
     }
 
-    static Map<String, Object> toMap(JSONObject jsonObject) {
-        Map<String, Object> map = new HashMap<>();
+    @Override
+    String getBackend() {
+        return SQLITE_BACKEND;
+    }
 
-        Iterator<String> keysItr = jsonObject.keys();
-        while (keysItr.hasNext()) {
-            String key = keysItr.next();
-            Object value = null;
-            try {
-                value = jsonObject.get(key);
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-            map.put(key, value);
+    private static final class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context, String databasePath) {
+            super(context, databasePath, null, DATABASE_VERSION);
         }
-        return map;
-    }
 
-    static SparseIntArray sortSparseIntArrayByKey(SparseIntArray arr) {
-        int length = arr.size();
-        int[] keys = new int[length];
-        for (int i = 0; i < length; i++) {
-            keys[i] = arr.keyAt(i);
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL(CREATE_PREFIX_TABLE_QUERY);
+            db.execSQL(CREATE_TABLE_QUERY);
+            db.execSQL(CREATE_DATE_INDEX_QUERY);
         }
 
-        boolean swapped;
-        do {
-            swapped = false;
-            for (int i = 1; i < length - 1; i++) {
-                int k = keys[i - 1];
-                int k1 = keys[i];
-                if (k > k1) {
-                    keys[i - 1] = k1;
-                    keys[i] = k;
-                    swapped = true;
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Version 2 : index sur la date, les hits déjà stockés sont conservés
+            if (oldVersion < 2) {
+                db.execSQL(CREATE_DATE_INDEX_QUERY);
+            }
+            // Version 3 : type et taille des hits pour l'éviction
+            if (oldVersion < 3) {
+                db.execSQL("ALTER TABLE " + HITS_STORAGE_TABLE + " ADD COLUMN " + TYPE + " TEXT NOT NULL DEFAULT ''");
+                db.execSQL("ALTER TABLE " + HITS_STORAGE_TABLE + " ADD COLUMN " + SIZE + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("UPDATE " + HITS_STORAGE_TABLE + " SET " + SIZE + " = LENGTH(CAST(" + HIT + " AS BLOB))");
+            }
+            // Version 4 : enregistrements structurés (préfixe partagé, corps compressé, olt)
+            if (oldVersion < 4) {
+                migrateToStructuredRecords(db);
+            }
+        }
+
+        // Les hits déjà stockés sont recopiés avec leurs identifiants, leur url finale ne change pas
+        private static void migrateToStructuredRecords(SQLiteDatabase db) {
+            String previousTable = HITS_STORAGE_TABLE + "_v3";
+            db.execSQL("DROP INDEX IF EXISTS " + HITS_STORAGE_TABLE + "_" + DATE);
+            db.execSQL("ALTER TABLE " + HITS_STORAGE_TABLE + " RENAME TO " + previousTable);
+            db.execSQL(CREATE_PREFIX_TABLE_QUERY);
+            db.execSQL(CREATE_TABLE_QUERY);
+            db.execSQL(CREATE_DATE_INDEX_QUERY);
+
+            SQLiteStatement insertPrefix = db.compileStatement(INSERT_PREFIX_QUERY);
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + HITS_STORAGE_TABLE + " (" + PREFIX + ", " + BODY + ", " + COMPRESSED + ", " + OLT + ", " + DATE + ", " + RETRY + ", " + TYPE + ", " + SIZE + ", " + ID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            HashMap<String, Long> ids = new HashMap<>();
+            Cursor c = db.rawQuery("SELECT " + ID + ", " + HIT + ", " + DATE + ", " + RETRY + ", " + TYPE + ", " + SIZE + " FROM " + previousTable, null);
+            try {
+                while (c.moveToNext()) {
+                    String hit = c.getString(1);
+                    String prefix = getPrefix(hit);
+                    Long prefixId = ids.get(prefix);
+                    if (prefixId == null) {
+                        insertPrefix.bindString(1, prefix);
+                        prefixId = insertPrefix.executeInsert();
+                        if (prefixId == -1) {
+                            prefixId = queryPrefixId(db, prefix);
+                        }
+                        ids.put(prefix, prefixId);
+                    }
+                    insert.bindLong(1, prefixId);
+                    // olt et cn=offline déjà présents dans le corps : olt laissé vide
+                    bindBody(insert, hit.substring(prefix.length()));
+                    insert.bindNull(4);
+                    insert.bindLong(5, c.getLong(2));
+                    insert.bindLong(6, c.getInt(3));
+                    insert.bindString(7, c.getString(4));
+                    insert.bindLong(8, c.getLong(5));
+                    insert.bindLong(9, c.getLong(0));
+                    insert.executeInsert();
+                    insert.clearBindings();
                 }
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                c.close();
+                insert.close();
+                insertPrefix.close();
             }
-        } while (swapped);
+            // Séquence d'identifiants conservée : un hit supprimé ne voit pas son identifiant réutilisé
+            db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + HITS_STORAGE_TABLE + "'");
+            db.execSQL("UPDATE sqlite_sequence SET name = '" + HITS_STORAGE_TABLE + "' WHERE name = '" + previousTable + "'");
+            db.execSQL("DROP TABLE " + previousTable);
+        }
 
-        SparseIntArray res = new SparseIntArray();
-        for (int k : keys) {
-            res.append(k, arr.get(k));
+        @Override
+        public SQLiteDatabase getReadableDatabase() {
+            try {
+                return super.getReadableDatabase();
+            } catch (Exception e) {
+                Log.e(ATInternet.TAG, "Cannot getReadableDatabase : " + e);
+                return null;
+            }
         }
 
-        return res;
+        @Override
+        public SQLiteDatabase getWritableDatabase() {
+            try {
+                return super.getWritableDatabase();
+            } catch (Exception e) {
+                Log.e(ATInternet.TAG, "Cannot getWritableDatabase : " + e);
+                return null;
+            }
+        }
     }
+}
 
-    static String appendParameterValues(Param param) {
-        StringBuilder result = new StringBuilder();
-
-        if (param == null) {
-            return result.toString();
+final class SegmentLogStorage extends Storage {
+
+    static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String INDEX_FILE = "index";
+    private static final String ENCODING = "UTF-8";
+    // Enregistrement : taille, identifiant, date, priorité d'éviction, hit
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 1;
+    // Entrée d'index : opération, identifiant, valeur
+    private static final int INDEX_ENTRY_SIZE = 1 + 8 + 4;
+    private static final byte ACK = 1;
+    private static final byte RETRY = 2;
+
+    private final File directory;
+    private final TreeMap<Long, Record> records = new TreeMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ATHitLogCompaction");
+            thread.setDaemon(true);
+            return thread;
         }
+    });
+
+    private boolean isOpen;
+    private long nextId = 1;
+    private long hitBytes;
+    private Segment activeSegment;
+    private FileChannel activeChannel;
+    private FileChannel indexChannel;
+
+    private static final class Record {
+        private final Segment segment;
+        private final int position;
+        private final int size;
+        private final long date;
+        private final byte priority;
+        private int retry;
+
+        private Record(Segment segment, int position, int size, long date, byte priority) {
+            this.segment = segment;
+            this.position = position;
+            this.size = size;
+            this.date = date;
+            this.priority = priority;
+        }
+    }
 
-        boolean isFirst = true;
-        for (Closure closure : param.getValues()) {
-            if (isFirst) {
-                result.append(closure.execute());
-                isFirst = false;
-            } else {
-                if (param.getOptions() != null) {
-                    result.append(param.getOptions().getSeparator());
-                } else {
-                    result.append(",");
-                }
-                result.append(closure.execute());
-            }
+    private static final class Segment {
+        private final File file;
+        private final long firstId;
+        private long lastId;
+        private int size;
+        private int liveCount;
+        private MappedByteBuffer buffer;
+
+        private Segment(File file, long firstId) {
+            this.file = file;
+            this.firstId = firstId;
+            this.lastId = firstId - 1;
         }
+    }
 
-        return result.toString();
+    SegmentLogStorage(File directory) {
+        this.directory = directory;
     }
 
-    static String sha256(String s) {
-        String baseString = "AT" + s;
-        StringBuilder sb = new StringBuilder();
+    @Override
+    synchronized ArrayList<String> saveHits(List<String> hits, long time, String oltParameter) {
+        if (!open()) {
+            return null;
+        }
+        ArrayList<String> storedHits = new ArrayList<>(hits.size());
         try {
-            MessageDigest md;
-            md = MessageDigest.getInstance("SHA-256");
-            md.update(baseString.getBytes());
-
-            byte[] byteData = md.digest();
-
-            for (byte aByteData : byteData) {
-                String hex = Integer.toHexString(0xff & aByteData);
-                if (hex.length() == 1) {
-                    sb.append('0');
+            for (String hit : hits) {
+                String storedHit = buildHitToStore(hit, oltParameter);
+                byte[] bytes = storedHit.getBytes(ENCODING);
+                int recordSize = RECORD_HEADER_SIZE + bytes.length;
+                // Segment plein : il est scellé et un nouveau segment est ouvert
+                if (activeSegment.size > 0 && activeSegment.size + recordSize > SEGMENT_SIZE) {
+                    activeChannel.force(false);
+                    activeChannel.close();
+                    openActiveSegment(nextId);
                 }
-                sb.append(hex);
+                byte priority = (byte) getEvictionPriority(getStoredType(hit));
+                ByteBuffer buffer = ByteBuffer.allocate(recordSize);
+                buffer.putInt(recordSize).putLong(nextId).putLong(time).put(priority).put(bytes);
+                buffer.flip();
+                writeFully(activeChannel, buffer);
+
+                records.put(nextId, new Record(activeSegment, activeSegment.size, bytes.length, time, priority));
+                hitBytes += bytes.length;
+                activeSegment.lastId = nextId;
+                activeSegment.size += recordSize;
+                activeSegment.liveCount++;
+                nextId++;
+                storedHits.add(storedHit);
             }
-        } catch (Exception e) {
-            Log.e(ATInternet.TAG, e.toString());
+            activeChannel.force(false);
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, "Cannot save hits : " + e);
+            close();
+            return null;
         }
-        return sb.toString();
-    }
-
-    static Drawable getResizedImage(int imageID, android.content.Context context, int width, int height) {
-        Bitmap b = BitmapFactory.decodeResource(context.getResources(), imageID);
-        Bitmap bitmapResized = Bitmap.createScaledBitmap(b, width, height, false);
-        return new BitmapDrawable(context.getResources(), bitmapResized);
+        evict();
+        return storedHits;
     }
 
-    static void setVisibleViewWithAnimation(View view, boolean visible) {
-        AlphaAnimation animation;
-        if (visible) {
-            view.setVisibility(View.VISIBLE);
-            animation = new AlphaAnimation(0.F, 1.F);
-        } else {
-            view.setVisibility(View.GONE);
-            animation = new AlphaAnimation(1.F, 0.F);
+    @Override
+    synchronized void updateHits(List<Long> deletedIds, Map<Long, Integer> retries) {
+        if ((deletedIds.isEmpty() && retries.isEmpty()) || !open()) {
+            return;
         }
-        animation.setDuration(400);
-        view.startAnimation(animation);
-    }
-
-    static LinkedHashMap<String, String> getParameters(String hit) {
-        LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        ByteBuffer buffer = ByteBuffer.allocate((deletedIds.size() + retries.size()) * INDEX_ENTRY_SIZE);
+        for (Map.Entry<Long, Integer> entry : retries.entrySet()) {
+            buffer.put(RETRY).putLong(entry.getKey()).putInt(entry.getValue());
+        }
+        for (long id : deletedIds) {
+            buffer.put(ACK).putLong(id).putInt(0);
+        }
+        buffer.flip();
         try {
-            URL url = new URL(hit);
-            map.put("ssl", "http".equals(url.getProtocol()) ? "Off" : "On");
-            map.put("log", url.getHost());
-            String[] queryComponents = url.getQuery().split("&");
-            for (String queryComponent : queryComponents) {
-                String[] elem = queryComponent.split("=");
-                if (elem.length <= 1) {
-                    map.put(elem[0], "");
-                    continue;
-                }
-
-                elem[1] = Tool.percentDecode(elem[1]);
-                if (elem[0].equals(Hit.HitParam.JSON.stringValue())) {
-                    map.put(elem[0], new JSONObject(elem[1]).toString(3));
-                } else {
-                    map.put(elem[0], elem[1]);
-                }
+            writeFully(indexChannel, buffer);
+            indexChannel.force(false);
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, "Cannot update hits : " + e);
+            close();
+            return;
+        }
+        for (Map.Entry<Long, Integer> entry : retries.entrySet()) {
+            Record record = records.get(entry.getKey());
+            if (record != null) {
+                record.retry = entry.getValue();
             }
-        } catch (Exception e) {
-            Log.e(ATInternet.TAG, e.toString());
         }
-        return map;
+        boolean hasEmptySegment = false;
+        for (long id : deletedIds) {
+            hasEmptySegment |= acknowledge(id);
+        }
+        if (hasEmptySegment) {
+            scheduleCompaction();
+        }
     }
 
-    @SuppressWarnings("deprecation")
-    @SuppressLint("deprecation")
-    @TargetApi(23)
-    static int getColor(android.content.Context context, int colorId) {
-        if (Build.VERSION.SDK_INT >= 23) {
-            return context.getResources().getColor(colorId, null);
-        } else {
-            return context.getResources().getColor(colorId);
+    @Override
+    synchronized int getCountOfflineHits() {
+        if (!open()) {
+            return -1;
         }
+        return records.size();
     }
 
-    static void runOnMainThread(Activity act, Runnable r) {
-        if (Looper.myLooper() == Looper.getMainLooper()) {
-            r.run();
-        } else {
-            act.runOnUiThread(r);
+    @Override
+    synchronized long getSizeOfflineHits() {
+        if (!open()) {
+            return -1;
         }
+        return hitBytes;
     }
-}
-
-final class Storage extends SQLiteOpenHelper {
-
-    private static final int DATABASE_VERSION = 1;
-    private static final String HITS_STORAGE_TABLE = "StoredOfflineHit";
-    private static final String ID = "id";
-    private static final String HIT = "hit";
-    private static final String RETRY = "retry";
-    private static final String DATE = "date";
-    private static final String SELECT_ALL_QUERY = "SELECT * FROM " + HITS_STORAGE_TABLE + " ";
-    private static final String CREATE_TABLE_QUERY =
-            "CREATE TABLE IF NOT EXISTS " + HITS_STORAGE_TABLE + " (" +
-                    ID + " INTEGER PRIMARY KEY AUTOINCREMENT , " +
-                    HIT + " TEXT NOT NULL , " +
-                    DATE + " INTEGER NOT NULL , " +
-                    RETRY + " INTEGER NOT NULL);";
-
-
-    private static final boolean INITIALIZED = true;
-    private static Storage instance;
-    private static String databasePath;
 
-    private Storage(Context context) {
-        super(context, databasePath, null, DATABASE_VERSION);
+    @Override
+    synchronized void removeAllOfflineHits() {
+        if (!open()) {
+            return;
+        }
+        // L'identifiant suivant est conservé dans le nom du nouveau segment
+        close();
+        for (Segment segment : segments.values()) {
+            deleteFile(segment.file);
+        }
+        deleteFile(new File(directory, INDEX_FILE));
+        segments.clear();
+        records.clear();
+        hitBytes = 0;
+        try {
+            openActiveSegment(nextId);
+            openIndex();
+            isOpen = true;
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, "Cannot reset hit log : " + e);
+            close();
+        }
     }
 
-    static Storage getInstance(Context context) {
-        if (instance == null) {
-            if (TextUtils.isEmpty(databasePath)) {
-                databasePath = "TrackerDatabase";
+    @Override
+    synchronized void removeOldOfflineHits(int storageDuration) {
+        if (!open()) {
+            return;
+        }
+        long maxOldDate = getMaxOldDate(storageDuration);
+        ArrayList<Long> expiredIds = new ArrayList<>();
+        for (Map.Entry<Long, Record> entry : records.entrySet()) {
+            if (entry.getValue().date < maxOldDate) {
+                expiredIds.add(entry.getKey());
             }
-            instance = new Storage(context);
         }
-        return instance;
+        updateHits(expiredIds, Collections.<Long, Integer>emptyMap());
     }
 
-    static void setDatabasePath(String path) {
-        if (!INITIALIZED) {
-            databasePath = path;
-        } else {
-            Log.w(ATInternet.TAG, "Changing path when database is already INITIALIZED");
-        }
+    @Override
+    synchronized ArrayList<Hit> getOfflineHits() {
+        return getOfflineHits(0, Integer.MAX_VALUE);
     }
 
-    static String getDatabasePath() {
-        return databasePath;
+    @Override
+    synchronized ArrayList<Hit> getOfflineHits(long afterId, int limit) {
+        if (!open()) {
+            return null;
+        }
+        ArrayList<Hit> hits = new ArrayList<>();
+        for (Map.Entry<Long, Record> entry : records.tailMap(afterId, false).entrySet()) {
+            if (hits.size() >= limit) {
+                break;
+            }
+            Hit hit = readHit(entry.getKey(), entry.getValue());
+            if (hit != null) {
+                hits.add(hit);
+            }
+        }
+        return hits;
     }
 
     @Override
-    public void onCreate(SQLiteDatabase db) {
-        db.execSQL(CREATE_TABLE_QUERY);
+    synchronized Hit getOldestOfflineHit() {
+        return getBoundaryHit(true);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + HITS_STORAGE_TABLE);
-        onCreate(db);
+    synchronized Hit getLatestOfflineHit() {
+        return getBoundaryHit(false);
     }
 
-    String saveHit(String hit, long time, String oltParameter) {
-        hit = buildHitToStore(hit, oltParameter);
-        ContentValues values = new ContentValues();
-        values.put(HIT, hit);
-        values.put(RETRY, 0);
-        values.put(DATE, time);
-        SQLiteDatabase db = getWritableDatabase();
-        if (db == null) {
-            return null;
+    @Override
+    synchronized void close() {
+        closeQuietly(activeChannel);
+        closeQuietly(indexChannel);
+        activeChannel = null;
+        indexChannel = null;
+        for (Segment segment : segments.values()) {
+            segment.buffer = null;
         }
-        db.insert(HITS_STORAGE_TABLE, null, values);
-        db.close();
-        return hit;
+        isOpen = false;
     }
 
-    void deleteHit(String hit) {
-        SQLiteDatabase db = getWritableDatabase();
-        if (db == null) {
+    @Override
+    String getBackend() {
+        return SEGMENT_LOG_BACKEND;
+    }
+
+    // Suppression des segments entièrement acquittés et réécriture de l'index
+    synchronized void compact() {
+        if (!open()) {
             return;
         }
-        db.delete(HITS_STORAGE_TABLE, HIT + "='" + hit + "'", null);
-        db.close();
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.liveCount == 0 && segment != activeSegment) {
+                segment.buffer = null;
+                deleteFile(segment.file);
+                iterator.remove();
+            }
+        }
+        try {
+            rewriteIndex();
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, "Cannot compact hit log : " + e);
+            close();
+        }
     }
 
-    String buildHitToStore(String hit, String olt) {
-        String[] hitComponents = hit.split("&");
-        StringBuilder newHitBuilder = new StringBuilder(hitComponents[0]);
-
-        for (int i = 1; i < hitComponents.length; i++) {
-            String[] parameterComponents = hitComponents[i].split("=");
+    int getSegmentCount() {
+        return segments.size();
+    }
 
-            if ("cn".equals(parameterComponents[0])) {
-                newHitBuilder.append("&cn=offline");
+    private boolean open() {
+        if (isOpen) {
+            return true;
+        }
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            segments.clear();
+            records.clear();
+            hitBytes = 0;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(SEGMENT_EXTENSION)) {
+                        long firstId = Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+                        segments.put(firstId, new Segment(file, firstId));
+                    }
+                }
+            }
+            nextId = 1;
+            for (Segment segment : segments.values()) {
+                loadSegment(segment);
+                nextId = Math.max(nextId, Math.max(segment.firstId, segment.lastId + 1));
+            }
+            loadIndex();
+
+            Map.Entry<Long, Segment> last = segments.lastEntry();
+            if (last != null && last.getValue().size < SEGMENT_SIZE) {
+                activeSegment = last.getValue();
+                activeChannel = new RandomAccessFile(activeSegment.file, "rw").getChannel();
+                // Un enregistrement incomplet (écriture interrompue) est tronqué
+                activeChannel.truncate(activeSegment.size);
+                activeChannel.position(activeSegment.size);
             } else {
-                newHitBuilder.append('&').append(hitComponents[i]);
+                openActiveSegment(nextId);
+            }
+            openIndex();
+            isOpen = true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(ATInternet.TAG, "Cannot open hit log : " + e);
+            close();
+            return false;
+        }
+        for (Segment segment : segments.values()) {
+            if (segment.liveCount == 0 && segment != activeSegment) {
+                scheduleCompaction();
+                break;
             }
+        }
+        return true;
+    }
 
-            if ("ts".equals(parameterComponents[0]) || "mh".equals(parameterComponents[0])) {
-                newHitBuilder.append("&olt=").append(olt);
+    private void loadSegment(Segment segment) throws IOException {
+        ByteBuffer buffer = map(segment);
+        int position = 0;
+        while (buffer.limit() - position >= RECORD_HEADER_SIZE) {
+            int recordSize = buffer.getInt(position);
+            if (recordSize < RECORD_HEADER_SIZE || recordSize > buffer.limit() - position) {
+                break;
             }
+            long id = buffer.getLong(position + 4);
+            long date = buffer.getLong(position + 12);
+            byte priority = buffer.get(position + 20);
+            records.put(id, new Record(segment, position, recordSize - RECORD_HEADER_SIZE, date, priority));
+            hitBytes += recordSize - RECORD_HEADER_SIZE;
+            segment.lastId = id;
+            segment.liveCount++;
+            position += recordSize;
         }
-        return newHitBuilder.toString();
+        segment.size = position;
     }
 
-    void updateRetry(String hit, int retry) {
-        ContentValues values = new ContentValues();
-        values.put(RETRY, retry);
-        SQLiteDatabase db = getWritableDatabase();
-        if (db == null) {
+    private void loadIndex() throws IOException {
+        File file = new File(directory, INDEX_FILE);
+        if (!file.exists()) {
             return;
         }
-        db.update(HITS_STORAGE_TABLE, values, HIT + "='" + hit + "'", null);
-        db.close();
+        RandomAccessFile indexFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = indexFile.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= INDEX_ENTRY_SIZE) {
+                byte operation = buffer.get();
+                long id = buffer.getLong();
+                int value = buffer.getInt();
+                if (operation == ACK) {
+                    acknowledge(id);
+                } else if (operation == RETRY) {
+                    Record record = records.get(id);
+                    if (record != null) {
+                        record.retry = value;
+                    }
+                }
+            }
+        } finally {
+            indexFile.close();
+        }
     }
 
-    int getCountOfflineHits() {
-        int result = -1;
-        SQLiteDatabase db = getReadableDatabase();
-        if (db == null) {
-            return result;
+    private void openActiveSegment(long firstId) throws IOException {
+        Segment segment = new Segment(new File(directory, firstId + SEGMENT_EXTENSION), firstId);
+        activeChannel = new RandomAccessFile(segment.file, "rw").getChannel();
+        segments.put(firstId, segment);
+        activeSegment = segment;
+    }
+
+    private void openIndex() throws IOException {
+        indexChannel = new RandomAccessFile(new File(directory, INDEX_FILE), "rw").getChannel();
+        long size = indexChannel.size() - indexChannel.size() % INDEX_ENTRY_SIZE;
+        indexChannel.truncate(size);
+        indexChannel.position(size);
+    }
+
+    private void rewriteIndex() throws IOException {
+        // Seuls les acquittements des segments conservés et les tentatives en cours sont réécrits
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        for (Segment segment : segments.values()) {
+            for (long id = segment.firstId; id <= segment.lastId; id++) {
+                Record record = records.get(id);
+                if (record == null) {
+                    entry.clear();
+                    entry.put(ACK).putLong(id).putInt(0);
+                    output.write(entry.array(), 0, INDEX_ENTRY_SIZE);
+                } else if (record.retry > 0) {
+                    entry.clear();
+                    entry.put(RETRY).putLong(id).putInt(record.retry);
+                    output.write(entry.array(), 0, INDEX_ENTRY_SIZE);
+                }
+            }
         }
-        Cursor c = db.rawQuery(SELECT_ALL_QUERY, null);
-        if (c != null) {
-            result = c.getCount();
-            c.close();
+        File temporaryFile = new File(directory, INDEX_FILE + ".tmp");
+        RandomAccessFile file = new RandomAccessFile(temporaryFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            writeFully(channel, ByteBuffer.wrap(output.toByteArray()));
+            channel.force(false);
+        } finally {
+            file.close();
         }
-        db.close();
-        return result;
+        closeQuietly(indexChannel);
+        if (!temporaryFile.renameTo(new File(directory, INDEX_FILE))) {
+            throw new IOException("Cannot replace hit log index");
+        }
+        openIndex();
     }
 
-    void removeAllOfflineHits() {
-        SQLiteDatabase db = getWritableDatabase();
-        if (db == null) {
-            return;
+    private boolean acknowledge(long id) {
+        Record record = records.remove(id);
+        if (record == null) {
+            return false;
         }
-        db.delete(HITS_STORAGE_TABLE, null, null);
-        db.close();
+        hitBytes -= record.size;
+        record.segment.liveCount--;
+        return record.segment.liveCount == 0 && record.segment != activeSegment;
     }
 
-    void removeOldOfflineHits(int storageDuration) {
-        SQLiteDatabase db = getWritableDatabase();
-        if (db == null) {
+    private void evict() {
+        if (!isOverLimits(records.size(), hitBytes)) {
             return;
         }
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(new Date());
-        cal.add(Calendar.DATE, -storageDuration);
-        long maxOldDate = cal.getTime().getTime();
-        db.delete(HITS_STORAGE_TABLE, DATE + " < " + maxOldDate, null);
-        db.close();
+        // Parcours par priorité croissante puis par ordre d'insertion
+        int count = records.size();
+        long bytes = hitBytes;
+        ArrayList<Long> evictedIds = new ArrayList<>();
+        int lastPriority = isPriorityEviction() ? HIGH_PRIORITY : LOW_PRIORITY;
+        for (int priority = LOW_PRIORITY; priority <= lastPriority && isOverLimits(count, bytes); priority++) {
+            for (Map.Entry<Long, Record> entry : records.entrySet()) {
+                if (!isOverLimits(count, bytes)) {
+                    break;
+                }
+                Record record = entry.getValue();
+                if (!isPriorityEviction() || record.priority == priority) {
+                    evictedIds.add(entry.getKey());
+                    count--;
+                    bytes -= record.size;
+                }
+            }
+        }
+        updateHits(evictedIds, Collections.<Long, Integer>emptyMap());
+        onHitsEvicted(evictedIds.size());
     }
 
-    ArrayList<Hit> getOfflineHits() {
-        SQLiteDatabase db = getReadableDatabase();
-        if (db == null) {
+    private Hit getBoundaryHit(boolean oldest) {
+        if (!open()) {
             return null;
         }
-        ArrayList<Hit> hits = new ArrayList<>();
-        Cursor c = db.rawQuery(SELECT_ALL_QUERY + "ORDER BY " + ID + " ASC", null);
-        if (c != null && c.getCount() > 0) {
-            c.moveToFirst();
-            do {
-                String hit = c.getString(c.getColumnIndex(HIT));
-                String time = c.getString(c.getColumnIndex(DATE));
-                int retry = c.getInt(c.getColumnIndex(RETRY));
-                hits.add(new Hit(hit, new Date(Long.parseLong(time)), retry, true));
+        Map.Entry<Long, Record> boundary = null;
+        for (Map.Entry<Long, Record> entry : records.entrySet()) {
+            long date = entry.getValue().date;
+            if (boundary == null || (oldest ? date < boundary.getValue().date : date > boundary.getValue().date)) {
+                boundary = entry;
             }
-            while (c.moveToNext());
-            c.close();
         }
-        db.close();
-        return hits;
+        return boundary != null ? readHit(boundary.getKey(), boundary.getValue()) : null;
     }
 
-    Hit getOldestOfflineHit() {
-        SQLiteDatabase db = getReadableDatabase();
-        if (db == null) {
+    private Hit readHit(long id, Record record) {
+        try {
+            ByteBuffer buffer = map(record.segment);
+            int recordSize = buffer.getInt(record.position);
+            byte[] bytes = new byte[recordSize - RECORD_HEADER_SIZE];
+            ByteBuffer view = buffer.duplicate();
+            view.position(record.position + RECORD_HEADER_SIZE);
+            view.get(bytes);
+            return new Hit(id, new String(bytes, ENCODING), new Date(record.date), record.retry, true);
+        } catch (IOException e) {
+            Log.e(ATInternet.TAG, "Cannot read hit : " + e);
             return null;
         }
-        Cursor c = db.rawQuery(SELECT_ALL_QUERY + "WHERE " + DATE + " = (SELECT MIN(" + DATE + ") FROM " + HITS_STORAGE_TABLE + " )", null);
-        if (c != null && c.moveToFirst()) {
-            String hit = c.getString(c.getColumnIndex(HIT));
-            String time = c.getString(c.getColumnIndex(DATE));
-            int retry = c.getInt(c.getColumnIndex(RETRY));
-            if (hit != null && time != null) {
-                c.close();
-                db.close();
-                return new Hit(hit, new Date(Long.parseLong(time)), retry, true);
+    }
+
+    private ByteBuffer map(Segment segment) throws IOException {
+        // Segment projeté en mémoire, projeté de nouveau si le segment actif a grandi
+        long size = segment.file.length();
+        if (segment.buffer == null || segment.buffer.capacity() < size) {
+            RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+            try {
+                segment.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } finally {
+                file.close();
             }
-            c.close();
         }
-        db.close();
-        return null;
+        return segment.buffer;
     }
 
-    Hit getLatestOfflineHit() {
-        SQLiteDatabase db = getReadableDatabase();
-        if (db == null) {
-            return null;
-        }
-        Cursor c = db.rawQuery(SELECT_ALL_QUERY + "WHERE " + DATE + " = (SELECT MAX(" + DATE + ") FROM " + HITS_STORAGE_TABLE + " )", null);
-        if (c != null && c.moveToFirst()) {
-            String hit = c.getString(c.getColumnIndex(HIT));
-            String time = c.getString(c.getColumnIndex(DATE));
-            int retry = c.getInt(c.getColumnIndex(RETRY));
-            if (hit != null && time != null) {
-                c.close();
-                db.close();
-                return new Hit(hit, new Date(Long.parseLong(time)), retry, true);
+    private void scheduleCompaction() {
+        compactionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
             }
-            c.close();
+        });
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
-        db.close();
-        return null;
     }
 
-    @Override
-    public SQLiteDatabase getReadableDatabase() {
-        try {
-            return super.getReadableDatabase();
-        } catch (Exception e) {
-            Log.e(ATInternet.TAG, "Cannot getReadableDatabase : " + e);
-            return null;
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(ATInternet.TAG, "Cannot delete " + file);
         }
     }
 
-    @Override
-    public SQLiteDatabase getWritableDatabase() {
-        try {
-            return super.getWritableDatabase();
-        } catch (Exception e) {
-            Log.e(ATInternet.TAG, "Cannot getWritableDatabase : " + e);
-            return null;
+    static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(ATInternet.TAG, e.toString());
+            }
         }
     }
 }
@@ -33,9 +33,6 @@ import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -135,23 +132,20 @@ class CrashDetectionHandler implements Thread.UncaughtExceptionHandler {
      * @return Closure
      */
     static Closure getCrashInformation(final SharedPreferences preferences) {
-        return new Closure() {
+        return new JSONClosure() {
             @Override
-            public String execute() {
+            Map<String, ?> executeJSON() {
+                Map<String, Object> json = new LinkedHashMap<>();
                 if (!preferences.getBoolean(CRASH_DETECTION, false)) {
-                    return new JSONObject().toString();
+                    return json;
                 }
                 LinkedHashMap<String, String> map = new LinkedHashMap<>();
                 map.put("lastscreen", preferences.getString(CRASH_LAST_SCREEN, ""));
                 map.put("classname", preferences.getString(CRASH_CLASS_CAUSE, ""));
                 map.put("error", preferences.getString(CRASH_EXCEPTION_NAME, ""));
                 preferences.edit().putBoolean(CRASH_DETECTION, false).apply();
-                try {
-                    return new JSONObject().put("crash", new JSONObject(map)).toString();
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-                return new JSONObject().toString();
+                json.put("crash", map);
+                return json;
             }
         };
     }
@@ -392,36 +386,12 @@ final class LifeCycle {
      * @return Closure
      */
     static Closure getMetrics(final SharedPreferences preferences) {
-        return new Closure() {
+        return new JSONClosure() {
             @Override
-            public String execute() {
-                try {
-                    SimpleDateFormat simpleDateFormat = new SimpleDateFormat(DATE_FORMAT, Locale.ENGLISH);
-                    LinkedHashMap<String, Object> map = new LinkedHashMap<>();
-
-                    // fs
-                    map.put("fs", preferences.getBoolean(FIRST_SESSION, false) ? 1 : 0);
-
-                    // fsau
-                    map.put("fsau", preferences.getBoolean(FIRST_SESSION_AFTER_UPDATE, false) ? 1 : 0);
-
-                    if (!TextUtils.isEmpty(preferences.getString(FIRST_SESSION_DATE_AFTER_UPDATE, ""))) {
-                        map.put("scsu", preferences.getInt(SESSION_COUNT_SINCE_UPDATE, 0));
-                        map.put("fsdau", Integer.parseInt(preferences.getString(FIRST_SESSION_DATE_AFTER_UPDATE, simpleDateFormat.format(new Date()))));
-                        map.put("dsu", preferences.getInt(DAYS_SINCE_UPDATE, 0));
-                    }
-
-                    map.put("sc", preferences.getInt(SESSION_COUNT, 0));
-                    map.put("fsd", Integer.parseInt(preferences.getString(FIRST_SESSION_DATE, simpleDateFormat.format(new Date()))));
-                    map.put("dsls", preferences.getInt(DAYS_SINCE_LAST_SESSION, 0));
-                    map.put("dsfs", preferences.getInt(DAYS_SINCE_FIRST_SESSION, 0));
-                    map.put("sessionId", sessionId);
-
-                    return new JSONObject().put("lifecycle", new JSONObject(map)).toString();
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-                return "";
+            Map<String, ?> executeJSON() {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("lifecycle", getMetricsMap(preferences));
+                return json;
             }
         };
     }
@@ -725,7 +725,7 @@ public final class Debugger extends GestureDetector.SimpleOnGestureListener impl
             removeOfflineHit.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    Storage.getInstance(Tracker.getAppContext()).deleteHit(offlineHit.getUrl());
+                    Storage.getInstance(Tracker.getAppContext()).deleteHit(offlineHit.getId());
                     notifyDataSetChanged();
                     noOfflineHitsLayout.setVisibility(offlineHits.isEmpty() ? View.VISIBLE : View.GONE);
                 }
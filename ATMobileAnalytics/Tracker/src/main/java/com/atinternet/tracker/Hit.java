@@ -25,7 +25,7 @@ package com.atinternet.tracker;
 import android.text.TextUtils;
 
 import java.util.Date;
-import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Class to provide hit information
@@ -208,6 +208,7 @@ public class Hit {
     }
 
     private final String url;
+    private long id;
     private Date date;
     private int retry;
     private boolean isOffline;
@@ -219,6 +220,7 @@ public class Hit {
      */
     public Hit(String url) {
         this.url = url;
+        id = -1;
         date = null;
         retry = -1;
         isOffline = false;
@@ -239,6 +241,11 @@ public class Hit {
         this.isOffline = isOffline;
     }
 
+    Hit(long id, String url, Date date, int retry, boolean isOffline) {
+        this(url, date, retry, isOffline);
+        this.id = id;
+    }
+
     /**
      * Get the hit
      *
@@ -248,6 +255,15 @@ public class Hit {
         return url;
     }
 
+    /**
+     * Get the storage identifier
+     *
+     * @return the identifier, -1 if hit does not come from storage
+     */
+    long getId() {
+        return id;
+    }
+
     /**
      * Get the hit date
      *
@@ -275,19 +291,20 @@ public class Hit {
         return isOffline;
     }
 
-    static HitType getHitType(final LinkedHashMap<String, Param> volatileParams, final LinkedHashMap<String, Param> persistentParams) {
-        LinkedHashMap<String, Param> buffer = new LinkedHashMap<>();
-        buffer.putAll(volatileParams);
-        buffer.putAll(persistentParams);
-
+    static HitType getHitType(final Map<String, Param> volatileParams, final Map<String, Param> persistentParams) {
         HitType type = HitType.Screen;
 
-        if (buffer.containsKey("clic") || buffer.containsKey("click")) {
+        if (volatileParams.containsKey("clic") || volatileParams.containsKey("click")
+                || persistentParams.containsKey("clic") || persistentParams.containsKey("click")) {
             type = HitType.Touch;
         }
 
-        Param typeParam;
-        if ((typeParam = buffer.get("type")) != null) {
+        // Lecture directe des deux tables, les paramètres persistants restant prioritaires
+        Param typeParam = persistentParams.get("type");
+        if (typeParam == null) {
+            typeParam = volatileParams.get("type");
+        }
+        if (typeParam != null) {
             HitType typeVal;
             if ((typeVal = Lists.getProcessedTypes().get(typeParam.getValues().get(0).execute())) != null) {
                 type = typeVal;
@@ -0,0 +1,225 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface to implement to deliver hits to the collection servers
+ */
+public interface HitTransport {
+
+    /**
+     * Send a request
+     *
+     * @param request the request to send
+     * @return the collection server response
+     * @throws IOException if the request could not be sent
+     */
+    Response send(Request request) throws IOException;
+
+    /**
+     * Request sent by a transport
+     */
+    class Request {
+
+        private static final String GET = "GET";
+        private static final String POST = "POST";
+        private static final int DEFAULT_TIMEOUT = 15000;
+
+        private final String method;
+        private final String url;
+        private final byte[] body;
+        private final String contentType;
+        private int timeout = DEFAULT_TIMEOUT;
+        // Connexion en cours d'utilisation, fermée si la requête est annulée
+        private Closeable connection;
+        private boolean isCancelled;
+
+        /**
+         * Create a GET request
+         *
+         * @param url the full hit url
+         */
+        public Request(String url) {
+            this(GET, url, null, null);
+        }
+
+        /**
+         * Create a POST request
+         *
+         * @param url         the endpoint url
+         * @param body        the request body
+         * @param contentType the body content type
+         */
+        public Request(String url, byte[] body, String contentType) {
+            this(POST, url, body, contentType);
+        }
+
+        private Request(String method, String url, byte[] body, String contentType) {
+            this.method = method;
+            this.url = url;
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Get the HTTP method
+         *
+         * @return GET or POST
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Get the url
+         *
+         * @return the url
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Get the body
+         *
+         * @return the body, null for GET requests
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Get the body content type
+         *
+         * @return the content type, null for GET requests
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Get the connect and read timeout
+         *
+         * @return the timeout in milliseconds
+         */
+        public int getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * Set the connect and read timeout
+         *
+         * @param timeout the timeout in milliseconds
+         * @return Request instance
+         */
+        public Request setTimeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        Request copy() {
+            return new Request(method, url, body, contentType).setTimeout(timeout);
+        }
+
+        synchronized boolean attach(Closeable connection) {
+            if (isCancelled) {
+                return false;
+            }
+            this.connection = connection;
+            return true;
+        }
+
+        synchronized void detach(Closeable connection) {
+            if (this.connection == connection) {
+                this.connection = null;
+            }
+        }
+
+        synchronized void cancel() {
+            isCancelled = true;
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    Log.e(ATInternet.TAG, e.toString());
+                }
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Response returned by a transport
+     */
+    class Response {
+
+        private final int statusCode;
+        private final String message;
+        private final byte[] body;
+
+        /**
+         * Create a response
+         *
+         * @param statusCode the HTTP status code
+         * @param message    the HTTP status message
+         * @param body       the response body
+         */
+        public Response(int statusCode, String message, byte[] body) {
+            this.statusCode = statusCode;
+            this.message = message;
+            this.body = body != null ? body : new byte[0];
+        }
+
+        /**
+         * Get the HTTP status code
+         *
+         * @return the status code
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * Get the HTTP status message
+         *
+         * @return the status message
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Get the response body
+         *
+         * @return the body, empty if none
+         */
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Transport sending hits on keep-alive connections shared by all trackers (HttpURLConnection behind a proxy)
+ */
+public class HttpHitTransport implements HitTransport {
+
+    private static final int BUFFER_SIZE = 512;
+    private static final int HTTP_ERROR = 400;
+
+    @Override
+    public Response send(Request request) throws IOException {
+        URL url = new URL(request.getUrl());
+        if (!HitConnectionPool.isDirect(url)) {
+            return sendWithUrlConnection(url, request);
+        }
+
+        HitConnectionPool connectionPool = HitConnectionPool.getInstance();
+        HttpConnection connection = connectionPool.acquire(url, request.getTimeout());
+        try {
+            if (!request.attach(connection)) {
+                throw new InterruptedIOException("Request cancelled");
+            }
+            // La réponse est lue entièrement avant que la connexion soit rendue au pool
+            Response response = connection.exchange(request);
+            request.detach(connection);
+            connectionPool.release(connection);
+            connection = null;
+            return response;
+        } finally {
+            if (connection != null) {
+                request.detach(connection);
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    private static Response sendWithUrlConnection(URL url, Request request) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        Closeable cancellation = new Closeable() {
+            @Override
+            public void close() {
+                connection.disconnect();
+            }
+        };
+        boolean isCompleted = false;
+        try {
+            if (!request.attach(cancellation)) {
+                throw new InterruptedIOException("Request cancelled");
+            }
+            connection.setReadTimeout(request.getTimeout());
+            connection.setConnectTimeout(request.getTimeout());
+            byte[] body = request.getBody();
+            if (body != null) {
+                connection.setRequestMethod(request.getMethod());
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", request.getContentType());
+                connection.setFixedLengthStreamingMode(body.length);
+                OutputStream outputStream = connection.getOutputStream();
+                outputStream.write(body);
+                outputStream.close();
+            } else {
+                connection.connect();
+            }
+
+            int statusCode = connection.getResponseCode();
+            String message = connection.getResponseMessage();
+            byte[] responseBody = readBody(statusCode >= HTTP_ERROR ? connection.getErrorStream() : connection.getInputStream());
+            isCompleted = true;
+            return new Response(statusCode, message, responseBody);
+        } finally {
+            request.detach(cancellation);
+            if (!isCompleted) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static byte[] readBody(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (inputStream != null) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            inputStream.close();
+        }
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transport recording hits in memory without any I/O (tests and benchmarks)
+ */
+public class InMemoryHitTransport implements HitTransport {
+
+    private static final int STATUS_OK = 200;
+
+    private final ArrayList<Request> requests = new ArrayList<>();
+    private final int statusCode;
+
+    /**
+     * Create a transport answering every request with a 200 status code
+     */
+    public InMemoryHitTransport() {
+        this(STATUS_OK);
+    }
+
+    /**
+     * Create a transport answering every request with the given status code
+     *
+     * @param statusCode the HTTP status code returned
+     */
+    public InMemoryHitTransport(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    @Override
+    public Response send(Request request) {
+        synchronized (requests) {
+            requests.add(request);
+        }
+        return new Response(statusCode, statusCode == STATUS_OK ? "OK" : "Error", null);
+    }
+
+    /**
+     * Get recorded requests
+     *
+     * @return a copy of recorded requests, in sending order
+     */
+    public List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    /**
+     * Get the count of recorded requests
+     *
+     * @return the count of recorded requests
+     */
+    public int getCount() {
+        synchronized (requests) {
+            return requests.size();
+        }
+    }
+
+    /**
+     * Remove all recorded requests
+     */
+    public void clear() {
+        synchronized (requests) {
+            requests.clear();
+        }
+    }
+}
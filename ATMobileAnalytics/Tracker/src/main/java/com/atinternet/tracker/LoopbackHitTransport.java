@@ -0,0 +1,214 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport sending hits over a persistent HTTP/1.1 connection to a local socket server.
+ * Without port, an embedded server acknowledging every hit is started on the loopback interface.
+ */
+public class LoopbackHitTransport implements HitTransport {
+
+    private static final String HOST = "127.0.0.1";
+    private static final String CRLF = "\r\n";
+    private static final String CONTENT_LENGTH = "content-length";
+
+    private final int port;
+    private final Server server;
+    private HttpConnection connection;
+
+    /**
+     * Create a transport with its own embedded loopback server
+     *
+     * @throws IOException if the server could not be started
+     */
+    public LoopbackHitTransport() throws IOException {
+        server = new Server();
+        port = server.getPort();
+    }
+
+    /**
+     * Create a transport talking to a server listening on the loopback interface
+     *
+     * @param port the server port
+     */
+    public LoopbackHitTransport(int port) {
+        this.server = null;
+        this.port = port;
+    }
+
+    /**
+     * Get the server port
+     *
+     * @return the server port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the count of requests received by the embedded server
+     *
+     * @return the count of requests received, 0 when an external server is used
+     */
+    public int getReceivedCount() {
+        return server != null ? server.getReceivedCount() : 0;
+    }
+
+    @Override
+    public synchronized Response send(Request request) throws IOException {
+        try {
+            return exchange(request);
+        } catch (IOException e) {
+            closeConnection();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the connection and stop the embedded server
+     */
+    public synchronized void close() {
+        closeConnection();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private Response exchange(Request request) throws IOException {
+        if (connection == null) {
+            connection = HttpConnection.open(new URL("http", HOST, port, "/"), request.getTimeout());
+        }
+        Response response = connection.exchange(request);
+        if (!connection.isReusable()) {
+            closeConnection();
+        }
+        return response;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    private static final class Server implements Runnable {
+
+        private static final byte[] RESPONSE = ("HTTP/1.1 200 OK" + CRLF + "Content-Length: 0" + CRLF + CRLF).getBytes();
+
+        private final ServerSocket serverSocket;
+        private final AtomicInteger receivedCount = new AtomicInteger();
+
+        Server() throws IOException {
+            serverSocket = new ServerSocket(0, 0, InetAddress.getByName(HOST));
+            Thread thread = new Thread(this, "ATLoopbackServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        int getReceivedCount() {
+            return receivedCount.get();
+        }
+
+        void close() {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                Log.e(ATInternet.TAG, e.toString());
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket client = serverSocket.accept();
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            handle(client);
+                        }
+                    }, "ATLoopbackServerConnection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    // Serveur arrêté
+                    return;
+                }
+            }
+        }
+
+        private void handle(Socket client) {
+            try {
+                InputStream clientInputStream = new BufferedInputStream(client.getInputStream());
+                OutputStream clientOutputStream = client.getOutputStream();
+                String requestLine;
+                while ((requestLine = HttpConnection.readLine(clientInputStream)) != null) {
+                    if (requestLine.isEmpty()) {
+                        continue;
+                    }
+                    int contentLength = 0;
+                    String line;
+                    while ((line = HttpConnection.readLine(clientInputStream)) != null && !line.isEmpty()) {
+                        int separatorIndex = line.indexOf(':');
+                        if (separatorIndex > 0 && CONTENT_LENGTH.equals(line.substring(0, separatorIndex).trim().toLowerCase(Locale.ENGLISH))) {
+                            contentLength = Integer.parseInt(line.substring(separatorIndex + 1).trim());
+                        }
+                    }
+                    long skipped = 0;
+                    while (skipped < contentLength && clientInputStream.read() != -1) {
+                        skipped++;
+                    }
+                    receivedCount.incrementAndGet();
+                    clientOutputStream.write(RESPONSE);
+                    clientOutputStream.flush();
+                }
+            } catch (IOException e) {
+                // Connexion fermée par le client
+            } finally {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    Log.e(ATInternet.TAG, e.toString());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+/**
+ * Wrapper class to get hit delivery statistics
+ */
+public class NetworkStatistics {
+
+    private final Tracker tracker;
+
+    NetworkStatistics(Tracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * Get the time in milliseconds taken to send the first hit of this tracker
+     *
+     * @return the latency, -1 if no hit has been sent yet
+     */
+    public long getFirstHitLatency() {
+        return tracker.getDeliveryMetrics().getFirstHitLatency();
+    }
+
+    /**
+     * Get whether endpoints were prewarmed for this tracker
+     *
+     * @return true if endpoint prewarm is enabled
+     */
+    public boolean isEndpointPrewarmEnabled() {
+        return tracker.getDeliveryMetrics().isPrewarmEnabled();
+    }
+
+    /**
+     * Get the first hit latency recorded by the last tracker launched with or without endpoint prewarm
+     *
+     * @param prewarmed true for launches with endpoint prewarm
+     * @return the latency in milliseconds, -1 if none recorded
+     */
+    public long getLastFirstHitLatency(boolean prewarmed) {
+        return DeliveryMetrics.getLastFirstHitLatency(prewarmed);
+    }
+
+    /**
+     * Get the ratio of connections reused from the keep-alive pool, for all hosts
+     *
+     * @return the ratio of reused connections to connections used (0 to 1), 0 if no connection used yet
+     */
+    public double getConnectionReuseRatio() {
+        return HitConnectionPool.getInstance().getReuseRatio();
+    }
+
+    /**
+     * Get the ratio of connections reused from the keep-alive pool for a host
+     *
+     * @param endpoint the endpoint url (scheme, host and port are used)
+     * @return the ratio of reused connections to connections used (0 to 1), 0 if no connection used yet
+     */
+    public double getConnectionReuseRatio(String endpoint) {
+        return HitConnectionPool.getInstance().getReuseRatio(endpoint);
+    }
+
+    /**
+     * Get the count of connections opened to a host by the keep-alive pool
+     *
+     * @param endpoint the endpoint url (scheme, host and port are used)
+     * @return the count of connections opened
+     */
+    public long getOpenedConnectionCount(String endpoint) {
+        return HitConnectionPool.getInstance().getOpenedConnectionCount(endpoint);
+    }
+
+    /**
+     * Get the count of requests sent to a host on a connection reused from the keep-alive pool
+     *
+     * @param endpoint the endpoint url (scheme, host and port are used)
+     * @return the count of connections reused
+     */
+    public long getReusedConnectionCount(String endpoint) {
+        return HitConnectionPool.getInstance().getReusedConnectionCount(endpoint);
+    }
+
+    /**
+     * Get a round-trip time percentile measured on the current connection type
+     *
+     * @param endpoint   the endpoint url (without query string)
+     * @param percentile the percentile (1 to 100)
+     * @return the round-trip time in milliseconds, -1 if not enough measures
+     */
+    public long getRoundTripTime(String endpoint, int percentile) {
+        return tracker.getRttEstimator().getPercentile(RttEstimator.getKey(endpoint, TechnicalContext.getConnection()), percentile);
+    }
+}
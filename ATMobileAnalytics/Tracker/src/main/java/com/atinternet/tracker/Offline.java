@@ -24,6 +24,7 @@ package com.atinternet.tracker;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 
 /**
  * Wrapper class to manage offline hits stored
@@ -31,11 +32,14 @@ import java.util.Date;
 public class Offline {
 
     private final Tracker tracker;
-    private final Storage storage;
 
     Offline(Tracker tracker) {
         this.tracker = tracker;
-        this.storage = Storage.getInstance(Tracker.getAppContext());
+    }
+
+    // Backend de stockage courant, il peut changer avec la configuration
+    private Storage getStorage() {
+        return Storage.getInstance(Tracker.getAppContext());
     }
 
     /**
@@ -44,7 +48,17 @@ public class Offline {
      * @return stored hits list
      */
     public ArrayList<Hit> get() {
-        return storage.getOfflineHits();
+        return getStorage().getOfflineHits();
+    }
+
+    /**
+     * Get stored hits page by page
+     *
+     * @param pageSize count of hits loaded at once
+     * @return an iterator loading stored hits as needed
+     */
+    public Iterator<Hit> get(int pageSize) {
+        return getStorage().iterateOfflineHits(pageSize);
     }
 
     /**
@@ -53,14 +67,14 @@ public class Offline {
      * @return the count of stored hits
      */
     public int count() {
-        return storage.getCountOfflineHits();
+        return getStorage().getCountOfflineHits();
     }
 
     /**
      * Remove all stored hits
      */
     public void delete() {
-        storage.removeAllOfflineHits();
+        getStorage().removeAllOfflineHits();
     }
 
     /**
@@ -69,7 +83,7 @@ public class Offline {
      * @return the oldest stored hit instance
      */
     public Hit oldest() {
-        return storage.getOldestOfflineHit();
+        return getStorage().getOldestOfflineHit();
     }
 
     /**
@@ -78,7 +92,7 @@ public class Offline {
      * @return the latest stored hit instance
      */
     public Hit latest() {
-        return storage.getLatestOfflineHit();
+        return getStorage().getLatestOfflineHit();
     }
 
     /**
@@ -87,7 +101,7 @@ public class Offline {
      * @param daysCount /
      */
     public void delete(int daysCount) {
-        storage.removeOldOfflineHits(daysCount);
+        getStorage().removeOldOfflineHits(daysCount);
     }
 
     /**
@@ -97,13 +111,52 @@ public class Offline {
      */
     public void delete(Date date) {
         int daysCount = Tool.getDaysBetweenTimes(System.currentTimeMillis(), date.getTime());
-        storage.removeOldOfflineHits(daysCount);
+        getStorage().removeOldOfflineHits(daysCount);
     }
 
     /**
      * Send all hits stored
      */
     public void dispatch() {
-        Sender.sendOfflineHits(tracker, storage, true, true);
+        Sender.sendOfflineHits(tracker, getStorage(), true, true);
+    }
+
+    /**
+     * Get whether stored hits are being sent in background
+     *
+     * @return true while stored hits are dispatched
+     */
+    public boolean isDispatching() {
+        return OfflineReplay.getDrain() != null;
+    }
+
+    /**
+     * Get the estimated count of stored hits still to send
+     *
+     * @return the count of hits left by the current dispatch, or the count of stored hits
+     */
+    public int getDispatchRemainingCount() {
+        OfflineReplay drain = OfflineReplay.getDrain();
+        return drain != null ? drain.getRemainingCount() : count();
+    }
+
+    /**
+     * Get the estimated time before all stored hits are sent
+     *
+     * @return the time in milliseconds, -1 if unknown
+     */
+    public long getDispatchEstimatedTime() {
+        OfflineReplay drain = OfflineReplay.getDrain();
+        return drain != null ? drain.getEstimatedTime() : -1;
+    }
+
+    /**
+     * Get the current sending rate of stored hits
+     *
+     * @return the rate in hits per second, 0 if no dispatch is running
+     */
+    public double getDispatchRate() {
+        OfflineReplay drain = OfflineReplay.getDrain();
+        return drain != null ? drain.getRate() : 0;
     }
 }
@@ -92,6 +92,30 @@ public class Tracker {
     private Thread.UncaughtExceptionHandler defaultCrashHandler;
     private TrackerListener listener;
     private Dispatcher dispatcher;
+    private HitBatcher hitBatcher;
+    private CircuitBreaker circuitBreaker;
+    private SenderPool senderPool;
+    private SendPolicy sendPolicy;
+    private DeliveryMetrics deliveryMetrics;
+    private RttEstimator rttEstimator;
+    private final ConnectivityMonitor.Listener connectivityListener = new ConnectivityMonitor.Listener() {
+        @Override
+        public void connectionDidChange(TechnicalContext.ConnectionType previous, TechnicalContext.ConnectionType current) {
+            // Le retour de la connexion ou un meilleur réseau déclenche l'envoi des hits stockés
+            if ((previous == TechnicalContext.ConnectionType.OFFLINE && current != TechnicalContext.ConnectionType.OFFLINE)
+                    || (sendPolicy != null && sendPolicy.isLinkImproved(previous, current))) {
+                TrackerQueue.getInstance().put(new Runnable() {
+                    @Override
+                    public void run() {
+                        Sender.sendOfflineHits(Tracker.this, Storage.getInstance(getAppContext()), false, true);
+                    }
+                });
+            }
+        }
+    };
+    // Transport créé à partir de la configuration, remplacé quand la valeur configurée change
+    private volatile HitTransport transport;
+    private volatile Object transportValue;
     private Buffer buffer;
     private String internalUserId;
     protected Configuration configuration;
@@ -103,6 +127,7 @@ public class Tracker {
     private Context context;
     private NuggAds nuggAds;
     private Offline offline;
+    private NetworkStatistics networkStatistics;
     private CustomObjects customObjects;
     private IdentifiedVisitor identifiedVisitor;
     private Publishers publishers;
@@ -201,6 +226,72 @@ public class Tracker {
         return dispatcher;
     }
 
+    HitBatcher getHitBatcher() {
+        return hitBatcher;
+    }
+
+    RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    DeliveryMetrics getDeliveryMetrics() {
+        return deliveryMetrics;
+    }
+
+    SendPolicy getSendPolicy() {
+        return sendPolicy;
+    }
+
+    SenderPool getSenderPool() {
+        return senderPool;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    HitTransport getTransport() {
+        Object value = configuration.get(TrackerConfigurationKeys.TRANSPORT);
+        if (value instanceof HitTransport) {
+            if (transport != null) {
+                HitTransport previous;
+                synchronized (this) {
+                    previous = transport;
+                    transport = null;
+                    transportValue = null;
+                }
+                closeTransport(previous);
+            }
+            return (HitTransport) value;
+        }
+        // Sans verrou : le transport est écrit avant sa valeur et lu après elle
+        Object currentValue = transportValue;
+        HitTransport current = transport;
+        if (current != null && (value == null ? currentValue == null : value.equals(currentValue))) {
+            return current;
+        }
+        HitTransport previous;
+        synchronized (this) {
+            current = transport;
+            if (current != null && (value == null ? transportValue == null : value.equals(transportValue))) {
+                return current;
+            }
+            previous = current;
+            current = Tool.convertStringToHitTransport(value == null ? null : String.valueOf(value));
+            transport = current;
+            transportValue = value;
+        }
+        closeTransport(previous);
+        return current;
+    }
+
+    // Le transport remplacé libère son serveur et sa connexion
+    private static void closeTransport(HitTransport transport) {
+        if (transport instanceof LoopbackHitTransport) {
+            ((LoopbackHitTransport) transport).close();
+        }
+    }
+
     static android.content.Context getAppContext() {
         return appContext.get();
     }
@@ -231,6 +322,21 @@ public class Tracker {
             defaultCrashHandler = Thread.getDefaultUncaughtExceptionHandler();
             buffer = new Buffer(this);
             dispatcher = new Dispatcher(this);
+            hitBatcher = new HitBatcher(this);
+            circuitBreaker = new CircuitBreaker(this);
+            senderPool = new SenderPool(this);
+            sendPolicy = new SendPolicy(this);
+            ConnectivityMonitor.getInstance().register(appContext.get());
+            ConnectivityMonitor.getInstance().addListener(connectivityListener);
+            boolean isPrewarmEnabled = configuration.getBoolean(TrackerConfigurationKeys.ENABLE_ENDPOINT_PREWARM, false);
+            deliveryMetrics = new DeliveryMetrics(isPrewarmEnabled);
+            rttEstimator = new RttEstimator();
+            if (isPrewarmEnabled) {
+                EndpointPrewarmer.start(this);
+            }
+            configureConnectionPool();
+            configureStorage();
+            replayDurableQueue();
             if ((boolean) configuration.get(TrackerConfigurationKeys.ENABLE_CRASH_DETECTION) && !(Thread.getDefaultUncaughtExceptionHandler() instanceof CrashDetectionHandler)) {
                 Thread.setDefaultUncaughtExceptionHandler(new CrashDetectionHandler(appContext.get().getPackageName(), getPreferences(), defaultCrashHandler));
             }
@@ -269,7 +375,8 @@ public class Tracker {
             if (newParamOptions.isAppend()) {
                 Param existingParam;
                 if ((existingParam = buffer.getPersistentParams().get(key)) != null) {
-                    newValues = existingParam.getValues();
+                    // Copie : le paramètre existant peut être partagé avec un builder en attente
+                    newValues = new ArrayList<>(existingParam.getValues());
                     if (existingParam.getOptions() != null) {
                         newParam.getOptions().setType(existingParam.getOptions().getType());
                     }
@@ -317,6 +424,26 @@ public class Tracker {
         return processSetParam(key, value, options);
     }
 
+    private void configureStorage() {
+        Storage.setBackend(String.valueOf(configuration.get(TrackerConfigurationKeys.STORAGE_BACKEND)));
+        Storage.setLimits(
+                configuration.getInt(TrackerConfigurationKeys.MAX_OFFLINE_HITS, 0),
+                configuration.getInt(TrackerConfigurationKeys.MAX_OFFLINE_BYTES, 0),
+                String.valueOf(configuration.get(TrackerConfigurationKeys.OFFLINE_EVICTION_POLICY)));
+    }
+
+    private void replayDurableQueue() {
+        if (configuration.getBoolean(TrackerConfigurationKeys.ENABLE_DURABLE_QUEUE, false)) {
+            Builder.replayJournal(this);
+        }
+    }
+
+    private void configureConnectionPool() {
+        HitConnectionPool.getInstance().configure(
+                configuration.getInt(TrackerConfigurationKeys.MAX_IDLE_CONNECTIONS_PER_HOST, HitConnectionPool.DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST),
+                configuration.getInt(TrackerConfigurationKeys.CONNECTION_KEEP_ALIVE_DURATION, HitConnectionPool.DEFAULT_KEEP_ALIVE_DURATION));
+    }
+
     private void refreshConfigurationDependencies() {
         String identifierKey = String.valueOf(configuration.get(TrackerConfigurationKeys.IDENTIFIER));
         boolean ignoreLimitedAdTracking = Boolean.parseBoolean(String.valueOf(configuration.get(TrackerConfigurationKeys.IGNORE_LIMITED_AD_TRACKING)));
@@ -335,6 +462,10 @@ public class Tracker {
                 Thread.setDefaultUncaughtExceptionHandler(defaultCrashHandler);
             }
         }
+
+        configureConnectionPool();
+        configureStorage();
+        replayDurableQueue();
     }
 
     private Tracker handleNotClosureStringParameterSetting(String key, final Object value, final ParamOption... options) {
@@ -472,6 +603,18 @@ public class Tracker {
         return offline;
     }
 
+    /**
+     * Get NetworkStatistics instance
+     *
+     * @return NetworkStatistics instance
+     */
+    public NetworkStatistics NetworkStatistics() {
+        if (networkStatistics == null) {
+            networkStatistics = new NetworkStatistics(this);
+        }
+        return networkStatistics;
+    }
+
     /**
      * Get Context instance
      *
@@ -773,6 +916,21 @@ public class Tracker {
         }
     }
 
+    /**
+     * Set a new hit transport
+     *
+     * @param transport         /
+     * @param setConfigCallback Callback called when the operation has been done
+     * @param sync              (optional) perform the operation synchronously (default: false)
+     */
+    public void setTransport(HitTransport transport, SetConfigCallback setConfigCallback, boolean... sync) {
+        if (transport == null) {
+            Tool.executeCallback(listener, Tool.CallbackType.WARNING, "Bad value for transport, default value retained");
+        } else {
+            setConfig(TrackerConfigurationKeys.TRANSPORT, transport, setConfigCallback, sync);
+        }
+    }
+
     /**
      * Enable secure mode (use HTTPS with secured log)
      *
@@ -1324,9 +1482,14 @@ public class Tracker {
      * @param options parameter options
      * @return Tracker instance
      */
-    public Tracker setParam(String key, Map value, ParamOption options) {
+    public Tracker setParam(String key, final Map value, ParamOption options) {
         options.setType(ParamOption.Type.JSON);
-        return handleNotClosureStringParameterSetting(key, value, options);
+        return processSetParam(key, new JSONClosure() {
+            @Override
+            Map<String, ?> executeJSON() {
+                return value;
+            }
+        }, options);
     }
 
     /**
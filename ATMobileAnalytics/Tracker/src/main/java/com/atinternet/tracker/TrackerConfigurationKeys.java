@@ -51,6 +51,15 @@ public final class TrackerConfigurationKeys {
     //Global key representing idclient from uuid
     static final String IDCLIENT_UUID = "ATIdclientUUID";
 
+    //Global key representing first hit latency of the last launch without endpoint prewarm
+    static final String FIRST_HIT_LATENCY = "ATFirstHitLatency";
+
+    //Global key representing first hit latency of the last launch with endpoint prewarm
+    static final String FIRST_HIT_LATENCY_PREWARMED = "ATFirstHitLatencyPrewarmed";
+
+    //Global key representing id of the last stored hit handled by the offline hits replay
+    static final String OFFLINE_REPLAY_CURSOR = "ATOfflineReplayCursor";
+
     /**
      * Constant for storage offline mode configuration key
      */
@@ -151,6 +160,156 @@ public final class TrackerConfigurationKeys {
      */
     public static final String SEND_HIT_WHEN_OPT_OUT = "sendHitWhenOptOut";
 
+    /**
+     * Constant for enable batch sending (several hits sent in one POST request to the batch endpoint)
+     */
+    public static final String ENABLE_BATCH_SENDING = "enableBatchSending";
+
+    /**
+     * Constant for collection endpoint url accepting batches (required for batch sending, answering one status code per hit)
+     */
+    public static final String BATCH_ENDPOINT = "batchEndpoint";
+
+    /**
+     * Constant for maximum hit count in one batch
+     */
+    public static final String BATCH_MAX_COUNT = "batchMaxCount";
+
+    /**
+     * Constant for maximum size in bytes of one batch
+     */
+    public static final String BATCH_MAX_BYTES = "batchMaxBytes";
+
+    /**
+     * Constant for maximum time in milliseconds a hit waits in an incomplete batch
+     */
+    public static final String BATCH_LINGER_TIME = "batchLingerTime";
+
+    /**
+     * Constant for maximum idle keep-alive connections kept by the SDK per host (0 to disable reuse)
+     */
+    public static final String MAX_IDLE_CONNECTIONS_PER_HOST = "maxIdleConnectionsPerHost";
+
+    /**
+     * Constant for duration in milliseconds the SDK keeps an idle keep-alive connection before closing it
+     */
+    public static final String CONNECTION_KEEP_ALIVE_DURATION = "connectionKeepAliveDuration";
+
+    /**
+     * Constant for hit transport configuration ("http", "inMemory", "loopback" or a HitTransport instance)
+     */
+    public static final String TRANSPORT = "transport";
+
+    /**
+     * Constant for enable circuit breaker (no sending attempt while the collector is unavailable)
+     */
+    public static final String ENABLE_CIRCUIT_BREAKER = "enableCircuitBreaker";
+
+    /**
+     * Constant for consecutive failures before the circuit breaker opens
+     */
+    public static final String CIRCUIT_BREAKER_FAILURE_THRESHOLD = "circuitBreakerFailureThreshold";
+
+    /**
+     * Constant for first delay in milliseconds before a new sending attempt once the circuit breaker is open
+     */
+    public static final String CIRCUIT_BREAKER_BASE_DELAY = "circuitBreakerBaseDelay";
+
+    /**
+     * Constant for maximum delay in milliseconds between two sending attempts once the circuit breaker is open
+     */
+    public static final String CIRCUIT_BREAKER_MAX_DELAY = "circuitBreakerMaxDelay";
+
+    /**
+     * Constant for count of workers sending hits in parallel
+     */
+    public static final String SENDER_WORKERS = "senderWorkers";
+
+    /**
+     * Constant for strict ordering (hits of a tracker sent one after another, in order)
+     */
+    public static final String STRICT_ORDERING = "strictOrdering";
+
+    /**
+     * Constant for enable network aware sending (deferrable hits stored while the network is slow or metered)
+     */
+    public static final String ENABLE_NETWORK_AWARE_SENDING = "enableNetworkAwareSending";
+
+    /**
+     * Constant for deferrable hit types (comma separated HitType names, or RichMediaRefresh)
+     */
+    public static final String DEFERRABLE_HIT_TYPES = "deferrableHitTypes";
+
+    /**
+     * Constant for defer on metered network (cellular connections)
+     */
+    public static final String DEFER_ON_METERED_NETWORK = "deferOnMeteredNetwork";
+
+    /**
+     * Constant for maximum time in milliseconds a deferred hit waits before sending
+     */
+    public static final String DEFERRED_SENDING_MAX_DELAY = "deferredSendingMaxDelay";
+
+    /**
+     * Constant for enable endpoint prewarm (DNS resolution and connection at tracker initialization)
+     */
+    public static final String ENABLE_ENDPOINT_PREWARM = "enableEndpointPrewarm";
+
+    /**
+     * Constant for enable adaptive timeout (timeouts derived from measured round-trip times)
+     */
+    public static final String ENABLE_ADAPTIVE_TIMEOUT = "enableAdaptiveTimeout";
+
+    /**
+     * Constant for round-trip time percentile used to compute adaptive timeouts
+     */
+    public static final String ADAPTIVE_TIMEOUT_PERCENTILE = "adaptiveTimeoutPercentile";
+
+    /**
+     * Constant for enable hedged sending (second attempt when no response after the 95th percentile round-trip time)
+     */
+    public static final String ENABLE_HEDGED_SENDING = "enableHedgedSending";
+
+    /**
+     * Constant for enable POST sending (hit parameters sent in the request body, without multihits slicing)
+     */
+    public static final String ENABLE_POST_SENDING = "enablePostSending";
+
+    /**
+     * Constant for offline hits storage backend ("sqlite" or "segmentLog")
+     */
+    public static final String STORAGE_BACKEND = "storageBackend";
+
+    /**
+     * Constant for maximum count of stored hits (0 for no limit)
+     */
+    public static final String MAX_OFFLINE_HITS = "maxOfflineHits";
+
+    /**
+     * Constant for maximum size in bytes of stored hits (0 for no limit)
+     */
+    public static final String MAX_OFFLINE_BYTES = "maxOfflineBytes";
+
+    /**
+     * Constant for eviction policy once a stored hits limit is reached ("oldest" or "priority")
+     */
+    public static final String OFFLINE_EVICTION_POLICY = "offlineEvictionPolicy";
+
+    /**
+     * Constant for maximum count of stored hits sent per second when stored hits are dispatched (0 for no limit)
+     */
+    public static final String OFFLINE_DRAIN_HITS_PER_SECOND = "offlineDrainHitsPerSecond";
+
+    /**
+     * Constant for maximum size in bytes of stored hits sent per second when stored hits are dispatched (0 for no limit)
+     */
+    public static final String OFFLINE_DRAIN_BYTES_PER_SECOND = "offlineDrainBytesPerSecond";
+
+    /**
+     * Constant for enable durable queue (built hits journaled on disk until they are sent or stored)
+     */
+    public static final String ENABLE_DURABLE_QUEUE = "enableDurableQueue";
+
     private TrackerConfigurationKeys() {
         throw new IllegalStateException("Utility class");
     }
@@ -28,9 +28,14 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 @Config(sdk = 21)
 @RunWith(RobolectricTestRunner.class)
@@ -67,6 +72,49 @@ public class BufferTest extends AbstractTestClass {
         assertEquals(1, buffer.getVolatileParams().size());
     }
 
+    @Test
+    public void persistentParamsSnapshotTest() {
+        Map<String, Param> snapshot = buffer.getPersistentParamsSnapshot();
+        assertSame(snapshot, buffer.getPersistentParamsSnapshot());
+
+        buffer.getPersistentParams().put(param.getKey(), param);
+        Map<String, Param> newSnapshot = buffer.getPersistentParamsSnapshot();
+        assertNotSame(snapshot, newSnapshot);
+        assertFalse(snapshot.containsKey(param.getKey()));
+        assertSame(param, newSnapshot.get(param.getKey()));
+
+        buffer.getPersistentParams().remove(param.getKey());
+        assertFalse(buffer.getPersistentParamsSnapshot().containsKey(param.getKey()));
+    }
+
+    @Test
+    public void persistentParamsSnapshotKeptWithoutChangeTest() {
+        buffer.getPersistentParams().put(param.getKey(), param);
+        Map<String, Param> snapshot = buffer.getPersistentParamsSnapshot();
+
+        buffer.getPersistentParams().put(param.getKey(), param);
+        buffer.getPersistentParams().remove("unknown");
+        assertSame(snapshot, buffer.getPersistentParamsSnapshot());
+
+        tracker.setTransport(new InMemoryHitTransport(), null, true);
+        tracker.Context().setLevel2(3);
+        snapshot = buffer.getPersistentParamsSnapshot();
+        tracker.getDispatcher().dispatch();
+        assertSame(snapshot, buffer.getPersistentParamsSnapshot());
+    }
+
+    @Test
+    public void takeVolatileParamsTest() {
+        buffer.getVolatileParams().put(param.getKey(), param);
+        Map<String, Param> volatileParams = buffer.takeVolatileParams();
+        assertEquals(1, volatileParams.size());
+        assertSame(param, volatileParams.get(param.getKey()));
+        assertTrue(buffer.getVolatileParams().isEmpty());
+
+        buffer.getVolatileParams().put("other", param);
+        assertEquals(1, volatileParams.size());
+    }
+
     @Test
     public void setIdentifierKey() {
         buffer.setIdentifierKey("androidId", false);
@@ -0,0 +1,113 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+// Mesures indicatives du coût par hit, affichées dans la sortie des tests
+// Exécutées seulement sur demande : ./gradlew test -Pbenchmark
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class BuilderBenchmarkTest extends AbstractTestClass {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+
+    private int blackhole;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        super.setUp();
+    }
+
+    @Test
+    public void hitPrefixBenchmarkTest() {
+        tracker.setConfig(TrackerConfigurationKeys.COLLECT_DOMAIN, "events", null, true);
+        final Configuration configuration = tracker.getConfiguration();
+
+        long rebuilt = measure(new Runnable() {
+            @Override
+            public void run() {
+                blackhole += new HitPrefix(configuration, 0).getCollectPrefix().length();
+            }
+        });
+        long cached = measure(new Runnable() {
+            @Override
+            public void run() {
+                blackhole += configuration.getHitPrefix().getCollectPrefix().length();
+            }
+        });
+
+        System.out.println(String.format(Locale.US, "Hit prefix : %d ns/hit rebuilt, %d ns/hit cached", rebuilt, cached));
+        assertEquals(new HitPrefix(configuration, 0).getCollectPrefix(), configuration.getHitPrefix().getCollectPrefix());
+    }
+
+    @Test
+    public void percentEncodeBenchmarkTest() throws UnsupportedEncodingException {
+        final String value = "[google]-[nexus5] caf\u00e9_1.0*{\"Lifecycle\":{\"fl\":0,\"lc\":5}}";
+
+        long urlEncoder = measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blackhole += ("&stc=" + ToolTest.urlEncoderPercentEncode(value)).length();
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        long table = measure(new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder builder = new StringBuilder(value.length() * 3 + 5).append("&stc=");
+                Tool.percentEncode(value, builder);
+                blackhole += builder.length();
+            }
+        });
+
+        System.out.println(String.format(Locale.US, "Percent encoding : %d ns/value URLEncoder, %d ns/value table", urlEncoder, table));
+        assertEquals(ToolTest.urlEncoderPercentEncode(value), Tool.percentEncode(value));
+    }
+
+    private static long measure(Runnable operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - startTime) / ITERATIONS;
+    }
+}
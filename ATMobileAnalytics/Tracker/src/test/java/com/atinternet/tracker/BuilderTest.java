@@ -24,14 +24,17 @@ package com.atinternet.tracker;
 
 import android.util.Pair;
 
+import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -104,7 +107,7 @@ public class BuilderTest extends AbstractTestClass {
         builder = new Builder(tracker);
 
         ArrayList<String> hits = builder.build().first;
-        assertEquals(5, hits.size());
+        assertEquals(3, hits.size());
         assertFalse(hits.get(0).contains("mherr=1"));
         assertFalse(hits.get(1).contains("mherr=1"));
         assertFalse(hits.get(2).contains("mherr=1"));
@@ -114,6 +117,53 @@ public class BuilderTest extends AbstractTestClass {
         assertTrue(hits.get(2).contains("mh="));
     }
 
+    @Test
+    public void multiHitsSlicedOnEncodedSeparatorTest() {
+        ArrayList<String> array = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            array.add("verybigvalue\u00e9" + i);
+        }
+        ParamOption options = new ParamOption().setSeparator("|").setEncode(true);
+        buffer.getVolatileParams().put("stc", new Param("stc", closureValue(Tool.convertToString(array, "|")), options));
+        builder = new Builder(tracker);
+
+        ArrayList<String> hits = builder.build().first;
+        assertEquals(4, hits.size());
+        int count = 0;
+        for (String hit : hits) {
+            assertFalse(hit.contains("mherr=1"));
+            String value = hit.substring(hit.indexOf("&stc=") + 5);
+            for (String part : value.split("%7C")) {
+                assertEquals("verybigvalue%C3%A9" + (++count), part);
+            }
+        }
+        assertEquals(200, count);
+    }
+
+    @Test
+    public void postSendingNotSlicedTest() {
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_POST_SENDING, true, null, true);
+        buffer.getPersistentParams().put("idclient", new Param("idclient", new Closure() {
+            @Override
+            public String execute() {
+                return "CustomId";
+            }
+        }));
+        for (int i = 1; i <= 220; i++) {
+            buffer.getVolatileParams().put("verybigkey" + i, new Param("verybigkey" + i, closureValue("verybigvalue" + i)));
+        }
+        builder = new Builder(tracker);
+
+        ArrayList<String> hits = builder.build().first;
+        assertEquals(1, hits.size());
+        assertTrue(hits.get(0).length() > 1600);
+        assertTrue(hits.get(0).startsWith("http://logp.xiti.com/hit.xiti?s=552987&idclient=CustomId"));
+        assertTrue(hits.get(0).contains("&verybigkey1=verybigvalue1"));
+        assertTrue(hits.get(0).contains("&verybigkey220=verybigvalue220"));
+        assertFalse(hits.get(0).contains("mh="));
+        assertFalse(hits.get(0).contains("mherr=1"));
+    }
+
     @Test
     public void multiHitsOkSplittableHitTest() {
         buffer.getPersistentParams().put("idclient", new Param("idclient", new Closure() {
@@ -142,6 +192,19 @@ public class BuilderTest extends AbstractTestClass {
         assertTrue(hits.get(4).contains("mh=5-5"));
     }
 
+    @Test
+    public void durableRunAcknowledgesSentHitsTest() throws Exception {
+        InMemoryHitTransport transport = new InMemoryHitTransport();
+        tracker.setTransport(transport, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_DURABLE_QUEUE, true, null, true);
+        tracker.setParam("p", "page");
+
+        new Builder(tracker).run();
+
+        assertEquals(1, transport.getCount());
+        assertEquals(0, QueueJournal.getInstance(Tracker.getAppContext()).getPendingCount());
+    }
+
     @Test
     public void makeSubQueryTest() throws Exception {
         builder = new Builder(tracker);
@@ -151,18 +214,14 @@ public class BuilderTest extends AbstractTestClass {
 
     @Test
     public void organizeParametersTest() throws Exception {
-        LinkedHashMap<String, Param> completeBuffer = new LinkedHashMap<>();
         tracker.setParam("ref", "www.atinternet.com?test1=1&test2=2&test3=<script></script>")
                 .setParam("map", new HashMap())
                 .setParam("refstore", "test")
                 .setParam("p", "page", new ParamOption().setRelativePosition(ParamOption.RelativePosition.last))
                 .setParam("int", 3, new ParamOption().setRelativePosition(ParamOption.RelativePosition.first));
 
-        completeBuffer.putAll(buffer.getVolatileParams());
-        completeBuffer.putAll(buffer.getPersistentParams());
-
         builder = new Builder(tracker);
-        ArrayList<Param> organizeParams = builder.organizeParameters(completeBuffer);
+        ArrayList<Param> organizeParams = builder.organizeParameters(buffer.getPersistentParams(), buffer.getVolatileParams());
 
         assertEquals(5, organizeParams.size());
         assertEquals("int", organizeParams.get(0).getKey());
@@ -172,6 +231,31 @@ public class BuilderTest extends AbstractTestClass {
         assertEquals("ref", organizeParams.get(4).getKey());
     }
 
+    @Test
+    public void organizeParametersVolatileOverridesPersistentTest() throws Exception {
+        tracker.setParam("x1", "persistent", new ParamOption().setPersistent(true))
+                .setParam("p", "persistent", new ParamOption().setPersistent(true))
+                .setParam("ref", "persistent", new ParamOption().setPersistent(true));
+        Map<String, Param> persistentParams = buffer.getPersistentParams();
+        tracker.setParam("x2", "volatile")
+                .setParam("p", "volatile")
+                .setParam("ref", "volatile");
+        Map<String, Param> volatileParams = buffer.getVolatileParams();
+
+        builder = new Builder(tracker);
+        ArrayList<Param> organizeParams = builder.organizeParameters(persistentParams, volatileParams);
+
+        assertEquals(4, organizeParams.size());
+        assertEquals("x1", organizeParams.get(0).getKey());
+        assertEquals("p", organizeParams.get(1).getKey());
+        assertEquals("volatile", organizeParams.get(1).getValues().get(0).execute());
+        assertEquals("x2", organizeParams.get(2).getKey());
+        assertEquals("ref", organizeParams.get(3).getKey());
+        assertEquals("volatile", organizeParams.get(3).getValues().get(0).execute());
+        assertEquals(3, persistentParams.size());
+        assertEquals(3, volatileParams.size());
+    }
+
     @Test
     public void prepareQuerySuccessTest() throws Exception {
         tracker.setParam("p", "page")
@@ -209,6 +293,55 @@ public class BuilderTest extends AbstractTestClass {
         assertEquals("&stc={\"key3\":\"value3\"}", formattedParameters.get("stc").first);
     }
 
+    @Test
+    public void prepareQueryMergesStructuredJSONTest() throws Exception {
+        final Map<String, Object> fragment = new HashMap<>();
+        fragment.put("key2", new HashMap() {{
+            put("subkey", 1);
+        }});
+        tracker.setParam("stc", "{\"key1\":\"value1\"}", new ParamOption().setType(ParamOption.Type.JSON))
+                .setParam("stc", new JSONClosure() {
+                    @Override
+                    Map<String, ?> executeJSON() {
+                        return fragment;
+                    }
+
+                    @Override
+                    public String execute() {
+                        throw new AssertionError("Structured JSON value converted to string");
+                    }
+                }, new ParamOption().setAppend(true));
+        builder = new Builder(tracker);
+        LinkedHashMap<String, Pair<String, String>> formattedParameters = builder.prepareQuery();
+
+        assertEquals("&stc={\"key1\":\"value1\",\"key2\":{\"subkey\":1}}", formattedParameters.get("stc").first);
+    }
+
+    @Test
+    public void prepareQueryNestedJSONTest() throws Exception {
+        ParamOption stcOptions = new ParamOption().setAppend(true).setType(ParamOption.Type.JSON);
+        tracker.setParam("stc", LifeCycle.getMetrics(Tracker.getPreferences()), stcOptions)
+                .setParam("stc", new HashMap() {{
+                    put("list", Arrays.asList(1, new HashMap() {{
+                        put("subkey", "subvalue");
+                    }}));
+                }}, stcOptions);
+        builder = new Builder(tracker);
+        String stc = builder.prepareQuery().get("stc").first;
+
+        JSONObject json = new JSONObject(stc.substring("&stc=".length()));
+        assertTrue(json.get("lifecycle") instanceof JSONObject);
+        assertTrue(json.getJSONObject("lifecycle").has("sc"));
+        assertEquals("subvalue", json.getJSONArray("list").getJSONObject(1).getString("subkey"));
+
+        // Tables imbriquées converties sans dépendre de JSONObject(Map), qui ne le fait pas avant l'API 19
+        Map<String, Object> fragment = new HashMap<>();
+        fragment.put("crash", new LinkedHashMap<String, Object>() {{
+            put("error", "error");
+        }});
+        assertTrue(JSONAccumulator.toJSONObject(fragment).get("crash") instanceof JSONObject);
+    }
+
     @Test
     public void overrideParam1Test() throws Exception {
         tracker.setParam("test", "value", new ParamOption().setPersistent(true))
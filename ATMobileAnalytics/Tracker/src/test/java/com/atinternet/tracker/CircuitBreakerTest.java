@@ -0,0 +1,129 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class CircuitBreakerTest extends AbstractTestClass {
+
+    private static final String ENDPOINT = "http://logp.xiti.com/hit.xiti";
+
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        circuitBreaker = tracker.getCircuitBreaker();
+        circuitBreaker.reset();
+        tracker.setConfig(TrackerConfigurationKeys.CIRCUIT_BREAKER_BASE_DELAY, 60000, null, true);
+    }
+
+    @Test
+    public void openAfterConsecutiveFailuresTest() {
+        InMemoryHitTransport transport = new InMemoryHitTransport(503);
+        tracker.setTransport(transport, null, true);
+
+        for (int i = 1; i <= 5; i++) {
+            new Sender(tracker, new Hit(ENDPOINT + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, transport.getCount());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(ENDPOINT));
+    }
+
+    @Test
+    public void clientErrorDoesNotOpenTest() {
+        InMemoryHitTransport transport = new InMemoryHitTransport(400);
+        tracker.setTransport(transport, null, true);
+
+        for (int i = 1; i <= 5; i++) {
+            new Sender(tracker, new Hit(ENDPOINT + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(5, transport.getCount());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(ENDPOINT));
+    }
+
+    @Test
+    public void disabledTest() {
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_CIRCUIT_BREAKER, false, null, true);
+        InMemoryHitTransport transport = new InMemoryHitTransport(503);
+        tracker.setTransport(transport, null, true);
+
+        for (int i = 1; i <= 5; i++) {
+            new Sender(tracker, new Hit(ENDPOINT + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(5, transport.getCount());
+    }
+
+    @Test
+    public void probeAfterDelayTest() throws Exception {
+        tracker.setConfig(TrackerConfigurationKeys.CIRCUIT_BREAKER_BASE_DELAY, 2, null, true);
+        for (int i = 0; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onFailure(ENDPOINT);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(ENDPOINT));
+
+        Thread.sleep(10);
+        assertTrue(circuitBreaker.allowRequest(ENDPOINT));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(ENDPOINT));
+        assertEquals(false, circuitBreaker.allowRequest(ENDPOINT));
+
+        circuitBreaker.onSuccess(ENDPOINT);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(ENDPOINT));
+    }
+
+    @Test
+    public void failedProbeReopensTest() throws Exception {
+        tracker.setConfig(TrackerConfigurationKeys.CIRCUIT_BREAKER_BASE_DELAY, 2, null, true);
+        for (int i = 0; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onFailure(ENDPOINT);
+        }
+        Thread.sleep(10);
+        assertTrue(circuitBreaker.allowRequest(ENDPOINT));
+
+        circuitBreaker.onFailure(ENDPOINT);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(ENDPOINT));
+    }
+
+    @Test
+    public void computeDelayTest() {
+        for (int openCount = 1; openCount <= 10; openCount++) {
+            long expected = Math.min(300000, 1000L << (openCount - 1));
+            long delay = CircuitBreaker.computeDelay(openCount, 1000, 300000);
+            assertTrue(delay >= expected / 2 && delay <= expected + 1);
+        }
+        long delay = CircuitBreaker.computeDelay(100, 1000, 300000);
+        assertTrue(delay >= 150000 && delay <= 300001);
+    }
+}
@@ -33,6 +33,10 @@ import java.util.LinkedHashMap;
 import androidx.test.core.app.ApplicationProvider;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 @Config(sdk = 21)
 @RunWith(RobolectricTestRunner.class)
@@ -108,4 +112,40 @@ public class ConfigurationTest extends AbstractTestClass {
         assertEquals(false, defaultConfiguration.get("ignoreLimitedAdTracking"));
         assertEquals(true, defaultConfiguration.get("sendHitWhenOptOut"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void hitPrefixCachedTest() {
+        defaultConfiguration.put("log", "logp");
+        defaultConfiguration.put("site", 552987);
+        HitPrefix hitPrefix = defaultConfiguration.getHitPrefix();
+        assertEquals("http://logp.xiti.com/hit.xiti?s=552987", hitPrefix.getPrefix());
+        assertNull(hitPrefix.getCollectPrefix());
+
+        // Clé sans rapport avec le préfixe ou valeur identique : pas de reconstruction
+        defaultConfiguration.put("storage", "always");
+        defaultConfiguration.put("site", 552987);
+        assertSame(hitPrefix, defaultConfiguration.getHitPrefix());
+    }
+
+    @Test
+    public void hitPrefixInvalidatedTest() {
+        defaultConfiguration.put("log", "logp");
+        defaultConfiguration.put("site", 552987);
+        HitPrefix hitPrefix = defaultConfiguration.getHitPrefix();
+
+        defaultConfiguration.put("collectDomain", "events");
+        HitPrefix collectPrefix = defaultConfiguration.getHitPrefix();
+        assertNotSame(hitPrefix, collectPrefix);
+        assertEquals("http://events.xiti.com/hit.xiti?s=552987", collectPrefix.getCollectPrefix());
+
+        defaultConfiguration.put("secure", true);
+        assertFalse(defaultConfiguration.getHitPrefix().isValid());
+        assertEquals("", defaultConfiguration.getHitPrefix().getPrefix());
+
+        defaultConfiguration.put("logSSL", "logs");
+        assertEquals("https://logs.xiti.com/hit.xiti?s=552987", defaultConfiguration.getHitPrefix().getPrefix());
+
+        defaultConfiguration.remove("site");
+        assertEquals("https://logs.xiti.com/hit.xiti?s=null", defaultConfiguration.getHitPrefix().getPrefix());
+    }
+}
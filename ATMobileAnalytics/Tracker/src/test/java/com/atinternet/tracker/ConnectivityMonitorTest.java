@@ -0,0 +1,91 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class ConnectivityMonitorTest extends AbstractTestClass {
+
+    private ConnectivityMonitor connectivityMonitor;
+    private TechnicalContext.ConnectionType initialConnection;
+    private final List<String> transitions = new ArrayList<>();
+    private final ConnectivityMonitor.Listener listener = new ConnectivityMonitor.Listener() {
+        @Override
+        public void connectionDidChange(TechnicalContext.ConnectionType previous, TechnicalContext.ConnectionType current) {
+            transitions.add(previous + ">" + current);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        connectivityMonitor = ConnectivityMonitor.getInstance();
+        initialConnection = TechnicalContext.getConnection();
+        connectivityMonitor.update(TechnicalContext.ConnectionType.WIFI);
+        connectivityMonitor.addListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        connectivityMonitor.removeListener(listener);
+        connectivityMonitor.update(initialConnection);
+    }
+
+    @Test
+    public void cachedConnectionTest() {
+        connectivityMonitor.update(TechnicalContext.ConnectionType.FOURG);
+        assertEquals(TechnicalContext.ConnectionType.FOURG, TechnicalContext.getConnection());
+        assertEquals("4g", TechnicalContext.getConnectionType().execute());
+    }
+
+    @Test
+    public void publishTransitionsTest() {
+        connectivityMonitor.update(TechnicalContext.ConnectionType.OFFLINE);
+        connectivityMonitor.update(TechnicalContext.ConnectionType.OFFLINE);
+        connectivityMonitor.update(TechnicalContext.ConnectionType.THREEG);
+
+        assertEquals(2, transitions.size());
+        assertEquals("WIFI>OFFLINE", transitions.get(0));
+        assertEquals("OFFLINE>THREEG", transitions.get(1));
+    }
+
+    @Test
+    public void removeListenerTest() {
+        connectivityMonitor.removeListener(listener);
+        connectivityMonitor.update(TechnicalContext.ConnectionType.OFFLINE);
+
+        assertEquals(0, transitions.size());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class EndpointPrewarmerTest extends AbstractTestClass {
+
+    @Test
+    public void getEndpointsTest() {
+        List<String> endpoints = EndpointPrewarmer.getEndpoints(tracker.getConfiguration());
+        assertEquals(1, endpoints.size());
+        assertEquals("http://logp.xiti.com/", endpoints.get(0));
+    }
+
+    @Test
+    public void getSecureEndpointsTest() {
+        tracker.setConfig(TrackerConfigurationKeys.SECURE, true, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.LOG_SSL, "logs", null, true);
+        tracker.setConfig(TrackerConfigurationKeys.COLLECT_DOMAIN, "events", null, true);
+
+        List<String> endpoints = EndpointPrewarmer.getEndpoints(tracker.getConfiguration());
+        assertEquals(2, endpoints.size());
+        assertEquals("https://logs.xiti.com/", endpoints.get(0));
+        assertEquals("https://events.xiti.com/", endpoints.get(1));
+    }
+
+    @Test
+    public void firstHitLatencyTest() {
+        tracker.setTransport(new InMemoryHitTransport(), null, true);
+        NetworkStatistics networkStatistics = tracker.NetworkStatistics();
+        assertFalse(networkStatistics.isEndpointPrewarmEnabled());
+        assertEquals(-1, networkStatistics.getFirstHitLatency());
+
+        new Sender(tracker, new Hit("http://logp.xiti.com/hit.xiti?s=552987&p=page1"), false).send(false);
+        long firstHitLatency = networkStatistics.getFirstHitLatency();
+        assertTrue(firstHitLatency >= 0);
+        assertEquals(firstHitLatency, networkStatistics.getLastFirstHitLatency(false));
+
+        new Sender(tracker, new Hit("http://logp.xiti.com/hit.xiti?s=552987&p=page2"), false).send(false);
+        assertEquals(firstHitLatency, networkStatistics.getFirstHitLatency());
+    }
+}
@@ -0,0 +1,252 @@
+/*
+This SDK is licensed under the MIT license (MIT)
+Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class HitBatcherTest extends AbstractTestClass {
+
+    private HttpServer server;
+    private String endpoint;
+    private String responseBody;
+    private final List<String> receivedBodies = new ArrayList<>();
+    private final List<String> receivedQueries = new ArrayList<>();
+    private int successCount;
+    private int failedCount;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        responseBody = null;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hit.xiti", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (receivedQueries) {
+                    receivedQueries.add(exchange.getRequestURI().getRawQuery());
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/batch", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream inputStream = exchange.getRequestBody();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                String requestBody = body.toString("UTF-8");
+                synchronized (receivedBodies) {
+                    receivedBodies.add(requestBody);
+                }
+                // Par défaut, un statut 200 par hit du lot
+                StringBuilder statusCodes = new StringBuilder();
+                for (int i = requestBody.split("\n").length; i > 0; i--) {
+                    statusCodes.append("200\n");
+                }
+                byte[] response = (responseBody != null ? responseBody : statusCodes.toString()).getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length == 0 ? -1 : response.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(response);
+                outputStream.close();
+            }
+        });
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/hit.xiti";
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_ENDPOINT, "http://127.0.0.1:" + server.getAddress().getPort() + "/batch", null, true);
+
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_BATCH_SENDING, true, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_MAX_COUNT, 3, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_LINGER_TIME, 60000, null, true);
+        tracker.setListener(new CountingListener());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void sendBatchWhenMaxCountReachedTest() {
+        for (int i = 1; i <= 3; i++) {
+            new Sender(tracker, new Hit(endpoint + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(1, receivedBodies.size());
+        assertEquals("s=552987&p=page1\ns=552987&p=page2\ns=552987&p=page3", receivedBodies.get(0));
+        assertEquals(0, tracker.getHitBatcher().getPendingCount());
+        assertEquals(3, successCount);
+    }
+
+    @Test
+    public void flushPendingBatchTest() {
+        new Sender(tracker, new Hit(endpoint + "?s=552987&p=page1"), false).send(false);
+        new Sender(tracker, new Hit(endpoint + "?s=552987&p=page2"), false).send(false);
+
+        assertEquals(0, receivedBodies.size());
+        assertEquals(2, tracker.getHitBatcher().getPendingCount());
+
+        tracker.getHitBatcher().flush();
+
+        assertEquals(1, receivedBodies.size());
+        assertEquals(0, tracker.getHitBatcher().getPendingCount());
+        assertEquals(2, successCount);
+    }
+
+    @Test
+    public void maxBytesTest() {
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_MAX_BYTES, 20, null, true);
+        new Sender(tracker, new Hit(endpoint + "?s=552987&p=verylongpagename"), false).send(false);
+
+        assertEquals(1, receivedBodies.size());
+        assertEquals(0, tracker.getHitBatcher().getPendingCount());
+    }
+
+    @Test
+    public void sendPendingBatchBeforeExceedingMaxBytesTest() throws Exception {
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_MAX_BYTES, 40, null, true);
+        for (int i = 1; i <= 3; i++) {
+            new Sender(tracker, new Hit(endpoint + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(1, receivedBodies.size());
+        assertEquals("s=552987&p=page1\ns=552987&p=page2", receivedBodies.get(0));
+        assertEquals(1, tracker.getHitBatcher().getPendingCount());
+
+        tracker.getHitBatcher().flush();
+
+        assertEquals(2, receivedBodies.size());
+        for (String body : receivedBodies) {
+            assertTrue(body.getBytes("UTF-8").length <= 40);
+        }
+    }
+
+    @Test
+    public void maxBytesCountsEncodedBytesTest() {
+        // 14 caractères mais 22 octets en UTF-8
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_MAX_BYTES, 20, null, true);
+        new Sender(tracker, new Hit(endpoint + "?s=1&p=\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9"), false).send(false);
+
+        assertEquals(1, receivedBodies.size());
+        assertEquals(0, tracker.getHitBatcher().getPendingCount());
+    }
+
+    @Test
+    public void missingHitStatusKeepsHitsTest() {
+        responseBody = "";
+        for (int i = 1; i <= 3; i++) {
+            new Sender(tracker, new Hit(endpoint + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(1, receivedBodies.size());
+        assertEquals(0, successCount);
+        assertEquals(3, failedCount);
+    }
+
+    @Test
+    public void batchEndpointRequiredTest() {
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_ENDPOINT, "", null, true);
+        for (int i = 1; i <= 3; i++) {
+            new Sender(tracker, new Hit(endpoint + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(0, receivedBodies.size());
+        assertEquals(3, receivedQueries.size());
+        assertEquals("s=552987&p=page1", receivedQueries.get(0));
+        assertEquals(0, tracker.getHitBatcher().getPendingCount());
+    }
+
+    @Test
+    public void perHitStatusTest() {
+        responseBody = "200\n400\n200\n";
+        for (int i = 1; i <= 3; i++) {
+            new Sender(tracker, new Hit(endpoint + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(1, receivedBodies.size());
+        assertEquals(2, successCount);
+        assertEquals(1, failedCount);
+    }
+
+    private class CountingListener implements TrackerListener {
+
+        @Override
+        public void trackerNeedsFirstLaunchApproval(String message) {
+        }
+
+        @Override
+        public void buildDidEnd(HitStatus status, String message) {
+        }
+
+        @Override
+        public void sendDidEnd(HitStatus status, String message) {
+            if (status == HitStatus.Success) {
+                successCount++;
+            } else {
+                failedCount++;
+            }
+        }
+
+        @Override
+        public void didCallPartner(String response) {
+        }
+
+        @Override
+        public void warningDidOccur(String message) {
+        }
+
+        @Override
+        public void saveDidEnd(String message) {
+        }
+
+        @Override
+        public void errorDidOccur(String message) {
+        }
+    }
+}
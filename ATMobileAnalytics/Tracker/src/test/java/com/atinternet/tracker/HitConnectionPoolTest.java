@@ -0,0 +1,147 @@
+/*
+This SDK is licensed under the MIT license (MIT)
+Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class HitConnectionPoolTest extends AbstractTestClass {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int TIMEOUT = 5000;
+
+    private HttpServer server;
+    private String endpoint;
+    private HitConnectionPool connectionPool;
+    // Ports des clients vus par le serveur : une connexion réutilisée garde le même port
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        server = HttpServer.create(new InetSocketAddress(HOST, 0), 0);
+        server.createContext("/hit.xiti", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] response = "GIF89a".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(response);
+                outputStream.close();
+            }
+        });
+        server.start();
+        endpoint = "http://" + HOST + ":" + server.getAddress().getPort() + "/hit.xiti";
+        connectionPool = HitConnectionPool.getInstance();
+        connectionPool.clear();
+    }
+
+    @After
+    public void tearDown() {
+        connectionPool.configure(HitConnectionPool.DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST, HitConnectionPool.DEFAULT_KEEP_ALIVE_DURATION);
+        connectionPool.clear();
+        server.stop(0);
+    }
+
+    @Test
+    public void reuseConnectionTest() {
+        for (int i = 1; i <= 4; i++) {
+            new Sender(tracker, new Hit(endpoint + "?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(1, clientPorts.size());
+        assertEquals(1, tracker.NetworkStatistics().getOpenedConnectionCount(endpoint));
+        assertEquals(3, tracker.NetworkStatistics().getReusedConnectionCount(endpoint));
+        assertEquals(0.75, tracker.NetworkStatistics().getConnectionReuseRatio(endpoint), 0);
+        assertEquals(0.75, tracker.NetworkStatistics().getConnectionReuseRatio(), 0);
+    }
+
+    @Test
+    public void discardedConnectionNotReusedTest() throws Exception {
+        URL url = new URL(endpoint);
+        HttpConnection connection = connectionPool.acquire(url, TIMEOUT);
+        connection.exchange(new HitTransport.Request(endpoint));
+        connectionPool.discard(connection);
+        connection = connectionPool.acquire(url, TIMEOUT);
+        connection.exchange(new HitTransport.Request(endpoint));
+        connectionPool.release(connection);
+
+        assertEquals(2, clientPorts.size());
+        assertEquals(2, connectionPool.getOpenedConnectionCount(endpoint));
+        assertEquals(0, connectionPool.getReusedConnectionCount(endpoint));
+    }
+
+    @Test
+    public void idleConnectionLimitTest() throws Exception {
+        connectionPool.configure(1, HitConnectionPool.DEFAULT_KEEP_ALIVE_DURATION);
+        URL url = new URL(endpoint);
+        HttpConnection first = connectionPool.acquire(url, TIMEOUT);
+        HttpConnection second = connectionPool.acquire(url, TIMEOUT);
+        first.exchange(new HitTransport.Request(endpoint));
+        second.exchange(new HitTransport.Request(endpoint));
+        connectionPool.release(first);
+        connectionPool.release(second);
+
+        assertEquals(1, connectionPool.getIdleConnectionCount(endpoint));
+        assertEquals(2, connectionPool.getOpenedConnectionCount(endpoint));
+    }
+
+    @Test
+    public void idleConnectionEvictedTest() throws Exception {
+        connectionPool.configure(HitConnectionPool.DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST, 50);
+        URL url = new URL(endpoint);
+        HttpConnection connection = connectionPool.acquire(url, TIMEOUT);
+        connection.exchange(new HitTransport.Request(endpoint));
+        connectionPool.release(connection);
+        assertEquals(1, connectionPool.getIdleConnectionCount(endpoint));
+
+        Thread.sleep(100);
+        connection = connectionPool.acquire(url, TIMEOUT);
+        connection.exchange(new HitTransport.Request(endpoint));
+        connectionPool.release(connection);
+
+        assertEquals(2, clientPorts.size());
+        assertEquals(0, connectionPool.getReusedConnectionCount(endpoint));
+    }
+}
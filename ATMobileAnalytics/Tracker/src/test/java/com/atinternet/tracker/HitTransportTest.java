@@ -0,0 +1,168 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class HitTransportTest extends AbstractTestClass {
+
+    private static final String URL = "http://logp.xiti.com/hit.xiti?s=552987&p=page";
+
+    @Test
+    public void defaultTransportTest() {
+        assertTrue(tracker.getTransport() instanceof HttpHitTransport);
+    }
+
+    @Test
+    public void inMemoryTransportFromConfigurationTest() {
+        tracker.setConfig(TrackerConfigurationKeys.TRANSPORT, "inMemory", null, true);
+        HitTransport transport = tracker.getTransport();
+        assertTrue(transport instanceof InMemoryHitTransport);
+        assertSame(transport, tracker.getTransport());
+
+        new Sender(tracker, new Hit(URL + "1"), false).send(false);
+        new Sender(tracker, new Hit(URL + "2"), false).send(false);
+
+        InMemoryHitTransport inMemoryTransport = (InMemoryHitTransport) transport;
+        assertEquals(2, inMemoryTransport.getCount());
+        assertEquals("GET", inMemoryTransport.getRequests().get(0).getMethod());
+        assertEquals(URL + "1", inMemoryTransport.getRequests().get(0).getUrl());
+        assertNull(inMemoryTransport.getRequests().get(0).getBody());
+    }
+
+    @Test
+    public void transportInstanceTest() throws Exception {
+        InMemoryHitTransport transport = new InMemoryHitTransport();
+        tracker.setTransport(transport, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_BATCH_SENDING, true, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_ENDPOINT, "http://logp.xiti.com/batch.xiti", null, true);
+        tracker.setConfig(TrackerConfigurationKeys.BATCH_MAX_COUNT, 2, null, true);
+
+        new Sender(tracker, new Hit(URL + "1"), false).send(false);
+        new Sender(tracker, new Hit(URL + "2"), false).send(false);
+
+        assertEquals(1, transport.getCount());
+        HitTransport.Request request = transport.getRequests().get(0);
+        assertEquals("POST", request.getMethod());
+        assertEquals("http://logp.xiti.com/batch.xiti", request.getUrl());
+        assertArrayEquals("s=552987&p=page1\ns=552987&p=page2".getBytes("UTF-8"), request.getBody());
+    }
+
+    @Test
+    public void postSendingTest() throws Exception {
+        InMemoryHitTransport transport = new InMemoryHitTransport();
+        tracker.setTransport(transport, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_POST_SENDING, true, null, true);
+
+        new Sender(tracker, new Hit(URL + "1"), false).send(false);
+
+        HitTransport.Request request = transport.getRequests().get(0);
+        assertEquals("POST", request.getMethod());
+        assertEquals("http://logp.xiti.com/hit.xiti", request.getUrl());
+        assertEquals("application/x-www-form-urlencoded", request.getContentType());
+        assertArrayEquals("s=552987&p=page1".getBytes("UTF-8"), request.getBody());
+    }
+
+    @Test
+    public void loopbackTransportTest() throws Exception {
+        LoopbackHitTransport transport = new LoopbackHitTransport();
+        try {
+            HitTransport.Response response = transport.send(new HitTransport.Request(URL + "1"));
+            assertEquals(200, response.getStatusCode());
+            assertEquals(0, response.getBody().length);
+
+            response = transport.send(new HitTransport.Request(URL + "2", "s=552987".getBytes("UTF-8"), "text/plain"));
+            assertEquals(200, response.getStatusCode());
+            assertEquals(2, transport.getReceivedCount());
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void loopbackTransportFromConfigurationTest() {
+        tracker.setConfig(TrackerConfigurationKeys.TRANSPORT, "loopback", null, true);
+        LoopbackHitTransport transport = (LoopbackHitTransport) tracker.getTransport();
+        try {
+            for (int i = 1; i <= 3; i++) {
+                new Sender(tracker, new Hit(URL + i), false).send(false);
+            }
+            assertEquals(3, transport.getReceivedCount());
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void replacedLoopbackTransportClosedTest() {
+        tracker.setConfig(TrackerConfigurationKeys.TRANSPORT, "loopback", null, true);
+        LoopbackHitTransport transport = (LoopbackHitTransport) tracker.getTransport();
+        assertSame(transport, tracker.getTransport());
+
+        tracker.setConfig(TrackerConfigurationKeys.TRANSPORT, "inMemory", null, true);
+        assertTrue(tracker.getTransport() instanceof InMemoryHitTransport);
+
+        try {
+            new Socket("127.0.0.1", transport.getPort()).close();
+            fail("Replaced loopback transport still listening");
+        } catch (IOException e) {
+            // Serveur arrêté avec le transport remplacé
+        }
+    }
+
+    @Test
+    public void cancelledRequestClosesConnectionTest() {
+        final AtomicBoolean isClosed = new AtomicBoolean();
+        Closeable connection = new Closeable() {
+            @Override
+            public void close() {
+                isClosed.set(true);
+            }
+        };
+        HitTransport.Request request = new HitTransport.Request(URL);
+        assertTrue(request.attach(connection));
+
+        request.cancel();
+
+        assertTrue(isClosed.get());
+        assertFalse(request.attach(connection));
+    }
+}
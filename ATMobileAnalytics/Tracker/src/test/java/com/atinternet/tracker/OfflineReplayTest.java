@@ -0,0 +1,226 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class OfflineReplayTest extends AbstractTestClass {
+
+    private static final String URL = "http://logp.xiti.com/hit.xiti?s=552987&p=page";
+
+    private Storage storage;
+    private InMemoryHitTransport transport;
+    private TechnicalContext.ConnectionType initialConnection;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        storage = Storage.getInstance(Tracker.getAppContext());
+        storage.removeAllOfflineHits();
+        Tracker.getPreferences().edit().remove(OfflineReplay.getCursorKey(storage)).apply();
+        transport = new InMemoryHitTransport();
+        initialConnection = TechnicalContext.getConnection();
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.WIFI);
+        tracker.setTransport(transport, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.OFFLINE_MODE, "required", null, true);
+    }
+
+    @After
+    public void tearDown() {
+        tracker.setConfig(TrackerConfigurationKeys.OFFLINE_DRAIN_HITS_PER_SECOND, 0, null, true);
+        ConnectivityMonitor.getInstance().update(initialConnection);
+        storage.removeAllOfflineHits();
+    }
+
+    @Test
+    public void replayAllPagesTest() {
+        store(OfflineReplay.PAGE_SIZE * 2 + 10);
+
+        OfflineReplay replay = new OfflineReplay(tracker, storage, false);
+        replay.run();
+
+        assertEquals(OfflineReplay.PAGE_SIZE * 2 + 10, transport.getCount());
+        assertEquals(0, storage.getCountOfflineHits());
+        assertEquals(0, replay.getCursor());
+        assertEquals(0, Tracker.getPreferences().getLong(OfflineReplay.getCursorKey(storage), -1));
+    }
+
+    @Test
+    public void replayInOrderTest() {
+        store(5);
+
+        new OfflineReplay(tracker, storage, false).run();
+
+        List<HitTransport.Request> requests = transport.getRequests();
+        for (int i = 0; i < requests.size(); i++) {
+            assertTrue(requests.get(i).getUrl().contains("p=page" + i + "&"));
+        }
+    }
+
+    @Test
+    public void resumeAfterCursorTest() {
+        store(10);
+        long cursor = storage.getOfflineHits().get(5).getId();
+        Tracker.getPreferences().edit().putLong(OfflineReplay.getCursorKey(storage), cursor).apply();
+
+        new OfflineReplay(tracker, storage, false).run();
+
+        assertEquals(4, transport.getCount());
+        assertEquals(6, storage.getCountOfflineHits());
+        assertTrue(storage.getLatestOfflineHit().getId() <= cursor);
+    }
+
+    @Test
+    public void failedPageRetriedTest() {
+        store(3);
+        InMemoryHitTransport failingTransport = new InMemoryHitTransport(500);
+        tracker.setTransport(failingTransport, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_CIRCUIT_BREAKER, false, null, true);
+
+        new OfflineReplay(tracker, storage, false).run();
+
+        assertEquals(3, failingTransport.getCount());
+        assertEquals(3, storage.getCountOfflineHits());
+        for (Hit hit : storage.getOfflineHits()) {
+            assertEquals(1, hit.getRetry());
+        }
+        assertEquals(0, Tracker.getPreferences().getLong(OfflineReplay.getCursorKey(storage), -1));
+    }
+
+    @Test
+    public void cursorStopsBeforeFailedHitTest() {
+        store(OfflineReplay.PAGE_SIZE + 10);
+        final long failedId = storage.getOfflineHits().get(5).getId();
+        tracker.setTransport(new InMemoryHitTransport() {
+            @Override
+            public Response send(Request request) {
+                Response response = super.send(request);
+                return request.getUrl().contains("p=page5&") ? new Response(500, "Error", null) : response;
+            }
+        }, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_CIRCUIT_BREAKER, false, null, true);
+
+        OfflineReplay replay = new OfflineReplay(tracker, storage, false);
+        replay.run();
+
+        assertEquals(1, storage.getCountOfflineHits());
+        assertEquals(failedId, storage.getOfflineHits().get(0).getId());
+        assertTrue(replay.getCursor() < failedId);
+        assertEquals(replay.getCursor(), Tracker.getPreferences().getLong(OfflineReplay.getCursorKey(storage), -1));
+
+        // La reprise relit le hit en échec
+        tracker.setTransport(transport, null, true);
+        new OfflineReplay(tracker, storage, false).run();
+
+        assertEquals(1, transport.getCount());
+        assertTrue(transport.getRequests().get(0).getUrl().contains("p=page5&"));
+        assertEquals(0, storage.getCountOfflineHits());
+    }
+
+    @Test
+    public void cursorKeyedByBackendTest() {
+        store(3);
+        Tracker.getPreferences().edit().putLong(OfflineReplay.getCursorKey(storage), storage.getLatestOfflineHit().getId()).apply();
+        Storage.setBackend(Storage.SEGMENT_LOG_BACKEND);
+        try {
+            Storage segmentLogStorage = Storage.getInstance(Tracker.getAppContext());
+            Tracker.getPreferences().edit().remove(OfflineReplay.getCursorKey(segmentLogStorage)).apply();
+
+            assertFalse(OfflineReplay.getCursorKey(segmentLogStorage).equals(OfflineReplay.getCursorKey(storage)));
+            assertEquals(0, new OfflineReplay(tracker, segmentLogStorage, false).getCursor());
+        } finally {
+            Storage.setBackend(Storage.SQLITE_BACKEND);
+        }
+    }
+
+    @Test
+    public void cursorKeptWhenOfflineTest() {
+        store(3);
+        long cursor = storage.getOfflineHits().get(0).getId();
+        Tracker.getPreferences().edit().putLong(OfflineReplay.getCursorKey(storage), cursor).apply();
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.OFFLINE);
+
+        OfflineReplay replay = new OfflineReplay(tracker, storage, false);
+        replay.run();
+
+        assertEquals(0, transport.getCount());
+        assertEquals(cursor, replay.getCursor());
+    }
+
+    @Test
+    public void rateLimitedDrainTest() throws InterruptedException {
+        store(5);
+        tracker.setConfig(TrackerConfigurationKeys.OFFLINE_DRAIN_HITS_PER_SECOND, 2, null, true);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        long startTime = System.currentTimeMillis();
+        OfflineReplay replay = new OfflineReplay(tracker, storage, false);
+        replay.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // 2 hits envoyés tout de suite, puis un hit toutes les 500 ms
+        assertTrue(System.currentTimeMillis() - startTime >= 1400);
+        assertEquals(5, transport.getCount());
+        assertEquals(0, storage.getCountOfflineHits());
+        assertEquals(0, replay.getRemainingCount());
+        assertEquals(0, replay.getEstimatedTime());
+        assertTrue(replay.getRate() > 0);
+        assertNull(OfflineReplay.getDrain());
+    }
+
+    @Test
+    public void rateLimitedReplayIsAsyncTest() {
+        tracker.setConfig(TrackerConfigurationKeys.OFFLINE_DRAIN_HITS_PER_SECOND, 1, null, true);
+
+        assertTrue(OfflineReplay.isRateLimited(tracker));
+        assertEquals(0, tracker.Offline().getDispatchRate(), 0);
+        assertEquals(-1, tracker.Offline().getDispatchEstimatedTime());
+    }
+
+    private void store(int count) {
+        for (int i = 0; i < count; i++) {
+            storage.saveHit(URL + i + "&x=1", System.currentTimeMillis(), null);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class QueueJournalTest extends AbstractTestClass {
+
+    private File file;
+    private QueueJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        file = new File(Tracker.getAppContext().getFilesDir(), "QueueJournalTest");
+        file.delete();
+        journal = new QueueJournal(file);
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+        file.delete();
+    }
+
+    @Test
+    public void recoverPendingEntriesTest() {
+        long first = journal.append(Arrays.asList("http://logp.xiti.com/hit.xiti?s=1&mh=1-2-1", "http://logp.xiti.com/hit.xiti?s=1&mh=2-2-1"), "1500000000.1");
+        long second = journal.append(Collections.singletonList("http://logp.xiti.com/hit.xiti?s=1&p=second"), "1500000000.2");
+        journal.append(Collections.singletonList("http://logp.xiti.com/hit.xiti?s=1&p=third"), "1500000000.3");
+        journal.acknowledge(second);
+        journal.close();
+
+        journal = new QueueJournal(file);
+        List<QueueJournal.Entry> entries = journal.takeRecoveredEntries();
+        assertEquals(2, entries.size());
+        assertEquals(first, entries.get(0).getId());
+        assertEquals(Arrays.asList("http://logp.xiti.com/hit.xiti?s=1&mh=1-2-1", "http://logp.xiti.com/hit.xiti?s=1&mh=2-2-1"), entries.get(0).getUrls());
+        assertEquals("1500000000.1", entries.get(0).getOltParameter());
+        assertEquals("http://logp.xiti.com/hit.xiti?s=1&p=third", entries.get(1).getUrls().get(0));
+
+        // Une seule reprise par processus, les identifiants ne sont pas réutilisés
+        assertTrue(journal.takeRecoveredEntries().isEmpty());
+        assertTrue(journal.append(Collections.singletonList("http://logp.xiti.com/hit.xiti?s=1&p=next"), "") > entries.get(1).getId());
+    }
+
+    @Test
+    public void truncatedWhenAcknowledgedTest() {
+        long first = journal.append(Collections.singletonList("http://logp.xiti.com/hit.xiti?s=1&p=first"), "");
+        long second = journal.append(Collections.singletonList("http://logp.xiti.com/hit.xiti?s=1&p=second"), "");
+        assertTrue(file.length() > 0);
+
+        journal.acknowledge(first);
+        assertEquals(1, journal.getPendingCount());
+        journal.acknowledge(second);
+
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void incompleteRecordIgnoredTest() throws IOException {
+        journal.append(Collections.singletonList("http://logp.xiti.com/hit.xiti?s=1&p=home"), "");
+        journal.close();
+        long length = file.length();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(length);
+        randomAccessFile.write(new byte[]{0, 0, 0, 50, 1, 2});
+        randomAccessFile.close();
+
+        journal = new QueueJournal(file);
+        assertEquals(1, journal.takeRecoveredEntries().size());
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void compactionTest() {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String url = "http://logp.xiti.com/hit.xiti?s=1&p=" + new String(chars);
+        journal.append(Collections.singletonList("http://logp.xiti.com/hit.xiti?s=1&p=kept"), "");
+        for (int i = 0; i < 200; i++) {
+            journal.acknowledge(journal.append(Collections.singletonList(url), ""));
+        }
+
+        assertTrue(file.length() < QueueJournal.COMPACTION_SIZE);
+        journal.close();
+        journal = new QueueJournal(file);
+        List<QueueJournal.Entry> entries = journal.takeRecoveredEntries();
+        assertEquals(1, entries.size());
+        assertEquals("http://logp.xiti.com/hit.xiti?s=1&p=kept", entries.get(0).getUrls().get(0));
+    }
+
+    @Test
+    public void concurrentAppendDuringCompactionTest() throws InterruptedException {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        final String url = "http://logp.xiti.com/hit.xiti?s=1&p=" + new String(chars);
+        final AtomicInteger failedCount = new AtomicInteger();
+        final AtomicInteger keptCount = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        long id = journal.append(Collections.singletonList(url), "");
+                        if (id < 0) {
+                            failedCount.incrementAndGet();
+                        } else if (j % 10 == 0) {
+                            keptCount.incrementAndGet();
+                        } else {
+                            // Les acquittements déclenchent des réécritures pendant les fsync des autres threads
+                            journal.acknowledge(id);
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failedCount.get());
+        assertEquals(keptCount.get(), journal.getPendingCount());
+        journal.close();
+        journal = new QueueJournal(file);
+        assertEquals(keptCount.get(), journal.takeRecoveredEntries().size());
+    }
+}
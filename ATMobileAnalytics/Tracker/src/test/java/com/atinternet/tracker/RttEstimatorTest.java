@@ -0,0 +1,184 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class RttEstimatorTest extends AbstractTestClass {
+
+    private static final String ENDPOINT = "http://logp.xiti.com/hit.xiti";
+    private static final String KEY = RttEstimator.getKey(ENDPOINT, TechnicalContext.ConnectionType.WIFI);
+
+    private RttEstimator rttEstimator;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        rttEstimator = new RttEstimator();
+    }
+
+    @Test
+    public void notEnoughSamplesTest() {
+        for (int i = 1; i < RttEstimator.MIN_SAMPLES; i++) {
+            rttEstimator.addSample(KEY, 100);
+        }
+        assertEquals(-1, rttEstimator.getPercentile(KEY, 50));
+        assertEquals(15000, rttEstimator.getTimeout(KEY, 99, 15000));
+        assertEquals(-1, rttEstimator.getHedgeDelay(KEY));
+    }
+
+    @Test
+    public void percentileTest() {
+        for (int i = 10; i >= 1; i--) {
+            rttEstimator.addSample(KEY, i * 100);
+        }
+        assertEquals(500, rttEstimator.getPercentile(KEY, 50));
+        assertEquals(1000, rttEstimator.getPercentile(KEY, 95));
+        assertEquals(100, rttEstimator.getPercentile(KEY, 1));
+        assertEquals(-1, rttEstimator.getPercentile(RttEstimator.getKey(ENDPOINT, TechnicalContext.ConnectionType.EDGE), 50));
+    }
+
+    @Test
+    public void slidingWindowTest() {
+        for (int i = 0; i < 100; i++) {
+            rttEstimator.addSample(KEY, 5000);
+        }
+        for (int i = 0; i < 32; i++) {
+            rttEstimator.addSample(KEY, 100);
+        }
+        assertEquals(100, rttEstimator.getPercentile(KEY, 100));
+    }
+
+    @Test
+    public void timeoutBoundsTest() {
+        for (int i = 0; i < RttEstimator.MIN_SAMPLES; i++) {
+            rttEstimator.addSample(KEY, 50);
+        }
+        assertEquals(RttEstimator.MIN_TIMEOUT, rttEstimator.getTimeout(KEY, 99, 15000));
+
+        for (int i = 0; i < 32; i++) {
+            rttEstimator.addSample(KEY, 1000);
+        }
+        assertEquals(3000, rttEstimator.getTimeout(KEY, 99, 15000));
+
+        for (int i = 0; i < 32; i++) {
+            rttEstimator.addSample(KEY, 20000);
+        }
+        assertEquals(RttEstimator.MAX_TIMEOUT, rttEstimator.getTimeout(KEY, 99, 15000));
+    }
+
+    @Test
+    public void hedgedSendingTest() {
+        final AtomicInteger attemptCount = new AtomicInteger();
+        tracker.setTransport(new HitTransport() {
+            @Override
+            public Response send(Request request) {
+                // La première tentative reste bloquée
+                if (attemptCount.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(3000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new Response(200, "OK", null);
+            }
+        }, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_HEDGED_SENDING, true, null, true);
+        String key = RttEstimator.getKey(ENDPOINT, TechnicalContext.getConnection());
+        for (int i = 0; i < RttEstimator.MIN_SAMPLES; i++) {
+            tracker.getRttEstimator().addSample(key, 20);
+        }
+
+        long startTime = System.currentTimeMillis();
+        new Sender(tracker, new Hit(ENDPOINT + "?s=552987&p=page"), false).send(false);
+
+        assertTrue(System.currentTimeMillis() - startTime < 2000);
+        assertEquals(2, attemptCount.get());
+    }
+
+    @Test
+    public void adaptiveTimeoutOptInTest() {
+        final AtomicInteger timeout = new AtomicInteger();
+        tracker.setTransport(new HitTransport() {
+            @Override
+            public Response send(Request request) {
+                timeout.set(request.getTimeout());
+                return new Response(200, "OK", null);
+            }
+        }, null, true);
+        String key = RttEstimator.getKey(ENDPOINT, TechnicalContext.getConnection());
+        for (int i = 0; i < RttEstimator.MIN_SAMPLES; i++) {
+            tracker.getRttEstimator().addSample(key, 50);
+        }
+
+        new Sender(tracker, new Hit(ENDPOINT + "?s=552987&p=page1"), false).send(false);
+        assertEquals(Sender.TIMEOUT, timeout.get());
+
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_ADAPTIVE_TIMEOUT, true, null, true);
+        new Sender(tracker, new Hit(ENDPOINT + "?s=552987&p=page2"), false).send(false);
+        assertEquals(RttEstimator.MIN_TIMEOUT, timeout.get());
+    }
+
+    @Test
+    public void hedgedSendingCancelsLoserTest() throws Exception {
+        final AtomicInteger attemptCount = new AtomicInteger();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        tracker.setTransport(new HitTransport() {
+            @Override
+            public Response send(Request request) {
+                // La première tentative reste bloquée jusqu'à son annulation
+                if (attemptCount.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(3000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+                return new Response(200, "OK", null);
+            }
+        }, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_HEDGED_SENDING, true, null, true);
+        String key = RttEstimator.getKey(ENDPOINT, TechnicalContext.getConnection());
+        for (int i = 0; i < RttEstimator.MIN_SAMPLES; i++) {
+            tracker.getRttEstimator().addSample(key, 20);
+        }
+
+        new Sender(tracker, new Hit(ENDPOINT + "?s=552987&p=page"), false).send(false);
+
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+}
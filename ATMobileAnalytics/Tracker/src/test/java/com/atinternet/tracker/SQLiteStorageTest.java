@@ -0,0 +1,119 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class SQLiteStorageTest extends AbstractTestClass {
+
+    private static final String DATABASE = "StructuredDatabase";
+    private static final String STORED_HIT = "http://logp.xiti.com/hit.xiti?s=552987&idclient=123&cn=offline&ts=1500000000000&olt=1500000000.1&p=home";
+
+    private SQLiteStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Tracker.getAppContext().deleteDatabase(DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        if (storage != null) {
+            storage.close();
+        }
+        Tracker.getAppContext().deleteDatabase(DATABASE);
+    }
+
+    @Test
+    public void compressedBodyTest() {
+        storage = new SQLiteStorage(Tracker.getAppContext(), DATABASE);
+        String hit = "http://logp.xiti.com/hit.xiti?s=552987&idclient=8a6b2c1e-1234-4abc-9def-0123456789ab&vtag=2.14.0&ptag=js" +
+                "&r=1080x1920&re=1080x1794&car=Orange&cn=wifi&dm=Pixel&tz=+2&mfmd=mobile&os=android&ts=1500000000000&p=home&stc={}";
+
+        String stored = storage.saveHit(hit, System.currentTimeMillis(), "1500000000.1");
+
+        assertTrue(stored.contains("&cn=offline&"));
+        assertTrue(stored.contains("&ts=1500000000000&olt=1500000000.1&"));
+        assertEquals(stored, storage.getOfflineHits().get(0).getUrl());
+        assertEquals(Storage.getSize(stored), storage.getSizeOfflineHits());
+    }
+
+    @Test
+    public void sharedPrefixTest() {
+        storage = new SQLiteStorage(Tracker.getAppContext(), DATABASE);
+        String first = storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=home", System.currentTimeMillis(), null);
+        String second = storage.saveHit("https://logs.xiti.com/hit.xiti?s=410501&p=home", System.currentTimeMillis(), null);
+        String third = storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987", System.currentTimeMillis(), null);
+
+        ArrayList<Hit> hits = storage.getOfflineHits();
+        assertEquals(3, hits.size());
+        assertEquals(first, hits.get(0).getUrl());
+        assertEquals(second, hits.get(1).getUrl());
+        assertEquals(third, hits.get(2).getUrl());
+    }
+
+    @Test
+    public void migrationTest() {
+        File file = Tracker.getAppContext().getDatabasePath(DATABASE);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL("CREATE TABLE StoredOfflineHit (id INTEGER PRIMARY KEY AUTOINCREMENT , hit TEXT NOT NULL , date INTEGER NOT NULL , " +
+                "retry INTEGER NOT NULL , type TEXT NOT NULL DEFAULT '' , size INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE INDEX StoredOfflineHit_date ON StoredOfflineHit (date);");
+        db.execSQL("INSERT INTO StoredOfflineHit (id, hit, date, retry, type, size) VALUES (5, ?, 1000, 2, 'Screen', ?)",
+                new Object[]{STORED_HIT, Storage.getSize(STORED_HIT)});
+        db.execSQL("INSERT INTO StoredOfflineHit (id, hit, date, retry, type, size) VALUES (9, 'http://logp.xiti.com/hit.xiti?s=552987&p=deleted', 2000, 0, 'Screen', 47)");
+        db.execSQL("DELETE FROM StoredOfflineHit WHERE id = 9");
+        db.setVersion(3);
+        db.close();
+
+        storage = new SQLiteStorage(Tracker.getAppContext(), DATABASE);
+        ArrayList<Hit> hits = storage.getOfflineHits();
+        assertEquals(1, hits.size());
+        assertEquals(5, hits.get(0).getId());
+        assertEquals(STORED_HIT, hits.get(0).getUrl());
+        assertEquals(2, hits.get(0).getRetry());
+        assertEquals(1000, hits.get(0).getDate().getTime());
+        assertEquals(Storage.getSize(STORED_HIT), storage.getSizeOfflineHits());
+
+        // Les identifiants déjà attribués ne sont pas réutilisés
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=next", System.currentTimeMillis(), null);
+        assertEquals(10, storage.getOfflineHits().get(1).getId());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class SegmentLogStorageTest extends StorageTest {
+
+    private static final String URL = "http://logp.xiti.com/hit.xiti?s=552987&p=page";
+
+    @Override
+    String getBackend() {
+        return Storage.SEGMENT_LOG_BACKEND;
+    }
+
+    @Test
+    public void backendSelectionTest() {
+        assertTrue(Storage.getInstance(Tracker.getAppContext()) instanceof SegmentLogStorage);
+        tracker.setConfig(TrackerConfigurationKeys.STORAGE_BACKEND, Storage.SQLITE_BACKEND, null, true);
+        assertTrue(Storage.getInstance(Tracker.getAppContext()) instanceof SQLiteStorage);
+    }
+
+    @Test
+    public void reloadFromFilesTest() {
+        File directory = newDirectory("reload");
+        SegmentLogStorage log = new SegmentLogStorage(directory);
+        log.saveHits(urls(5), System.currentTimeMillis(), null);
+        List<Hit> hits = log.getOfflineHits();
+        log.deleteHit(hits.get(0).getId());
+        log.updateRetry(hits.get(1).getId(), 2);
+        log.close();
+
+        SegmentLogStorage reloaded = new SegmentLogStorage(directory);
+        hits = reloaded.getOfflineHits();
+        assertEquals(4, reloaded.getCountOfflineHits());
+        assertTrue(hits.get(0).getUrl().contains("p=page1"));
+        assertEquals(2, hits.get(0).getRetry());
+
+        reloaded.saveHit(URL + "new", System.currentTimeMillis() + 1000, null);
+        assertEquals(hits.get(3).getId() + 1, reloaded.getLatestOfflineHit().getId());
+    }
+
+    @Test
+    public void compactionTest() {
+        SegmentLogStorage log = new SegmentLogStorage(newDirectory("compaction"));
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            padding.append('x');
+        }
+        ArrayList<String> urls = new ArrayList<>();
+        for (int i = 0; i < 3 * SegmentLogStorage.SEGMENT_SIZE / 1000; i++) {
+            urls.add(URL + i + "&pad=" + padding);
+        }
+        log.saveHits(urls, System.currentTimeMillis(), null);
+        int segmentCount = log.getSegmentCount();
+        assertTrue(segmentCount > 2);
+
+        ArrayList<Long> ids = new ArrayList<>();
+        for (Hit hit : log.getOfflineHits(0, urls.size() / 2)) {
+            ids.add(hit.getId());
+        }
+        log.updateHits(ids, Collections.<Long, Integer>emptyMap());
+        log.compact();
+
+        assertTrue(log.getSegmentCount() < segmentCount);
+        assertEquals(urls.size() - ids.size(), log.getCountOfflineHits());
+        assertTrue(log.getOfflineHits(0, 1).get(0).getUrl().contains("p=page" + ids.size() + "&"));
+    }
+
+    @Test
+    public void truncatedRecordTest() throws Exception {
+        File directory = newDirectory("truncated");
+        SegmentLogStorage log = new SegmentLogStorage(directory);
+        log.saveHits(urls(2), System.currentTimeMillis(), null);
+        log.close();
+
+        // Écriture interrompue au milieu d'un enregistrement
+        File segment = new File(directory, "1.seg");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(file.length());
+        file.write(new byte[]{0, 0, 1, 0, 0});
+        file.close();
+
+        SegmentLogStorage reloaded = new SegmentLogStorage(directory);
+        assertEquals(2, reloaded.getCountOfflineHits());
+        reloaded.saveHit(URL + "2", System.currentTimeMillis() + 1000, null);
+        assertEquals(3, reloaded.getOfflineHits().size());
+        assertTrue(reloaded.getLatestOfflineHit().getUrl().contains("p=page2"));
+    }
+
+    private File newDirectory(String name) {
+        File directory = new File(Tracker.getAppContext().getFilesDir(), "SegmentLogStorageTest-" + name);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        return directory;
+    }
+
+    private List<String> urls(int count) {
+        ArrayList<String> urls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            urls.add(URL + i);
+        }
+        return urls;
+    }
+}
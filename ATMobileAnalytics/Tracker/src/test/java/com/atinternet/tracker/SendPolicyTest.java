@@ -0,0 +1,169 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class SendPolicyTest extends AbstractTestClass {
+
+    private static final String URL = "http://logp.xiti.com/hit.xiti?s=552987";
+
+    private SendPolicy sendPolicy;
+    private Storage storage;
+    private InMemoryHitTransport transport;
+    private TechnicalContext.ConnectionType initialConnection;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        sendPolicy = tracker.getSendPolicy();
+        storage = Storage.getInstance(Tracker.getAppContext());
+        storage.removeAllOfflineHits();
+        transport = new InMemoryHitTransport();
+        initialConnection = TechnicalContext.getConnection();
+        tracker.setTransport(transport, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.OFFLINE_MODE, "required", null, true);
+        tracker.setConfig(TrackerConfigurationKeys.ENABLE_NETWORK_AWARE_SENDING, true, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.DEFERRED_SENDING_MAX_DELAY, 60000, null, true);
+    }
+
+    @After
+    public void tearDown() {
+        ConnectivityMonitor.getInstance().update(initialConnection);
+        storage.removeAllOfflineHits();
+    }
+
+    @Test
+    public void deferOnSlowNetworkTest() {
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.EDGE);
+
+        send(URL + "&type=pdt&p=product");
+        send(URL + "&type=video&a=refresh&p=video");
+
+        assertEquals(0, transport.getCount());
+        assertEquals(2, storage.getCountOfflineHits());
+    }
+
+    @Test
+    public void criticalHitSentImmediatelyTest() {
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.EDGE);
+
+        send(URL + "&type=pdt&p=product");
+        send(URL + "&p=screen");
+        send(URL + "&type=video&a=play&p=video");
+
+        assertEquals(2, transport.getCount());
+        assertEquals(1, storage.getCountOfflineHits());
+    }
+
+    @Test
+    public void deferredHitKeptWhenCriticalHitFollowsTest() throws InterruptedException {
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.EDGE);
+        send(URL + "&type=pdt&p=product");
+        assertEquals(1, storage.getCountOfflineHits());
+
+        // Le hit critique déclenche le rejeu des hits stockés avant son envoi
+        Builder.sendHits(tracker, Collections.singletonList(URL + "&p=screen"), "", null);
+        assertTrue(tracker.getSenderPool().awaitIdle(5000));
+
+        assertEquals(1, transport.getCount());
+        assertTrue(transport.getRequests().get(0).getUrl().contains("&p=screen"));
+        assertEquals(1, storage.getCountOfflineHits());
+    }
+
+    @Test
+    public void forcedDispatchSendsDeferredHitsTest() {
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.EDGE);
+        send(URL + "&type=pdt&p=product");
+
+        new OfflineReplay(tracker, storage, true).run();
+
+        assertEquals(1, transport.getCount());
+        assertEquals(0, storage.getCountOfflineHits());
+    }
+
+    @Test
+    public void sendOnFastNetworkTest() {
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.WIFI);
+
+        send(URL + "&type=pdt&p=product");
+
+        assertEquals(1, transport.getCount());
+        assertEquals(0, storage.getCountOfflineHits());
+    }
+
+    @Test
+    public void meteredNetworkTest() {
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.FOURG);
+        send(URL + "&type=pdt&p=product");
+        assertEquals(0, transport.getCount());
+
+        storage.removeAllOfflineHits();
+        tracker.setConfig(TrackerConfigurationKeys.DEFER_ON_METERED_NETWORK, false, null, true);
+        send(URL + "&type=pdt&p=product");
+        assertEquals(1, transport.getCount());
+    }
+
+    @Test
+    public void disabledWithoutStorageTest() {
+        ConnectivityMonitor.getInstance().update(TechnicalContext.ConnectionType.EDGE);
+        tracker.setConfig(TrackerConfigurationKeys.OFFLINE_MODE, "never", null, true);
+
+        send(URL + "&type=pdt&p=product");
+
+        assertEquals(1, transport.getCount());
+    }
+
+    @Test
+    public void deferrableHitTypesTest() {
+        tracker.setConfig(TrackerConfigurationKeys.DEFERRABLE_HIT_TYPES, "Touch", null, true);
+
+        assertTrue(sendPolicy.isDeferrable(new Hit(URL + "&click=A&p=touch")));
+        assertFalse(sendPolicy.isDeferrable(new Hit(URL + "&type=pdt&p=product")));
+        assertFalse(sendPolicy.isDeferrable(new Hit(URL + "&type=video&a=refresh")));
+    }
+
+    @Test
+    public void linkImprovedTest() {
+        assertTrue(sendPolicy.isLinkImproved(TechnicalContext.ConnectionType.EDGE, TechnicalContext.ConnectionType.WIFI));
+        assertFalse(sendPolicy.isLinkImproved(TechnicalContext.ConnectionType.WIFI, TechnicalContext.ConnectionType.EDGE));
+        assertFalse(sendPolicy.isLinkImproved(TechnicalContext.ConnectionType.EDGE, TechnicalContext.ConnectionType.OFFLINE));
+    }
+
+    private void send(String url) {
+        new Sender(tracker, new Hit(url), false).send(false);
+    }
+}
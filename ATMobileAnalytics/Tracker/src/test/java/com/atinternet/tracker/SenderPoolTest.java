@@ -0,0 +1,231 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class SenderPoolTest extends AbstractTestClass {
+
+    private SenderPool senderPool;
+    private final AtomicInteger runningCount = new AtomicInteger();
+    private final AtomicInteger maxRunningCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        senderPool = tracker.getSenderPool();
+    }
+
+    @Test
+    public void inlineWithOneWorkerTest() {
+        final Thread[] threads = new Thread[1];
+        senderPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                threads[0] = Thread.currentThread();
+            }
+        });
+        assertSame(Thread.currentThread(), threads[0]);
+    }
+
+    @Test
+    public void parallelWorkersTest() throws Exception {
+        tracker.setConfig(TrackerConfigurationKeys.SENDER_WORKERS, 4, null, true);
+        for (int i = 0; i < 8; i++) {
+            senderPool.execute(slowTask(null, i));
+        }
+
+        assertTrue(senderPool.awaitIdle(5000));
+        assertTrue(maxRunningCount.get() > 1);
+        assertTrue(maxRunningCount.get() <= 4);
+    }
+
+    @Test
+    public void strictOrderingTest() throws Exception {
+        tracker.setConfig(TrackerConfigurationKeys.SENDER_WORKERS, 4, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.STRICT_ORDERING, true, null, true);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 20; i++) {
+            senderPool.execute(slowTask(order, i));
+        }
+
+        assertTrue(senderPool.awaitIdle(5000));
+        assertEquals(1, maxRunningCount.get());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void strictOrderingBoundedQueueTest() throws Exception {
+        tracker.setConfig(TrackerConfigurationKeys.SENDER_WORKERS, 4, null, true);
+        tracker.setConfig(TrackerConfigurationKeys.STRICT_ORDERING, true, null, true);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        senderPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                order.add(-1);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < SenderPool.QUEUE_CAPACITY; i++) {
+            senderPool.execute(orderedTask(order, i));
+        }
+
+        // File pleine : l'appelant suivant attend une place
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                senderPool.execute(orderedTask(order, SenderPool.QUEUE_CAPACITY));
+            }
+        });
+        caller.start();
+        caller.join(200);
+        assertTrue(caller.isAlive());
+
+        release.countDown();
+        caller.join(5000);
+        assertFalse(caller.isAlive());
+        assertTrue(senderPool.awaitIdle(5000));
+        assertEquals(SenderPool.QUEUE_CAPACITY + 2, order.size());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i - 1, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void executeAllTest() throws Exception {
+        tracker.setConfig(TrackerConfigurationKeys.SENDER_WORKERS, 3, null, true);
+        final AtomicInteger completedCount = new AtomicInteger();
+        ArrayList<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    completedCount.incrementAndGet();
+                }
+            });
+        }
+        final int[] completedCountAtEnd = new int[1];
+        senderPool.executeAll(tasks, new Runnable() {
+            @Override
+            public void run() {
+                completedCountAtEnd[0] = completedCount.get();
+            }
+        });
+
+        assertTrue(senderPool.awaitIdle(5000));
+        assertEquals(6, completedCountAtEnd[0]);
+    }
+
+    @Test
+    public void multiHitPartsStayGroupedTest() throws Exception {
+        tracker.setConfig(TrackerConfigurationKeys.SENDER_WORKERS, 4, null, true);
+        InMemoryHitTransport transport = new InMemoryHitTransport();
+        tracker.setTransport(transport, null, true);
+        for (int i = 0; i < 3; i++) {
+            // Les paramètres volatiles sont remis au builder, ils sont ajoutés à chaque hit
+            for (int j = 1; j <= 220; j++) {
+                buffer.getVolatileParams().put("verybigkey" + j, new Param("verybigkey" + j, closureValue("verybigvalue" + j)));
+            }
+            new Builder(tracker).run();
+        }
+
+        assertTrue(senderPool.awaitIdle(5000));
+        HashMap<String, Integer> lastPartByMhId = new HashMap<>();
+        for (HitTransport.Request request : transport.getRequests()) {
+            String mh = request.getUrl().split("&mh=")[1].split("&")[0];
+            String[] parts = mh.split("-");
+            Integer lastPart = lastPartByMhId.get(parts[2]);
+            assertEquals(lastPart == null ? 1 : lastPart + 1, Integer.parseInt(parts[0]));
+            lastPartByMhId.put(parts[2], Integer.parseInt(parts[0]));
+        }
+        assertEquals(3, lastPartByMhId.size());
+    }
+
+    private Runnable orderedTask(final List<Integer> order, final int index) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(index);
+            }
+        };
+    }
+
+    private Runnable slowTask(final List<Integer> order, final int index) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                int running = runningCount.incrementAndGet();
+                synchronized (maxRunningCount) {
+                    maxRunningCount.set(Math.max(maxRunningCount.get(), running));
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (order != null) {
+                    order.add(index);
+                }
+                runningCount.decrementAndGet();
+            }
+        };
+    }
+
+    private Closure closureValue(final Object object) {
+        return new Closure() {
+            @Override
+            public String execute() {
+                return String.valueOf(object);
+            }
+        };
+    }
+}
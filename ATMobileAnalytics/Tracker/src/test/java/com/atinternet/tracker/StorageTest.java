@@ -0,0 +1,324 @@
+/*
+ * This SDK is licensed under the MIT license (MIT)
+ * Copyright (c) 2015- Applied Technologies Internet SAS (registration number B 403 261 258 - Trade and Companies Register of Bordeaux – France)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.atinternet.tracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Config(sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class StorageTest extends AbstractTestClass {
+
+    private Storage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tracker.setConfig(TrackerConfigurationKeys.STORAGE_BACKEND, getBackend(), null, true);
+        storage = Storage.getInstance(Tracker.getAppContext());
+        storage.removeAllOfflineHits();
+    }
+
+    @After
+    public void tearDown() {
+        storage.removeAllOfflineHits();
+        Storage.setBackend(Storage.SQLITE_BACKEND);
+        Storage.setLimits(0, 0, null);
+    }
+
+    String getBackend() {
+        return Storage.SQLITE_BACKEND;
+    }
+
+    @Test
+    public void saveAndCountTest() {
+        assertEquals(0, storage.getCountOfflineHits());
+        assertNotNull(storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=home", System.currentTimeMillis(), null));
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=next", System.currentTimeMillis(), null);
+        assertEquals(2, storage.getCountOfflineHits());
+        assertEquals(2, storage.getOfflineHits().size());
+    }
+
+    @Test
+    public void deleteAndUpdateRetryTest() {
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=l'accueil", System.currentTimeMillis(), null);
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=l'accueil", System.currentTimeMillis(), null);
+        Hit hit = storage.getOfflineHits().get(0);
+        assertTrue(hit.getId() >= 0);
+
+        storage.updateRetry(hit.getId(), 2);
+        assertEquals(2, storage.getOfflineHits().get(0).getRetry());
+        assertEquals(0, storage.getOfflineHits().get(1).getRetry());
+
+        storage.deleteHit(hit.getId());
+        assertEquals(1, storage.getCountOfflineHits());
+        assertEquals(hit.getId() + 1, storage.getOfflineHits().get(0).getId());
+    }
+
+    @Test
+    public void countWithoutMatchingRowTest() {
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=home", System.currentTimeMillis(), null);
+        Hit hit = storage.getOfflineHits().get(0);
+
+        storage.deleteHit(hit.getId() + 100);
+        storage.updateRetry(hit.getId(), 1);
+        assertEquals(1, storage.getCountOfflineHits());
+
+        storage.deleteHit(hit.getId());
+        storage.deleteHit(hit.getId());
+        assertEquals(0, storage.getCountOfflineHits());
+    }
+
+    @Test
+    public void pagedReadTest() {
+        for (int i = 0; i < 7; i++) {
+            storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=page" + i, System.currentTimeMillis(), null);
+        }
+        List<Hit> firstPage = storage.getOfflineHits(0, 3);
+        assertEquals(3, firstPage.size());
+        assertTrue(firstPage.get(0).getUrl().contains("p=page0"));
+
+        List<Hit> lastPage = storage.getOfflineHits(storage.getOfflineHits(firstPage.get(2).getId(), 3).get(2).getId(), 3);
+        assertEquals(1, lastPage.size());
+        assertTrue(lastPage.get(0).getUrl().contains("p=page6"));
+
+        Iterator<Hit> iterator = tracker.Offline().get(3);
+        int count = 0;
+        while (iterator.hasNext()) {
+            assertTrue(iterator.next().getUrl().contains("p=page" + count));
+            count++;
+        }
+        assertEquals(7, count);
+    }
+
+    @Test
+    public void saveHitsTest() {
+        List<String> stored = storage.saveHits(Arrays.asList(
+                "http://logp.xiti.com/hit.xiti?s=552987&mh=1-2-123&p=home",
+                "http://logp.xiti.com/hit.xiti?s=552987&mh=2-2-123&p=home"), System.currentTimeMillis(), "olt");
+
+        assertEquals(2, stored.size());
+        assertTrue(stored.get(0).contains("&mh=1-2-123&olt=olt"));
+        assertEquals(2, storage.getCountOfflineHits());
+        assertEquals(stored.get(1), storage.getOfflineHits().get(1).getUrl());
+    }
+
+    @Test
+    public void updateHitsTest() {
+        for (int i = 0; i < 4; i++) {
+            storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=page" + i, System.currentTimeMillis(), null);
+        }
+        List<Hit> hits = storage.getOfflineHits();
+        HashMap<Long, Integer> retries = new HashMap<>();
+        retries.put(hits.get(2).getId(), 3);
+
+        storage.updateHits(Arrays.asList(hits.get(0).getId(), hits.get(1).getId()), retries);
+
+        hits = storage.getOfflineHits();
+        assertEquals(2, storage.getCountOfflineHits());
+        assertEquals(2, hits.size());
+        assertEquals(3, hits.get(0).getRetry());
+        assertEquals(0, hits.get(1).getRetry());
+    }
+
+    @Test
+    public void countLimitOldestEvictionTest() {
+        Storage.setLimits(3, 0, Storage.OLDEST_EVICTION);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=page" + i, now + i, null);
+        }
+
+        List<Hit> hits = storage.getOfflineHits();
+        assertEquals(3, storage.getCountOfflineHits());
+        assertTrue(hits.get(0).getUrl().contains("p=page2"));
+        assertEquals(2, storage.takeEvictedHitCount());
+        assertEquals(0, storage.takeEvictedHitCount());
+    }
+
+    @Test
+    public void sizeLimitEvictionTest() {
+        String hit = "http://logp.xiti.com/hit.xiti?s=552987&p=page";
+        Storage.setLimits(0, 2 * (hit.length() + 1), Storage.OLDEST_EVICTION);
+        for (int i = 0; i < 3; i++) {
+            storage.saveHit(hit + i, System.currentTimeMillis(), null);
+        }
+
+        assertEquals(2, storage.getCountOfflineHits());
+        assertEquals(2 * (hit.length() + 1), storage.getSizeOfflineHits());
+        assertTrue(storage.getOfflineHits().get(0).getUrl().endsWith("p=page1"));
+    }
+
+    @Test
+    public void priorityEvictionTest() {
+        Storage.setLimits(2, 0, Storage.PRIORITY_EVICTION);
+        long now = System.currentTimeMillis();
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=home", now, null);
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&type=pdt&p=product", now + 1, null);
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&type=video&a=refresh&p=video", now + 2, null);
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&click=A&p=touch", now + 3, null);
+
+        List<Hit> hits = storage.getOfflineHits();
+        assertEquals(2, hits.size());
+        assertTrue(hits.get(0).getUrl().contains("p=home"));
+        assertTrue(hits.get(1).getUrl().contains("p=touch"));
+        assertEquals(2, storage.takeEvictedHitCount());
+    }
+
+    @Test
+    public void evictionReportedToListenerTest() {
+        final List<String> warnings = new ArrayList<>();
+        tracker.setListener(new TrackerListener() {
+            @Override
+            public void trackerNeedsFirstLaunchApproval(String message) {
+            }
+
+            @Override
+            public void buildDidEnd(HitStatus status, String message) {
+            }
+
+            @Override
+            public void sendDidEnd(HitStatus status, String message) {
+            }
+
+            @Override
+            public void didCallPartner(String response) {
+            }
+
+            @Override
+            public void warningDidOccur(String message) {
+                warnings.add(message);
+            }
+
+            @Override
+            public void saveDidEnd(String message) {
+            }
+
+            @Override
+            public void errorDidOccur(String message) {
+            }
+        });
+        tracker.setConfig(TrackerConfigurationKeys.OFFLINE_MODE, "always", null, true);
+        tracker.setConfig(TrackerConfigurationKeys.MAX_OFFLINE_HITS, 2, null, true);
+        for (int i = 0; i < 3; i++) {
+            new Sender(tracker, new Hit("http://logp.xiti.com/hit.xiti?s=552987&p=page" + i), false).send(false);
+        }
+
+        assertEquals(2, storage.getCountOfflineHits());
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).startsWith("1 stored hit(s) evicted"));
+    }
+
+    @Test
+    public void oldestAndLatestTest() {
+        long now = System.currentTimeMillis();
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=latest", now, null);
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=oldest", now - 2 * 24 * 60 * 60 * 1000L, null);
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=middle", now - 1000, null);
+
+        Hit oldest = storage.getOldestOfflineHit();
+        Hit latest = storage.getLatestOfflineHit();
+        assertTrue(oldest.getUrl().contains("p=oldest"));
+        assertTrue(latest.getUrl().contains("p=latest"));
+        assertEquals(now - 2 * 24 * 60 * 60 * 1000L, oldest.getDate().getTime());
+
+        storage.removeOldOfflineHits(1);
+        assertEquals(2, storage.getCountOfflineHits());
+        assertTrue(storage.getOldestOfflineHit().getUrl().contains("p=middle"));
+    }
+
+    @Test
+    public void reopenAfterCloseTest() {
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=home", System.currentTimeMillis(), null);
+        storage.close();
+
+        storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=next", System.currentTimeMillis(), null);
+        assertEquals(2, storage.getCountOfflineHits());
+        assertSame(storage, Storage.getInstance(Tracker.getAppContext()));
+    }
+
+    @Test
+    public void concurrentReadWriteTest() throws Exception {
+        final int writers = 4;
+        final int hitsPerWriter = 25;
+        final CountDownLatch done = new CountDownLatch(writers + 1);
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            final int writer = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < hitsPerWriter; j++) {
+                            if (storage.saveHit("http://logp.xiti.com/hit.xiti?s=552987&p=" + writer + "_" + j, System.currentTimeMillis(), null) == null) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int j = 0; j < hitsPerWriter; j++) {
+                        if (storage.getCountOfflineHits() < 0) {
+                            errors.incrementAndGet();
+                        }
+                        storage.getOfflineHits();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        }));
+        for (Thread t : threads) {
+            t.start();
+        }
+        done.await();
+
+        assertEquals(0, errors.get());
+        assertEquals(writers * hitsPerWriter, storage.getCountOfflineHits());
+    }
+}
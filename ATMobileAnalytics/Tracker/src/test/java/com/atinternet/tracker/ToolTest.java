@@ -31,7 +31,10 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.Map;
+import java.util.Random;
 
 import static com.atinternet.tracker.Tracker.OfflineMode.always;
 import static com.atinternet.tracker.Tracker.OfflineMode.never;
@@ -106,6 +109,34 @@ public class ToolTest extends AbstractTestClass {
         assertEquals(encodingHit, Tool.percentEncode(rawHit));
     }
 
+    @Test
+    public void percentEncodeMatchesUrlEncoderTest() throws UnsupportedEncodingException {
+        Random random = new Random(42);
+        char[] samples = {' ', '+', '*', '-', '.', '_', '~', '%', '&', '=', 'a', 'Z', '0', '\u00e9', '\u07ff', '\u0800', '\u20ac', '\uffff', '\ud83d', '\ude00'};
+        for (int i = 0; i < 20000; i++) {
+            char[] chars = new char[random.nextInt(16)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = random.nextBoolean() ? samples[random.nextInt(samples.length)] : (char) random.nextInt(Character.MAX_VALUE + 1);
+            }
+            String s = new String(chars);
+            assertEquals(urlEncoderPercentEncode(s), Tool.percentEncode(s));
+        }
+
+        StringBuilder builder = new StringBuilder("&p=");
+        Tool.percentEncode("caf\u00e9 \ud83d\ude00", builder);
+        assertEquals("&p=caf%C3%A9%20%F0%9F%98%80", builder.toString());
+    }
+
+    // Ancienne implémentation, servant de référence
+    static String urlEncoderPercentEncode(String s) throws UnsupportedEncodingException {
+        return URLEncoder.encode(s, "UTF-8")
+                .replace("+", "%20")
+                .replace("*", "%2A")
+                .replace("-", "%2D")
+                .replace(".", "%2E")
+                .replace("_", "%5F");
+    }
+
     @Test
     public void percentDecodeTest() {
         String encodingHit = "s%3D552987%26vtag%3D2.0.0%26ptag%3DAndroid%26lng%3Dfr_fr%26manufacturer%3Dsamsung%26model%3DSM%2DG920F%26mfmd%3D%5Bgoogle%5D-%5Bnexus5%5D%26os%3D%5Bandroid%5D-%5B5.0.1%5D%26apvr%3D%5B1.0%5D%26hl%3D13x36x23%26r%3D1080x1776%26cn%3Doffline%26na%3D1422880583.9140000343322754%26olt%3D1422880583.9089999198913574%26idclient%3Df54d728a-2db6-4b59-9511-48d01c0175ac%26p%3DScreenName%26stc%3D%7B%22Lifecycle%22%3A%7B%22fl%22%3A0%2C%22fld%22%3A20150202%2C%22dsfl%22%3A0%2C%22flau%22%3A0%2C%22dsu%22%3A0%2C%22dslu%22%3A0%2C%22lc%22%3A5%2C%22lcsu%22%3A0%2C%22ldc%22%3A5%2C%22lwc%22%3A5%2C%22lmc%22%3A5%7D%7D%26ref%3Dwww.atinternet.com";